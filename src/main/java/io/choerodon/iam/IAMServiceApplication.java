@@ -1,6 +1,7 @@
 package io.choerodon.iam;
 
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.cloud.netflix.eureka.EnableEurekaClient;
@@ -39,6 +40,19 @@ public class IAMServiceApplication {
         return executor;
     }
 
+    /**
+     * ldap同步写库线程池，读取ldap的线程只负责分页拉取，每页的比对和入库交给该线程池
+     */
+    @Bean
+    @Qualifier("ldap-writer-executor")
+    public AsyncTaskExecutor ldapSyncWriterExecutor(@Value("${choerodon.ldap.sync.writer-threads:4}") int writerThreads) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setThreadNamePrefix("ldap-writer-executor");
+        executor.setMaxPoolSize(Math.max(writerThreads, 1));
+        executor.setCorePoolSize(Math.max(writerThreads, 1));
+        return executor;
+    }
+
     @Bean
     @Qualifier("excel-executor")
     public AsyncTaskExecutor excelImportUserExecutor() {
@@ -49,6 +63,20 @@ public class IAMServiceApplication {
         return executor;
     }
 
+    /**
+     * excel流式导入的工作线程池，负责校验、密码加密和插入，默认与cpu核数相同
+     */
+    @Bean
+    @Qualifier("excel-worker-executor")
+    public AsyncTaskExecutor excelImportWorkerExecutor(
+            @Value("${choerodon.excel.import.worker-threads:#{T(java.lang.Runtime).getRuntime().availableProcessors()}}") int workerThreads) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setThreadNamePrefix("excel-worker-executor");
+        executor.setMaxPoolSize(Math.max(workerThreads, 1));
+        executor.setCorePoolSize(Math.max(workerThreads, 1));
+        return executor;
+    }
+
     @Bean
     @Qualifier("notify-executor")
     public AsyncTaskExecutor asyncSendNoticeExecutor() {
@@ -59,4 +87,31 @@ public class IAMServiceApplication {
         executor.setQueueCapacity(99999);
         return executor;
     }
+
+    /**
+     * 事务提交后异步发送saga事件的线程池
+     */
+    @Bean
+    @Qualifier("saga-executor")
+    public AsyncTaskExecutor asyncSagaEventExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setThreadNamePrefix("saga-executor");
+        executor.setCorePoolSize(1);
+        executor.setMaxPoolSize(2);
+        return executor;
+    }
+
+    /**
+     * 分批调用notify-service的线程池，线程数即同时发送的批次数
+     */
+    @Bean
+    @Qualifier("notify-batch-executor")
+    public AsyncTaskExecutor noticeBatchSendExecutor(
+            @Value("${choerodon.notice.send-concurrency:4}") int sendConcurrency) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setThreadNamePrefix("notify-batch-executor");
+        executor.setMaxPoolSize(Math.max(sendConcurrency, 1));
+        executor.setCorePoolSize(Math.max(sendConcurrency, 1));
+        return executor;
+    }
 }
@@ -7,6 +7,7 @@ import io.choerodon.base.domain.Sort;
 import io.choerodon.base.enums.ResourceType;
 import io.choerodon.core.base.BaseController;
 import io.choerodon.core.iam.ResourceLevel;
+import io.choerodon.iam.api.dto.KeysetPageDTO;
 import io.choerodon.iam.api.dto.UserSearchDTO;
 import io.choerodon.iam.app.service.ExcelService;
 import io.choerodon.iam.app.service.OrganizationUserService;
@@ -108,6 +109,21 @@ public class OrganizationUserController extends BaseController {
         return new ResponseEntity<>(organizationUserService.pagingQuery(pageRequest, user), HttpStatus.OK);
     }
 
+    /**
+     * 游标分页查询，按id倒序，不做offset计数
+     */
+    @Permission(type = ResourceType.ORGANIZATION)
+    @ApiOperation(value = "游标分页查询用户")
+    @PostMapping(value = "/users/search/keyset")
+    public ResponseEntity<KeysetPageDTO<UserDTO>> listByKeyset(@PathVariable(name = "organization_id") Long organizationId,
+                                                               @RequestParam(value = "last_id", required = false) Long lastId,
+                                                               @RequestParam(defaultValue = "20") int size,
+                                                               @RequestParam(value = "with_total", defaultValue = "false") boolean withTotal,
+                                                               @RequestBody UserSearchDTO user) {
+        user.setOrganizationId(organizationId);
+        return new ResponseEntity<>(organizationUserService.keysetQuery(lastId, size, withTotal, user), HttpStatus.OK);
+    }
+
     @Permission(type = ResourceType.ORGANIZATION)
     @ApiOperation(value = "查询组织下的用户")
     @GetMapping(value = "/users/{id}")
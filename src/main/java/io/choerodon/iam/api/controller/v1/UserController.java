@@ -273,6 +273,14 @@ public class UserController extends BaseController {
         return new ResponseEntity<>(userService.listUsersByIds(ids, onlyEnabled), HttpStatus.OK);
     }
 
+    @Permission(permissionWithin = true)
+    @ApiOperation(value = "根据id批量查询精简用户信息列表")
+    @PostMapping(value = "/ids/slim")
+    public ResponseEntity<List<SlimUserDTO>> listSlimUsersByIds(@RequestBody Long[] ids,
+                                                                @RequestParam(value = "only_enabled", defaultValue = "true", required = false) Boolean onlyEnabled) {
+        return new ResponseEntity<>(userService.listSlimUsersByIds(ids, onlyEnabled), HttpStatus.OK);
+    }
+
     @Permission(permissionWithin = true)
     @ApiOperation(value = "根据email批量查询用户信息列表")
     @PostMapping(value = "/emails")
@@ -280,6 +288,13 @@ public class UserController extends BaseController {
         return new ResponseEntity<>(userService.listUsersByEmails(emails), HttpStatus.OK);
     }
 
+    @Permission(permissionWithin = true)
+    @ApiOperation(value = "根据email批量查询精简用户信息列表")
+    @PostMapping(value = "/emails/slim")
+    public ResponseEntity<List<SlimUserDTO>> listSlimUsersByEmails(@RequestBody String[] emails) {
+        return new ResponseEntity<>(userService.listSlimUsersByEmails(emails), HttpStatus.OK);
+    }
+
     @Permission(permissionWithin = true)
     @ApiOperation(value = "根据email批量查询用户信息列表")
     @PostMapping(value = "/login_names")
@@ -288,6 +303,14 @@ public class UserController extends BaseController {
         return new ResponseEntity<>(userService.listUsersByLoginNames(loginNames, onlyEnabled), HttpStatus.OK);
     }
 
+    @Permission(permissionWithin = true)
+    @ApiOperation(value = "根据loginName批量查询精简用户信息列表")
+    @PostMapping(value = "/login_names/slim")
+    public ResponseEntity<List<SlimUserDTO>> listSlimUsersByLoginNames(@RequestBody String[] loginNames,
+                                                                       @RequestParam(value = "only_enabled", defaultValue = "true", required = false) Boolean onlyEnabled) {
+        return new ResponseEntity<>(userService.listSlimUsersByLoginNames(loginNames, onlyEnabled), HttpStatus.OK);
+    }
+
     @Permission(type = ResourceType.SITE, permissionLogin = true)
     @ApiOperation("根据id分页获取组织列表和角色")
     @GetMapping("/{id}/organization_roles")
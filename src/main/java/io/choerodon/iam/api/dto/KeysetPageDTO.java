@@ -0,0 +1,68 @@
+package io.choerodon.iam.api.dto;
+
+import io.swagger.annotations.ApiModelProperty;
+
+import java.util.List;
+
+/**
+ * 游标分页结果，下一页以lastId作为游标查询，不做offset计数
+ *
+ * @author agent
+ */
+public class KeysetPageDTO<T> {
+
+    @ApiModelProperty(value = "当前页数据")
+    private List<T> list;
+
+    @ApiModelProperty(value = "当前页最后一条记录的id，查询下一页时传入")
+    private Long lastId;
+
+    @ApiModelProperty(value = "是否还有下一页")
+    private Boolean hasNextPage;
+
+    @ApiModelProperty(value = "总数，仅在请求时返回，最多数到上限")
+    private Long total;
+
+    @ApiModelProperty(value = "总数是否达到计数上限，为true时实际总数大于等于total")
+    private Boolean totalCapped;
+
+    public List<T> getList() {
+        return list;
+    }
+
+    public void setList(List<T> list) {
+        this.list = list;
+    }
+
+    public Long getLastId() {
+        return lastId;
+    }
+
+    public void setLastId(Long lastId) {
+        this.lastId = lastId;
+    }
+
+    public Boolean getHasNextPage() {
+        return hasNextPage;
+    }
+
+    public void setHasNextPage(Boolean hasNextPage) {
+        this.hasNextPage = hasNextPage;
+    }
+
+    public Long getTotal() {
+        return total;
+    }
+
+    public void setTotal(Long total) {
+        this.total = total;
+    }
+
+    public Boolean getTotalCapped() {
+        return totalCapped;
+    }
+
+    public void setTotalCapped(Boolean totalCapped) {
+        this.totalCapped = totalCapped;
+    }
+}
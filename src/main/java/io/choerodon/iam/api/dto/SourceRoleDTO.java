@@ -0,0 +1,43 @@
+package io.choerodon.iam.api.dto;
+
+/**
+ * 用户在某个资源下拥有的角色及资源启用状态，用于批量权限校验
+ */
+public class SourceRoleDTO {
+    private String sourceType;
+    private Long sourceId;
+    private Boolean enabled;
+    private Long roleId;
+
+    public String getSourceType() {
+        return sourceType;
+    }
+
+    public void setSourceType(String sourceType) {
+        this.sourceType = sourceType;
+    }
+
+    public Long getSourceId() {
+        return sourceId;
+    }
+
+    public void setSourceId(Long sourceId) {
+        this.sourceId = sourceId;
+    }
+
+    public Boolean getEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(Boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public Long getRoleId() {
+        return roleId;
+    }
+
+    public void setRoleId(Long roleId) {
+        this.roleId = roleId;
+    }
+}
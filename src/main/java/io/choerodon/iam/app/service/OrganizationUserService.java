@@ -5,6 +5,7 @@ import java.util.List;
 import com.github.pagehelper.PageInfo;
 
 import io.choerodon.base.domain.PageRequest;
+import io.choerodon.iam.api.dto.KeysetPageDTO;
 import io.choerodon.iam.api.dto.UserSearchDTO;
 import io.choerodon.iam.infra.dto.LdapErrorUserDTO;
 import io.choerodon.iam.infra.dto.UserDTO;
@@ -19,6 +20,17 @@ public interface OrganizationUserService {
 
     PageInfo<UserDTO> pagingQuery(PageRequest pageRequest, UserSearchDTO user);
 
+    /**
+     * 游标分页查询用户，按id倒序
+     *
+     * @param lastId    上一页最后一个用户id，为null时查询第一页
+     * @param size      每页数量
+     * @param withTotal 是否返回总数，总数最多数到配置的上限
+     * @param user      查询条件
+     * @return 游标分页结果
+     */
+    KeysetPageDTO<UserDTO> keysetQuery(Long lastId, int size, boolean withTotal, UserSearchDTO user);
+
     UserDTO update(UserDTO userDTO);
 
     UserDTO resetUserPassword(Long organizationId, Long userId);
@@ -40,6 +52,22 @@ public interface OrganizationUserService {
      */
     List<LdapErrorUserDTO> batchCreateUsers(List<UserDTO> insertUsers);
 
+    /**
+     * ldap 批量启用用户，一条语句更新状态，逐个用户发送启用事件
+     *
+     * @param organizationId 组织id
+     * @param users          待启用的用户
+     */
+    void batchEnableUsers(Long organizationId, List<UserDTO> users);
+
+    /**
+     * ldap 批量停用用户，一条语句更新状态，逐个用户发送停用事件
+     *
+     * @param organizationId 组织id
+     * @param users          待停用的用户
+     */
+    void batchDisableUsers(Long organizationId, List<UserDTO> users);
+
     List<Long> listUserIds(Long organizationId);
 
 }
@@ -12,6 +12,7 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.util.List;
+import java.util.Map;
 
 /**
  * @author superlee
@@ -60,4 +61,12 @@ public interface RoleMemberService {
     void delete(RoleAssignmentDeleteDTO roleAssignmentDeleteDTO, String sourceType);
 
     void insertAndSendEvent(MemberRoleDTO memberRole, String loginName);
+
+    /**
+     * 批量插入同一资源下的角色分配，发送一次批量事件
+     *
+     * @param memberRoles 角色分配，调用方需控制单批数量
+     * @param loginNames  用户id到登录名的映射，用于事件
+     */
+    void batchInsertAndSendEvent(List<MemberRoleDTO> memberRoles, Map<Long, String> loginNames);
 }
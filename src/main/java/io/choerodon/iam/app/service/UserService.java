@@ -123,6 +123,32 @@ public interface UserService {
      */
     List<UserDTO> listUsersByLoginNames(String[] loginNames, Boolean onlyEnabled);
 
+    /**
+     * 根据用户id集合查询精简用户信息
+     *
+     * @param ids         用户id数组
+     * @param onlyEnabled 默认为true，只查询启用的用户
+     * @return List<SlimUserDTO> 精简用户集合
+     */
+    List<SlimUserDTO> listSlimUsersByIds(Long[] ids, Boolean onlyEnabled);
+
+    /**
+     * 根据用户emails集合查询启用的精简用户信息
+     *
+     * @param emails 用户email数组
+     * @return List<SlimUserDTO> 精简用户集合
+     */
+    List<SlimUserDTO> listSlimUsersByEmails(String[] emails);
+
+    /**
+     * 根据loginName集合查询精简用户信息
+     *
+     * @param loginNames  登录名数组
+     * @param onlyEnabled 默认为true，只查询启用的用户
+     * @return List<SlimUserDTO> 精简用户集合
+     */
+    List<SlimUserDTO> listSlimUsersByLoginNames(String[] loginNames, Boolean onlyEnabled);
+
     /**
      * 异步
      * 向用户发送通知（包括邮件和站内信）
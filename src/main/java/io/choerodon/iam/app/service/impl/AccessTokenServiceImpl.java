@@ -1,19 +1,27 @@
 package io.choerodon.iam.app.service.impl;
 
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.*;
 import java.util.stream.Collectors;
 
-import com.github.pagehelper.Page;
+import com.github.pagehelper.PageHelper;
 import com.github.pagehelper.PageInfo;
 import io.choerodon.base.domain.PageRequest;
 import io.choerodon.core.oauth.CustomUserDetails;
 import io.choerodon.iam.infra.asserts.DetailsHelperAssert;
 import io.choerodon.iam.infra.asserts.UserAssertHelper;
-import io.choerodon.iam.infra.common.utils.PageUtils;
+import io.choerodon.iam.infra.common.utils.CollectionUtils;
+import io.choerodon.iam.infra.common.utils.cache.TokenMetadataCache;
 import io.choerodon.iam.infra.dto.AccessTokenDTO;
 import io.choerodon.iam.infra.dto.UserDTO;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.oauth2.common.DefaultOAuth2AccessToken;
 import org.springframework.security.oauth2.common.util.SerializationUtils;
 import org.springframework.stereotype.Service;
@@ -32,35 +40,60 @@ import io.choerodon.iam.infra.mapper.RefreshTokenMapper;
 @Service
 public class AccessTokenServiceImpl implements AccessTokenService {
     private static final Logger logger = LoggerFactory.getLogger(AccessTokenServiceImpl.class);
+    private static final String TOKEN_PURGE_METRIC = "iam.token.purge";
+    /**
+     * 没有过期时间的token记为该时间，不会被清理
+     */
+    private static final Date NEVER_EXPIRE = new GregorianCalendar(9999, Calendar.DECEMBER, 31).getTime();
     private AccessTokenMapper accessTokenMapper;
     private RefreshTokenMapper refreshTokenMapper;
     private OauthTokenFeignClient oauthTokenFeignClient;
     private UserAssertHelper userAssertHelper;
+    private TokenMetadataCache tokenMetadataCache;
+    private int purgeBatchSize;
 
     public AccessTokenServiceImpl(AccessTokenMapper accessTokenMapper, RefreshTokenMapper refreshTokenMapper,
                                   OauthTokenFeignClient oauthTokenFeignClient,
-                                  UserAssertHelper userAssertHelper) {
+                                  UserAssertHelper userAssertHelper,
+                                  TokenMetadataCache tokenMetadataCache,
+                                  @Value("${choerodon.token.purge.batch-size:500}") int purgeBatchSize) {
         this.accessTokenMapper = accessTokenMapper;
         this.refreshTokenMapper = refreshTokenMapper;
         this.oauthTokenFeignClient = oauthTokenFeignClient;
         this.userAssertHelper = userAssertHelper;
+        this.tokenMetadataCache = tokenMetadataCache;
+        //oracle In-list上限为1000，这里List size要小于1000
+        this.purgeBatchSize = Math.min(Math.max(purgeBatchSize, 1), 999);
     }
 
     @Override
     public PageInfo<AccessTokenDTO> pagedSearch(PageRequest pageRequest, String clientName, String currentToken) {
         CustomUserDetails userDetails = DetailsHelperAssert.userDetailNotExisted();
         UserDTO userDTO = userAssertHelper.userNotExisted(userDetails.getUserId());
-        List<AccessTokenDTO> result = searchAndOrderBy(clientName, currentToken, userDTO.getLoginName());
-        return doPage(pageRequest, result);
+        String currentTokenId = tokenKey(currentToken);
+        PageInfo<AccessTokenDTO> result = PageHelper.startPage(pageRequest.getPage(), pageRequest.getSize())
+                .doSelectPageInfo(() -> accessTokenMapper.selectTokenPage(userDTO.getLoginName(), clientName, currentTokenId));
+        Map<String, TokenMetadataCache.Metadata> metadataMap =
+                tokenMetadataCache.getAll(result.getList().stream().map(AccessTokenDTO::getTokenId).collect(Collectors.toList()));
+        result.getList().forEach(token -> {
+            TokenMetadataCache.Metadata metadata = metadataMap.get(token.getTokenId());
+            token.setCurrentToken(token.getTokenId().equals(currentTokenId));
+            if (metadata != null) {
+                token.setAccesstoken(metadata.getValue());
+                token.setExpirationTime(metadata.getExpiration());
+                token.setExpire(metadata.isExpired());
+                token.setCreateTime(metadata.getCreateTime());
+            }
+        });
+        return result;
     }
 
     @Override
     public void delete(String tokenId, String currentToken) {
-        AccessTokenDTO accessTokenDTO = accessTokenMapper.selectByPrimaryKey(tokenId);
-        if (accessTokenDTO == null) {
+        if (accessTokenMapper.selectTokenIds(Collections.singletonList(tokenId)).isEmpty()) {
             throw new CommonException("error.token.not.exist");
         }
-        if (((DefaultOAuth2AccessToken) SerializationUtils.deserialize(accessTokenDTO.getToken())).getValue().equalsIgnoreCase(currentToken)) {
+        if (tokenId.equals(tokenKey(currentToken))) {
             throw new CommonException("error.delete.current.token");
         }
         oauthTokenFeignClient.deleteToken(tokenId);
@@ -69,14 +102,15 @@ public class AccessTokenServiceImpl implements AccessTokenService {
 
     @Override
     public void deleteList(List<String> tokenIds, String currentToken) {
-        List<AccessTokenDTO> accessTokens = accessTokenMapper.selectTokenList(tokenIds);
-        List<String> tokens = accessTokens.stream().map(t -> ((DefaultOAuth2AccessToken) SerializationUtils.deserialize(t.getToken())).getValue()).collect(Collectors.toList());
-
-        if (tokens != null && !tokens.isEmpty() && tokens.contains(currentToken)) {
+        List<String> existedTokenIds = new ArrayList<>();
+        //oracle In-list上限为1000，这里List size要小于1000
+        CollectionUtils.subSet(new LinkedHashSet<>(tokenIds), 999)
+                .forEach(set -> existedTokenIds.addAll(accessTokenMapper.selectTokenIds(set)));
+        if (existedTokenIds.contains(tokenKey(currentToken))) {
             throw new CommonException("error.delete.current.token");
         }
-        if (tokens != null && tokens.size() != tokenIds.size()) {
-            tokenIds = accessTokens.stream().map(AccessTokenDTO::getTokenId).collect(Collectors.toList());
+        if (existedTokenIds.size() != tokenIds.size()) {
+            tokenIds = existedTokenIds;
         }
         oauthTokenFeignClient.deleteTokenList(tokenIds);
     }
@@ -84,64 +118,91 @@ public class AccessTokenServiceImpl implements AccessTokenService {
     @JobTask(maxRetryCount = 2, code = "deleteAllExpiredToken", level = ResourceLevel.SITE, description = "删除所有失效token")
     @Override
     public void deleteAllExpiredToken(Map<String, Object> map) {
-        List<AccessTokenDTO> accessTokens = accessTokenMapper.selectAll();
-        //过滤出所有失效token
-        List<AccessTokenDTO> allExpired = accessTokens.stream().filter(t -> ((DefaultOAuth2AccessToken) SerializationUtils.deserialize(t.getToken())).isExpired()).collect(Collectors.toList());
-        allExpired.forEach(t -> {
-            accessTokenMapper.deleteByPrimaryKey(t.getTokenId());
-            refreshTokenMapper.deleteByPrimaryKey(t.getRefreshToken());
-        });
-        logger.info("All expired tokens have been cleared.");
+        long start = System.currentTimeMillis();
+        long filled = fillExpiration();
+        long deleted = deleteExpired(new Date());
+        logger.info("All expired tokens have been cleared, expiration filled: {}, deleted: {}, cost: {}ms",
+                filled, deleted, System.currentTimeMillis() - start);
     }
 
-    private PageInfo<AccessTokenDTO> doPage(PageRequest pageRequest, List<AccessTokenDTO> result) {
-        int page = pageRequest.getPage();
-        int size = pageRequest.getSize();
-        Page<AccessTokenDTO> pageResult = new Page<>(page, size);
-        int total = result.size();
-        pageResult.setTotal(total);
-        if (size == 0) {
-            pageResult.addAll(result);
-        } else {
-            int start = PageUtils.getBegin(page, size);
-            int end = page * size > total ? total : page * size;
-            pageResult.addAll(result.subList(start, end));
-        }
-        return pageResult.toPageInfo();
+    /**
+     * token由oauth服务写入，过期时间只存在于序列化的Token对象中。
+     * 按token_id分批为还没有过期时间的token反序列化一次并回写过期时间，之后的清理只按过期时间列判断
+     */
+    private long fillExpiration() {
+        Counter counter = Metrics.counter(TOKEN_PURGE_METRIC, "stage", "fill-expiration");
+        long count = 0;
+        String lastTokenId = null;
+        List<AccessTokenDTO> tokens;
+        do {
+            tokens = accessTokenMapper.selectWithoutExpiration(lastTokenId, purgeBatchSize);
+            if (tokens.isEmpty()) {
+                break;
+            }
+            tokens.forEach(t -> {
+                t.setExpirationTime(expirationOf(t));
+                t.setToken(null);
+            });
+            accessTokenMapper.batchUpdateExpiration(tokens);
+            lastTokenId = tokens.get(tokens.size() - 1).getTokenId();
+            count += tokens.size();
+            counter.increment(tokens.size());
+        } while (tokens.size() == purgeBatchSize);
+        return count;
     }
 
-    private List<AccessTokenDTO> searchAndOrderBy(String clientName, String currentToken, String loginName) {
-        List<AccessTokenDTO> userAccessTokens = accessTokenMapper.selectTokens(loginName, clientName);
-        List<AccessTokenDTO> result = new ArrayList<>();
-        List<AccessTokenDTO> tokensWithoutCreateTime = new ArrayList<>();
-        List<AccessTokenDTO> tokensWithCreateTime = new ArrayList<>();
-
-        userAccessTokens.forEach(token -> {
-            DefaultOAuth2AccessToken defaultToken = SerializationUtils.deserialize(token.getToken());
-            String tokenValue = defaultToken.getValue();
-            token.setAccesstoken(tokenValue);
-            token.setExpirationTime(defaultToken.getExpiration());
-            token.setExpire(defaultToken.isExpired());
-            boolean isCurrentToken = tokenValue.equalsIgnoreCase(currentToken);
-            token.setCurrentToken(isCurrentToken);
-            Object createTime = defaultToken.getAdditionalInformation().get("createTime");
-            if (isCurrentToken) {
-                //当前token置顶
-                result.add(token);
-            } else {
-                if (createTime == null) {
-                    tokensWithoutCreateTime.add(token);
-                } else {
-                    token.setCreateTime((Date) createTime);
-                    tokensWithCreateTime.add(token);
-                }
+    /**
+     * 分批删除过期的access token及其refresh token，每批只加载token_id和refresh_token
+     */
+    private long deleteExpired(Date now) {
+        Counter counter = Metrics.counter(TOKEN_PURGE_METRIC, "stage", "delete");
+        long count = 0;
+        List<AccessTokenDTO> tokens;
+        do {
+            tokens = accessTokenMapper.selectExpired(now, purgeBatchSize);
+            if (tokens.isEmpty()) {
+                break;
             }
-            token.setCreateTime((Date) createTime);
-        });
-        //有createTime的排序，没有的不排序
-        tokensWithCreateTime.sort(Comparator.comparing(AccessTokenDTO::getCreateTime).reversed());
-        result.addAll(tokensWithCreateTime);
-        result.addAll(tokensWithoutCreateTime);
-        return result;
+            Set<String> tokenIds = tokens.stream().map(AccessTokenDTO::getTokenId).collect(Collectors.toSet());
+            Set<String> refreshTokenIds = tokens.stream().map(AccessTokenDTO::getRefreshToken)
+                    .filter(Objects::nonNull).collect(Collectors.toSet());
+            int deleted = accessTokenMapper.deleteByTokenIds(tokenIds);
+            if (!refreshTokenIds.isEmpty()) {
+                refreshTokenMapper.deleteByTokenIds(refreshTokenIds);
+            }
+            count += deleted;
+            counter.increment(deleted);
+            logger.debug("deleted {} expired tokens, total: {}", deleted, count);
+            if (deleted == 0) {
+                break;
+            }
+        } while (tokens.size() == purgeBatchSize);
+        return count;
+    }
+
+    private Date expirationOf(AccessTokenDTO accessToken) {
+        try {
+            Date expiration = ((DefaultOAuth2AccessToken) SerializationUtils.deserialize(accessToken.getToken())).getExpiration();
+            return expiration == null ? NEVER_EXPIRE : expiration;
+        } catch (RuntimeException e) {
+            //无法反序列化的token已经不可用，按过期处理
+            logger.warn("deserialize token {} failed, treat as expired: {}", accessToken.getTokenId(), e.getMessage());
+            return new Date(0);
+        }
+    }
+
+    /**
+     * 与oauth服务JdbcTokenStore生成token_id的方式一致：token值的MD5
+     */
+    private static String tokenKey(String value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            byte[] bytes = MessageDigest.getInstance("MD5").digest(value.getBytes(StandardCharsets.UTF_8));
+            return String.format("%032x", new BigInteger(1, bytes));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 algorithm not available", e);
+        }
     }
 }
@@ -7,12 +7,15 @@ import io.choerodon.asgard.saga.producer.StartSagaBuilder;
 import io.choerodon.asgard.saga.producer.TransactionalProducer;
 import io.choerodon.core.exception.CommonException;
 import io.choerodon.core.iam.ResourceLevel;
+import io.choerodon.core.oauth.CustomUserDetails;
+import io.choerodon.core.oauth.DetailsHelper;
 import io.choerodon.iam.api.query.ApplicationQuery;
 import io.choerodon.iam.app.service.ApplicationService;
 import io.choerodon.iam.infra.asserts.ApplicationAssertHelper;
 import io.choerodon.iam.infra.asserts.OrganizationAssertHelper;
 import io.choerodon.iam.infra.asserts.ProjectAssertHelper;
 import io.choerodon.iam.infra.common.utils.CollectionUtils;
+import io.choerodon.iam.infra.common.utils.cache.ApplicationCombinationCache;
 import io.choerodon.iam.infra.dto.ApplicationDTO;
 import io.choerodon.iam.infra.dto.ApplicationExplorationDTO;
 import io.choerodon.iam.infra.enums.ApplicationCategory;
@@ -29,6 +32,7 @@ import org.springframework.util.StringUtils;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -52,6 +56,10 @@ public class ApplicationServiceImpl implements ApplicationService {
 
     private static final Long PROJECT_DOES_NOT_EXIST_ID = 0L;
     private static final String SEPARATOR = "/";
+    /**
+     * 批量插入路径时每条语句的行数
+     */
+    private static final int BATCH_SIZE = 999;
 
     private ApplicationMapper applicationMapper;
 
@@ -65,6 +73,8 @@ public class ApplicationServiceImpl implements ApplicationService {
 
     private TransactionalProducer producer;
 
+    private ApplicationCombinationCache applicationCombinationCache;
+
     @Value("${choerodon.devops.message:false}")
     private boolean devopsMessage;
 
@@ -73,13 +83,15 @@ public class ApplicationServiceImpl implements ApplicationService {
                                   ApplicationExplorationMapper applicationExplorationMapper,
                                   OrganizationAssertHelper organizationAssertHelper,
                                   ProjectAssertHelper projectAssertHelper,
-                                  ApplicationAssertHelper applicationAssertHelper) {
+                                  ApplicationAssertHelper applicationAssertHelper,
+                                  ApplicationCombinationCache applicationCombinationCache) {
         this.applicationMapper = applicationMapper;
         this.producer = producer;
         this.applicationExplorationMapper = applicationExplorationMapper;
         this.organizationAssertHelper = organizationAssertHelper;
         this.projectAssertHelper = projectAssertHelper;
         this.applicationAssertHelper = applicationAssertHelper;
+        this.applicationCombinationCache = applicationCombinationCache;
     }
 
     @Override
@@ -187,20 +199,17 @@ public class ApplicationServiceImpl implements ApplicationService {
         } else {
             doDelete(applicationDTO);
         }
+        applicationCombinationCache.invalidate(applicationDTO.getOrganizationId());
     }
 
     @Override
     public PageInfo<ApplicationDTO> pagingQuery(int page, int size, ApplicationQuery applicationSearchDTO, Boolean withDescendants) {
         PageInfo<ApplicationDTO> result = PageHelper.startPage(page, size).doSelectPageInfo(() -> applicationMapper.fuzzyQuery(applicationSearchDTO));
         if (withDescendants) {
-            result.getList().forEach(app -> {
-                //组合应用查询所有后代
-                if (ApplicationCategory.isCombination(app.getApplicationCategory())) {
-                    List<ApplicationExplorationDTO> applicationExplorations = applicationExplorationMapper.selectDescendants(generatePath(app.getId()));
-                    //todo dfs算法优化
-                    processTreeData(app, applicationExplorations);
-                }
-            });
+            //组合应用查询所有后代
+            List<ApplicationDTO> combinations =
+                    result.getList().stream().filter(app -> ApplicationCategory.isCombination(app.getApplicationCategory())).collect(Collectors.toList());
+            processTreeData(combinations);
         }
         return result;
     }
@@ -301,12 +310,10 @@ public class ApplicationServiceImpl implements ApplicationService {
     public void addToCombination(Long organizationId, Long id, Long[] ids) {
         Set<Long> idSet = preValidate(organizationId, id, ids, "error.application.addToCombination.not.support");
 
-        //查询直接儿子
-        List<ApplicationExplorationDTO> originDirectDescendant =
-                applicationExplorationMapper.selectDirectDescendantByApplicationId(id);
+        //查询直接儿子，写路径在事务内重新加载关系图
+        ApplicationCombinationCache.Graph graph = applicationCombinationCache.loadFresh(organizationId);
         //筛选哪些儿子不变，哪些要删除，哪些要新增
-        List<Long> originDirectDescendantIds =
-                originDirectDescendant.stream().map(ApplicationExplorationDTO::getApplicationId).collect(Collectors.toList());
+        List<Long> originDirectDescendantIds = new ArrayList<>(graph.children(id));
         List<Long> intersection = originDirectDescendantIds.stream().filter(idSet::contains).collect(Collectors.toList());
         List<Long> insertList = idSet.stream().filter(item ->
                 !intersection.contains(item)).collect(Collectors.toList());
@@ -316,16 +323,25 @@ public class ApplicationServiceImpl implements ApplicationService {
         //查询到达目标应用的所有路径，key为rootId,value为在该root节点下的所有路径
         Map<Long, Set<String>> rootIdMap = getRootIdMap(id);
         if (!insertList.isEmpty()) {
-            //查询子应用的所有后代，并校验是否构成环
+            //校验是否构成环
+            canAddToCombination(graph, id, idSet, insertList);
+            //查询子应用的所有后代
             Map<Long, List<ApplicationExplorationDTO>> descendantMap = getDescendantMap(new HashSet<>(insertList));
-            canAddToCombination(id, idSet, descendantMap);
+            List<ApplicationExplorationDTO> treeNodes = new ArrayList<>();
             for (Map.Entry<Long, Set<String>> entry : rootIdMap.entrySet()) {
                 Long rootId = entry.getKey();
                 Set<String> paths = entry.getValue();
-                paths.forEach(path -> addTreeNode(id, descendantMap, rootId, path));
+                paths.forEach(path -> treeNodes.addAll(generateTreeNodes(id, descendantMap, rootId, path)));
             }
+            CustomUserDetails userDetails = DetailsHelper.getUserDetails();
+            Long userId = userDetails == null ? 0L : userDetails.getUserId();
+            CollectionUtils.subList(treeNodes, BATCH_SIZE).forEach(list ->
+                    applicationExplorationMapper.batchInsert(list, userId));
         }
         deleteDescendants(deleteList, rootIdMap);
+        if (!insertList.isEmpty() || !deleteList.isEmpty()) {
+            applicationCombinationCache.invalidate(organizationId);
+        }
     }
 
     @Override
@@ -334,6 +350,7 @@ public class ApplicationServiceImpl implements ApplicationService {
         Set<Long> idSet = preValidate(organizationId, id, ids, "error.application.deleteCombination.not.support");
         Map<Long, Set<String>> rootIdMap = getRootIdMap(id);
         deleteDescendants(idSet, rootIdMap);
+        applicationCombinationCache.invalidate(organizationId);
     }
 
     @Override
@@ -358,11 +375,7 @@ public class ApplicationServiceImpl implements ApplicationService {
             throw new CommonException("error.application.query.not.support");
         }
         List<ApplicationDTO> applications = applicationMapper.selectWithProject(organizationId);
-        List<ApplicationExplorationDTO> ancestors = applicationExplorationMapper.selectAncestorByApplicationId(id);
-        Set<Long> ancestorIds = ancestors.stream().map(ApplicationExplorationDTO::getApplicationId).collect(Collectors.toSet());
-        if (ancestorIds.isEmpty()) {
-            ancestorIds.add(id);
-        }
+        Set<Long> ancestorIds = applicationCombinationCache.get(organizationId).ancestors(id);
         List<ApplicationDTO> apps =
                 applications.stream().filter(app -> !ancestorIds.contains(app.getId())).collect(Collectors.toList());
         return apps;
@@ -373,9 +386,7 @@ public class ApplicationServiceImpl implements ApplicationService {
         ApplicationDTO app = applicationAssertHelper.applicationNotExisted(id);
         if (withDescendants &&
                 ApplicationCategory.isCombination(app.getApplicationCategory())) {
-            List<ApplicationExplorationDTO> applicationExplorations = applicationExplorationMapper.selectDescendants(generatePath(app.getId()));
-            //todo dfs算法优化
-            processTreeData(app, applicationExplorations);
+            processTreeData(Collections.singletonList(app));
         }
         return app;
     }
@@ -398,13 +409,18 @@ public class ApplicationServiceImpl implements ApplicationService {
         return map;
     }
 
+    /**
+     * 批量查询应用的所有后代，包含自己。以应用自身为根的路径都以"/id/"开头，即root_id为该应用的路径
+     *
+     * @param idSet 应用id集合
+     * @return key为应用id，value为以该应用为根的所有路径
+     */
     private Map<Long, List<ApplicationExplorationDTO>> getDescendantMap(Set<Long> idSet) {
         Map<Long, List<ApplicationExplorationDTO>> map = new HashMap<>(idSet.size());
-        idSet.forEach(currentId -> {
-            List<ApplicationExplorationDTO> list =
-                    applicationExplorationMapper.selectDescendantByPath(generatePath(currentId));
-            map.put(currentId, list);
-        });
+        idSet.forEach(currentId -> map.put(currentId, new ArrayList<>()));
+        //oracle In-list上限为1000，这里List size要小于1000
+        CollectionUtils.subSet(idSet, 999).forEach(set ->
+                applicationExplorationMapper.selectDescendantByRootIds(set).forEach(ae -> map.get(ae.getRootId()).add(ae)));
         return map;
     }
 
@@ -488,7 +504,8 @@ public class ApplicationServiceImpl implements ApplicationService {
         }
     }
 
-    private void addTreeNode(Long id, Map<Long, List<ApplicationExplorationDTO>> descendantMap, Long rootId, String parentPath) {
+    private List<ApplicationExplorationDTO> generateTreeNodes(Long id, Map<Long, List<ApplicationExplorationDTO>> descendantMap, Long rootId, String parentPath) {
+        List<ApplicationExplorationDTO> treeNodes = new ArrayList<>();
         for (Map.Entry<Long, List<ApplicationExplorationDTO>> entry : descendantMap.entrySet()) {
             Long key = entry.getKey();
             List<ApplicationExplorationDTO> applicationExplorations = entry.getValue();
@@ -508,38 +525,34 @@ public class ApplicationServiceImpl implements ApplicationService {
                 }
                 example.setId(null);
                 example.setEnabled(true);
-                applicationExplorationMapper.insertSelective(example);
+                treeNodes.add(example);
             });
         }
+        return treeNodes;
     }
 
-    private void deleteTreeNode(Map<Long, List<ApplicationExplorationDTO>> descendantMap, String parentPath) {
+    private List<String> generateTreeNodePaths(Map<Long, List<ApplicationExplorationDTO>> descendantMap, String parentPath) {
+        List<String> paths = new ArrayList<>();
         for (Map.Entry<Long, List<ApplicationExplorationDTO>> entry : descendantMap.entrySet()) {
             List<ApplicationExplorationDTO> applicationExplorations = entry.getValue();
             applicationExplorations.forEach(ae -> {
                 StringBuilder builder =
                         new StringBuilder().append(parentPath).append(ae.getPath().substring(1));
-                String path = builder.toString();
-                ApplicationExplorationDTO example = new ApplicationExplorationDTO();
-                example.setPath(path);
-                applicationExplorationMapper.delete(example);
+                paths.add(builder.toString());
             });
         }
+        return paths;
     }
 
-    private void canAddToCombination(Long id, Set<Long> idSet, Map<Long, List<ApplicationExplorationDTO>> descendantMap) {
+    private void canAddToCombination(ApplicationCombinationCache.Graph graph, Long id, Set<Long> idSet, List<Long> insertList) {
         if (idSet.contains(id)) {
             throw new CommonException("error.application.add2combination.circle", id, id);
         }
-        Set<ApplicationExplorationDTO> set = new HashSet<>();
-        for (Map.Entry<Long, List<ApplicationExplorationDTO>> entry : descendantMap.entrySet()) {
-            set.addAll(entry.getValue());
-        }
+        //新增的子应用的后代中包含目标组合应用则构成环
         List<Long> illegalIds =
-                set
+                insertList
                         .stream()
-                        .filter(ae -> ae.getApplicationId().equals(id))
-                        .map(ApplicationExplorationDTO::getRootId)
+                        .filter(insertId -> graph.descendants(insertId).contains(id))
                         .collect(Collectors.toList());
         if (!illegalIds.isEmpty()) {
             throw new CommonException("error.application.add2combination.circle", Arrays.toString(illegalIds.toArray()), id);
@@ -549,10 +562,16 @@ public class ApplicationServiceImpl implements ApplicationService {
     private void deleteDescendants(Collection<Long> deleteList, Map<Long, Set<String>> rootIdMap) {
         if (!deleteList.isEmpty()) {
             Map<Long, List<ApplicationExplorationDTO>> descendantMap = getDescendantMap(new HashSet<>(deleteList));
+            Set<String> treeNodePaths = new HashSet<>();
             for (Map.Entry<Long, Set<String>> entry : rootIdMap.entrySet()) {
                 Set<String> paths = entry.getValue();
-                paths.forEach(path -> deleteTreeNode(descendantMap, path));
+                paths.forEach(path -> treeNodePaths.addAll(generateTreeNodePaths(descendantMap, path)));
             }
+            //oracle In-list上限为1000，这里List size要小于1000
+            CollectionUtils.subSet(treeNodePaths, 999).forEach(paths -> {
+                Set<String> hashcodes = paths.stream().map(path -> String.valueOf(path.hashCode())).collect(Collectors.toSet());
+                applicationExplorationMapper.deleteByPaths(hashcodes, paths);
+            });
         }
     }
 
@@ -568,26 +587,48 @@ public class ApplicationServiceImpl implements ApplicationService {
         return idSet;
     }
 
-    private void processTreeData(ApplicationDTO app, List<ApplicationExplorationDTO> applicationExplorations) {
+    /**
+     * 根据内存中的组合关系图为组合应用构建后代树，应用详情按id批量查询
+     *
+     * @param combinations 组合应用
+     */
+    private void processTreeData(List<ApplicationDTO> combinations) {
+        Map<Long, List<ApplicationDTO>> orgMap =
+                combinations.stream().collect(Collectors.groupingBy(ApplicationDTO::getOrganizationId));
+        orgMap.forEach((organizationId, apps) -> {
+            ApplicationCombinationCache.Graph graph = applicationCombinationCache.get(organizationId);
+            Set<Long> descendantIds = new HashSet<>();
+            apps.forEach(app -> descendantIds.addAll(graph.descendants(app.getId())));
+            Map<Long, ApplicationDTO> detailMap = new HashMap<>(descendantIds.size());
+            //oracle In-list上限为1000，这里List size要小于1000
+            CollectionUtils.subSet(descendantIds, 999).forEach(set ->
+                    applicationMapper.selectWithProjectByIds(set).forEach(dto -> detailMap.put(dto.getId(), dto)));
+            apps.forEach(app -> processTreeData(app, graph, detailMap));
+        });
+    }
+
+    private void processTreeData(ApplicationDTO app, ApplicationCombinationCache.Graph graph, Map<Long, ApplicationDTO> detailMap) {
         Long appId = app.getId();
         List<ApplicationDTO> applications = new ArrayList<>();
-        applicationExplorations.forEach(ae -> {
-            if (appId.equals(ae.getParentId())) {
-                ApplicationDTO dto = new ApplicationDTO();
-                dto.setId(ae.getApplicationId());
-                dto.setName(ae.getApplicationName());
-                dto.setCode(ae.getApplicationCode());
-                dto.setApplicationCategory(ae.getApplicationCategory());
-                dto.setApplicationType(ae.getApplicationType());
-                dto.setEnabled(ae.getApplicationEnabled());
-                dto.setProjectId(ae.getProjectId());
-                dto.setProjectCode(ae.getProjectCode());
-                dto.setProjectName(ae.getProjectName());
-                dto.setImageUrl(ae.getProjectImageUrl());
-                dto.setParentId(appId);
-                applications.add(dto);
-                processTreeData(dto, applicationExplorations);
+        graph.children(appId).forEach(childId -> {
+            ApplicationDTO detail = detailMap.get(childId);
+            if (detail == null) {
+                return;
             }
+            ApplicationDTO dto = new ApplicationDTO();
+            dto.setId(childId);
+            dto.setName(detail.getName());
+            dto.setCode(detail.getCode());
+            dto.setApplicationCategory(detail.getApplicationCategory());
+            dto.setApplicationType(detail.getApplicationType());
+            dto.setEnabled(detail.getEnabled());
+            dto.setProjectId(detail.getProjectId());
+            dto.setProjectCode(detail.getProjectCode());
+            dto.setProjectName(detail.getProjectName());
+            dto.setImageUrl(detail.getImageUrl());
+            dto.setParentId(appId);
+            applications.add(dto);
+            processTreeData(dto, graph, detailMap);
         });
         app.setDescendants(applications.isEmpty() ? null : applications);
     }
@@ -18,6 +18,7 @@ import org.springframework.http.HttpHeaders;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
@@ -36,6 +37,8 @@ public class ExcelServiceImpl implements ExcelService {
 
     private final Logger logger = LoggerFactory.getLogger(ExcelServiceImpl.class);
 
+    private static final String XLSX_SUFFIX = ".xlsx";
+
     private ExcelImportUserTask excelImportUserTask;
     private ExcelImportUserTask.FinishFallback finishFallback;
     private UploadHistoryMapper uploadHistoryMapper;
@@ -51,6 +54,11 @@ public class ExcelServiceImpl implements ExcelService {
     @Override
     public void importUsers(Long organizationId, MultipartFile multipartFile) {
         ExcelReadConfig excelReadConfig = initExcelReadConfig();
+        String filename = multipartFile.getOriginalFilename();
+        if (filename != null && filename.toLowerCase().endsWith(XLSX_SUFFIX)) {
+            streamImportUsers(organizationId, multipartFile, excelReadConfig);
+            return;
+        }
         long begin = System.currentTimeMillis();
         try {
             List<UserDTO> users = ExcelReadHelper.read(multipartFile, UserDTO.class, excelReadConfig);
@@ -69,6 +77,22 @@ public class ExcelServiceImpl implements ExcelService {
         }
     }
 
+    /**
+     * xlsx文件先落到临时文件，由异步任务逐行读取导入，不在请求线程中整体解析
+     */
+    private void streamImportUsers(Long organizationId, MultipartFile multipartFile, ExcelReadConfig excelReadConfig) {
+        File file;
+        try {
+            file = File.createTempFile("import-user-", XLSX_SUFFIX);
+            multipartFile.transferTo(file);
+        } catch (IOException e) {
+            throw new CommonException("error.excel.read", e);
+        }
+        UploadHistoryDTO uploadHistory = initUploadHistory(organizationId);
+        Long userId = DetailsHelper.getUserDetails().getUserId();
+        excelImportUserTask.importUsers(userId, file, excelReadConfig, organizationId, uploadHistory, finishFallback);
+    }
+
     private UploadHistoryDTO initUploadHistory(Long organizationId) {
         UploadHistoryDTO uploadHistory = new UploadHistoryDTO();
         uploadHistory.setBeginTime(new Date(System.currentTimeMillis()));
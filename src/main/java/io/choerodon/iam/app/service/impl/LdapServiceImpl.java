@@ -32,7 +32,6 @@ import org.springframework.ldap.core.AttributesMapper;
 import org.springframework.ldap.core.DirContextOperations;
 import org.springframework.ldap.core.LdapTemplate;
 import org.springframework.ldap.core.support.AbstractContextMapper;
-import org.springframework.ldap.core.support.LdapContextSource;
 import org.springframework.ldap.filter.AndFilter;
 import org.springframework.ldap.filter.EqualsFilter;
 import org.springframework.ldap.filter.Filter;
@@ -44,6 +43,7 @@ import io.choerodon.core.exception.CommonException;
 import io.choerodon.iam.api.validator.LdapValidator;
 import io.choerodon.iam.app.service.LdapService;
 import io.choerodon.iam.infra.common.utils.LocaleUtils;
+import io.choerodon.iam.infra.common.utils.ldap.LdapContextSourceRegistry;
 import io.choerodon.iam.infra.common.utils.ldap.LdapSyncUserTask;
 
 import io.choerodon.iam.infra.factory.MessageSourceFactory;
@@ -86,13 +86,16 @@ public class LdapServiceImpl implements LdapService {
 
     private LdapHistoryMapper ldapHistoryMapper;
 
+    private LdapContextSourceRegistry ldapContextSourceRegistry;
+
     public LdapServiceImpl(OrganizationAssertHelper organizationAssertHelper,
                            LdapAssertHelper ldapAssertHelper,
                            LdapMapper ldapMapper,
                            LdapSyncUserTask ldapSyncUserTask,
                            LdapSyncUserTask.FinishFallback finishFallback,
                            LdapErrorUserMapper ldapErrorUserMapper,
-                           LdapHistoryMapper ldapHistoryMapper) {
+                           LdapHistoryMapper ldapHistoryMapper,
+                           LdapContextSourceRegistry ldapContextSourceRegistry) {
         this.ldapSyncUserTask = ldapSyncUserTask;
         this.finishFallback = finishFallback;
         this.ldapErrorUserMapper = ldapErrorUserMapper;
@@ -100,6 +103,7 @@ public class LdapServiceImpl implements LdapService {
         this.ldapMapper = ldapMapper;
         this.ldapAssertHelper = ldapAssertHelper;
         this.ldapHistoryMapper = ldapHistoryMapper;
+        this.ldapContextSourceRegistry = ldapContextSourceRegistry;
     }
 
     @Override
@@ -132,7 +136,9 @@ public class LdapServiceImpl implements LdapService {
         validateLdap(ldapDTO);
         organizationAssertHelper.organizationNotExisted(organizationId);
         ldapAssertHelper.ldapNotExisted(WhichColumn.ID, id);
-        return doUpdate(ldapDTO);
+        LdapDTO result = doUpdate(ldapDTO);
+        ldapContextSourceRegistry.invalidate(id);
+        return result;
     }
 
     private LdapDTO doUpdate(LdapDTO ldapDTO) {
@@ -153,6 +159,7 @@ public class LdapServiceImpl implements LdapService {
         organizationAssertHelper.organizationNotExisted(orgId);
         ldapAssertHelper.ldapNotExisted(WhichColumn.ID, id);
         ldapMapper.deleteByPrimaryKey(id);
+        ldapContextSourceRegistry.invalidate(id);
     }
 
     @Override
@@ -177,7 +184,7 @@ public class LdapServiceImpl implements LdapService {
         LdapTemplate ldapTemplate = initLdapTemplate(ldapDTO, anonymous);
         returnMap.put(LDAP_TEMPLATE, ldapTemplate);
         //默认将account当作userDn,如果无法登陆，则去ldap服务器抓取ldapDO.getLoginNameField()==account的userDn，然后使用返回的userDn登陆
-        accountAsUserDn(ldapDTO, ldapConnectionDTO, ldapTemplate);
+        accountAsUserDn(ldapDTO, ldapConnectionDTO, ldapTemplate, anonymous);
         //输入的账户无法登陆，去ldap服务器抓取userDn(例外hand ldap)
         if (!anonymous && ldapConnectionDTO.getCanConnectServer() && !ldapConnectionDTO.getCanLogin()) {
             returnMap.put(LDAP_TEMPLATE, fetchUserDn2Authenticate(ldapDTO, ldapConnectionDTO));
@@ -285,15 +292,7 @@ public class LdapServiceImpl implements LdapService {
     }
 
     private LdapTemplate fetchUserDn2Authenticate(LdapDTO ldapDTO, LdapConnectionDTO ldapConnectionDTO) {
-        LdapContextSource contextSource = new LdapContextSource();
-        String url = ldapDTO.getServerAddress() + ":" + ldapDTO.getPort();
-        int connectionTimeout = ldapDTO.getConnectionTimeout();
-        contextSource.setUrl(url);
-        contextSource.setBase(ldapDTO.getBaseDn());
-        contextSource.setAnonymousReadOnly(true);
-        setConnectionTimeout(contextSource, connectionTimeout);
-        contextSource.afterPropertiesSet();
-        LdapTemplate ldapTemplate = new LdapTemplate(contextSource);
+        LdapTemplate ldapTemplate = new LdapTemplate(ldapContextSourceRegistry.get(ldapDTO, null, null));
         if (DirectoryType.MICROSOFT_ACTIVE_DIRECTORY.value().equals(ldapDTO.getDirectoryType())) {
             ldapTemplate.setIgnorePartialResultException(true);
         }
@@ -328,14 +327,12 @@ public class LdapServiceImpl implements LdapService {
             LOGGER.error("can not find anything or find more than one userDn while filter is {}, login failed", filter);
             return null;
         } else {
-            contextSource.setAnonymousReadOnly(false);
-            contextSource.setUserDn(userDn);
-            contextSource.setPassword(ldapDTO.getPassword());
-
             ldapConnectionDTO.setCanLogin(false);
             ldapConnectionDTO.setMatchAttribute(false);
             try {
-                LdapTemplate newLdapTemplate = new LdapTemplate(contextSource);
+                ldapContextSourceRegistry.verify(ldapDTO, userDn, ldapDTO.getPassword());
+                LdapTemplate newLdapTemplate =
+                        new LdapTemplate(ldapContextSourceRegistry.get(ldapDTO, userDn, ldapDTO.getPassword()));
                 matchAttributes(ldapDTO, ldapConnectionDTO, newLdapTemplate);
                 ldapConnectionDTO.setCanLogin(true);
                 return newLdapTemplate;
@@ -366,32 +363,15 @@ public class LdapServiceImpl implements LdapService {
         return andFilter;
     }
 
-    private void setConnectionTimeout(LdapContextSource contextSource, int connectionTimeout) {
-        Map<String, Object> environment = new HashMap<>(1);
-        //设置ldap服务器连接超时时间为10s
-        environment.put("com.sun.jndi.ldap.connect.timeout", String.valueOf(connectionTimeout * 1000));
-        contextSource.setBaseEnvironmentProperties(environment);
-    }
-
     private LdapTemplate initLdapTemplate(LdapDTO ldapDTO, boolean anonymous) {
-        LdapContextSource contextSource = new LdapContextSource();
-        String url = ldapDTO.getServerAddress() + ":" + ldapDTO.getPort();
-        int connectionTimeout = ldapDTO.getConnectionTimeout();
-        contextSource.setUrl(url);
-        contextSource.setBase(ldapDTO.getBaseDn());
-        setConnectionTimeout(contextSource, connectionTimeout);
-
-        if (!anonymous) {
-            contextSource.setUserDn(ldapDTO.getAccount());
-            contextSource.setPassword(ldapDTO.getPassword());
-        } else {
-            contextSource.setAnonymousReadOnly(true);
+        if (anonymous) {
+            return new LdapTemplate(ldapContextSourceRegistry.get(ldapDTO, null, null));
         }
-        contextSource.afterPropertiesSet();
-        return new LdapTemplate(contextSource);
+        return new LdapTemplate(ldapContextSourceRegistry.get(ldapDTO, ldapDTO.getAccount(), ldapDTO.getPassword()));
     }
 
-    private void accountAsUserDn(LdapDTO ldapDTO, LdapConnectionDTO ldapConnectionDTO, LdapTemplate ldapTemplate) {
+    private void accountAsUserDn(LdapDTO ldapDTO, LdapConnectionDTO ldapConnectionDTO, LdapTemplate ldapTemplate,
+                                 boolean anonymous) {
         try {
             if (DirectoryType.MICROSOFT_ACTIVE_DIRECTORY.value().equals(ldapDTO.getDirectoryType())) {
                 ldapTemplate.setIgnorePartialResultException(true);
@@ -399,6 +379,8 @@ public class LdapServiceImpl implements LdapService {
             ldapConnectionDTO.setCanConnectServer(false);
             ldapConnectionDTO.setCanLogin(false);
             ldapConnectionDTO.setMatchAttribute(false);
+            //池中的连接可能是之前绑定的，先不经过池绑定一次，保证账户密码当前仍然有效
+            ldapContextSourceRegistry.verify(ldapDTO, anonymous ? null : ldapDTO.getAccount(), ldapDTO.getPassword());
             //使用管理员登陆，查询一个objectclass=ldapDO.getObjectClass的对象去匹配属性
             matchAttributes(ldapDTO, ldapConnectionDTO, ldapTemplate);
             ldapConnectionDTO.setCanConnectServer(true);
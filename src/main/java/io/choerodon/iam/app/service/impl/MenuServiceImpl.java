@@ -8,6 +8,8 @@ import io.choerodon.iam.api.validator.MenuValidator;
 import io.choerodon.iam.app.service.MenuService;
 import io.choerodon.iam.infra.asserts.DetailsHelperAssert;
 import io.choerodon.iam.infra.asserts.MenuAssertHelper;
+import io.choerodon.iam.infra.common.utils.cache.MenuCache;
+import io.choerodon.iam.infra.common.utils.menu.MenuTreeUtil;
 import io.choerodon.iam.infra.dto.MenuDTO;
 import io.choerodon.iam.infra.dto.OrganizationDTO;
 import io.choerodon.iam.infra.dto.ProjectDTO;
@@ -32,6 +34,8 @@ import java.util.stream.Collectors;
 @Service
 public class MenuServiceImpl implements MenuService {
 
+    private static final String PROGRAM = "PROGRAM";
+
     private boolean enableCategory;
 
     private OrganizationMapper organizationMapper;
@@ -39,19 +43,22 @@ public class MenuServiceImpl implements MenuService {
     private ProjectMapCategoryMapper projectMapCategoryMapper;
     private MenuAssertHelper menuAssertHelper;
     private ProjectMapper projectMapper;
+    private MenuCache menuCache;
 
     public MenuServiceImpl(@Value("${choerodon.category.enabled:false}") Boolean enableCategory,
                            OrganizationMapper organizationMapper,
                            MenuMapper menuMapper,
                            MenuAssertHelper menuAssertHelper,
                            ProjectMapCategoryMapper projectMapCategoryMapper,
-                           ProjectMapper projectMapper) {
+                           ProjectMapper projectMapper,
+                           MenuCache menuCache) {
         this.enableCategory = enableCategory;
         this.organizationMapper = organizationMapper;
         this.menuMapper = menuMapper;
         this.menuAssertHelper = menuAssertHelper;
         this.projectMapCategoryMapper = projectMapCategoryMapper;
         this.projectMapper = projectMapper;
+        this.menuCache = menuCache;
     }
 
     @Override
@@ -63,6 +70,7 @@ public class MenuServiceImpl implements MenuService {
     public MenuDTO create(MenuDTO menuDTO) {
         preCreate(menuDTO);
         menuMapper.insertSelective(menuDTO);
+        menuCache.invalidateMenus();
         return menuDTO;
     }
 
@@ -91,6 +99,7 @@ public class MenuServiceImpl implements MenuService {
             throw new CommonException("error.menu.default");
         }
         menuMapper.deleteByPrimaryKey(id);
+        menuCache.invalidateMenus();
     }
 
     @Override
@@ -103,16 +112,19 @@ public class MenuServiceImpl implements MenuService {
         Criteria criteria = new Criteria();
         criteria.update("name", "icon", "page_permission_code", "search_condition", "category");
         menuMapper.updateByPrimaryKeyOptions(menuDTO, criteria);
+        menuCache.invalidateMenus();
         return menuMapper.selectByPrimaryKey(id);
     }
 
     @Override
     public MenuDTO menus(String code, Long sourceId) {
-        MenuDTO topMenu = getTopMenuByCode(code);
+        MenuDTO topMenu = getCachedTopMenuByCode(code);
         String level = topMenu.getResourceLevel();
         CustomUserDetails userDetails = DetailsHelperAssert.userDetailNotExisted();
         Long userId = userDetails.getUserId();
         boolean isAdmin = userDetails.getAdmin();
+        //该层级的全部菜单快照，不可修改，组装树前需要复制
+        List<MenuDTO> levelMenus = menuCache.levelMenus(level);
         Set<MenuDTO> menus;
         boolean isProjectOrOrganization = (ResourceType.isProject(level) || ResourceType.isOrganization(level));
         if (isProjectOrOrganization && enableCategory) {
@@ -120,10 +132,14 @@ public class MenuServiceImpl implements MenuService {
         } else {
             if (isAdmin) {
                 if (ResourceType.isProject(level)) {
-                    menus = new LinkedHashSet<>(
-                            menuMapper.queryProjectMenusWithCategoryByRootUser(getProjectCategory(level, sourceId)));
+                    //项目群只显示项目群菜单，其他项目不显示项目群菜单
+                    boolean isProgram = PROGRAM.equals(getProjectCategory(level, sourceId));
+                    menus = levelMenus.stream()
+                            .filter(m -> !MenuType.isTop(m.getType()) && isProgram == PROGRAM.equals(m.getCategory()))
+                            .map(MenuCache::copy)
+                            .collect(Collectors.toCollection(LinkedHashSet::new));
                 } else {
-                    menus = menuMapper.selectByLevelWithPermissionType(level);
+                    menus = levelMenus.stream().map(MenuCache::copy).collect(Collectors.toCollection(LinkedHashSet::new));
                 }
             } else {
                 menus = new HashSet<>(
@@ -131,17 +147,14 @@ public class MenuServiceImpl implements MenuService {
 
             }
         }
-        //查类型为menu的菜单
-        MenuDTO dto = new MenuDTO();
-        dto.setType(MenuType.MENU.value());
-        dto.setResourceLevel(level);
-        List<MenuDTO> allMenus = menuMapper.select(dto);
         //筛除重复menu
         Set<Long> menuIds = menus.stream().map(MenuDTO::getId).collect(Collectors.toSet());
-        Set<MenuDTO> menuCollect = allMenus.stream().filter(m -> !menuIds.contains(m.getId())).collect(Collectors.toSet());
         //添加类型为menu的菜单
-        menus.addAll(menuCollect);
-        toTreeMenu(topMenu, menus, true);
+        levelMenus.stream()
+                .filter(m -> MenuType.isMenu(m.getType()) && !menuIds.contains(m.getId()))
+                .map(MenuCache::copy)
+                .forEach(menus::add);
+        MenuTreeUtil.toTreeMenu(topMenu, menus, true);
         return topMenu;
     }
 
@@ -163,11 +176,11 @@ public class MenuServiceImpl implements MenuService {
         }
         if (isAdmin) {
             menus = new LinkedHashSet<>(
-                    menuMapper.queryMenusWithCategoryAndLevelByRootUser(getCategories(level, sourceId), level));
+                    menuMapper.queryMenusWithCategoryAndLevelByRootUser(categories, level));
 
         } else {
             menus = new HashSet<>(
-                    menuMapper.selectMenusAfterPassingThePermissionCheck(userId, level, sourceId, getCategories(level, sourceId), "user"));
+                    menuMapper.selectMenusAfterPassingThePermissionCheck(userId, level, sourceId, categories, "user"));
         }
         return menus;
     }
@@ -182,14 +195,14 @@ public class MenuServiceImpl implements MenuService {
      * @return
      */
     private String getProjectCategory(String level, Long sourceId) {
-        String category = null;
-        if (ResourceType.isProject(level)) {
-            ProjectDTO project = projectMapper.selectByPrimaryKey(sourceId);
-            if (project != null) {
-                category = project.getCategory();
-            }
+        if (!ResourceType.isProject(level)) {
+            return null;
         }
-        return category;
+        List<String> categories = menuCache.projectCategory(sourceId, () -> {
+            ProjectDTO project = projectMapper.selectByPrimaryKey(sourceId);
+            return project == null ? Collections.emptyList() : Collections.singletonList(project.getCategory());
+        });
+        return categories.isEmpty() ? null : categories.get(0);
     }
 
 
@@ -203,25 +216,27 @@ public class MenuServiceImpl implements MenuService {
      * @return
      */
     private List<String> getCategories(String level, Long sourceId) {
-        List<String> categories = new ArrayList<>();
-        if (ResourceType.isProject(level)) {
-            categories.addAll(projectMapCategoryMapper.selectProjectCategories(sourceId));
-        }
-        if (ResourceType.isOrganization(level)) {
-            OrganizationDTO organizationDTO = organizationMapper.selectByPrimaryKey(sourceId);
-            if (organizationDTO != null) {
-                categories.add(organizationDTO.getCategory());
+        return menuCache.categories(level, sourceId, () -> {
+            List<String> categories = new ArrayList<>();
+            if (ResourceType.isProject(level)) {
+                categories.addAll(projectMapCategoryMapper.selectProjectCategories(sourceId));
             }
-        }
-        return categories;
+            if (ResourceType.isOrganization(level)) {
+                OrganizationDTO organizationDTO = organizationMapper.selectByPrimaryKey(sourceId);
+                if (organizationDTO != null) {
+                    categories.add(organizationDTO.getCategory());
+                }
+            }
+            return categories;
+        });
     }
 
     @Override
     public MenuDTO menuConfig(String code) {
-        MenuDTO menu = getTopMenuByCode(code);
+        MenuDTO menu = getCachedTopMenuByCode(code);
         String level = menu.getResourceLevel();
         Set<MenuDTO> menus = new HashSet<>(menuMapper.selectMenusWithPermission(level));
-        toTreeMenu(menu, menus, true);
+        MenuTreeUtil.toTreeMenu(menu, menus, true);
         return menu;
     }
 
@@ -235,6 +250,14 @@ public class MenuServiceImpl implements MenuService {
         return menu;
     }
 
+    private MenuDTO getCachedTopMenuByCode(String code) {
+        MenuDTO menu = menuCache.topMenu(code);
+        if (menu == null) {
+            throw new CommonException("error.menu.top.not.existed");
+        }
+        return menu;
+    }
+
     @Transactional(rollbackFor = Exception.class)
     @Override
     public void saveMenuConfig(String code, List<MenuDTO> menus) {
@@ -307,6 +330,7 @@ public class MenuServiceImpl implements MenuService {
                 menuMapper.deleteByPrimaryKey(deleteMenu);
             }
         }
+        menuCache.invalidateMenus();
     }
 
     private void validate(String code, List<MenuDTO> menus) {
@@ -385,45 +409,6 @@ public class MenuServiceImpl implements MenuService {
         }
     }
 
-    /**
-     * 转换树形菜单.
-     * 情况1：用户菜单不显示空目录
-     * 情况2：菜单配置显示空目录
-     *
-     * @param parentMenu      父级菜单
-     * @param menus           所有菜单列表
-     * @param isShowEmptyMenu 是否显示空目录
-     */
-    private void toTreeMenu(MenuDTO parentMenu, Set<MenuDTO> menus, Boolean isShowEmptyMenu) {
-        String code = parentMenu.getCode();
-        List<MenuDTO> subMenus = new ArrayList<>();
-        for (MenuDTO menu : menus) {
-            if (code.equalsIgnoreCase(menu.getParentCode())) {
-                // 如果是叶子菜单 直接放到父级目录的子菜单列表里面
-                if (MenuType.isMenuItem(menu.getType())) {
-                    subMenus.add(menu);
-                }
-                if (MenuType.isMenu(menu.getType())) {
-                    toTreeMenu(menu, menus, isShowEmptyMenu);
-                    if (isShowEmptyMenu) {
-                        subMenus.add(menu);
-                    } else {
-                        // 目录有叶子菜单 放到父级目录的子目录里面(过滤空目录)
-                        if (!CollectionUtils.isEmpty(menu.getSubMenus())) {
-                            subMenus.add(menu);
-                        }
-                    }
-                }
-            }
-        }
-        if (CollectionUtils.isEmpty(subMenus)) {
-            parentMenu.setSubMenus(null);
-        } else {
-            subMenus.sort(Comparator.comparing(MenuDTO::getSort));
-            parentMenu.setSubMenus(subMenus);
-        }
-    }
-
     @Override
     public void check(MenuDTO menu) {
         if (StringUtils.isEmpty(menu.getCode())) {
@@ -22,6 +22,9 @@ import io.choerodon.iam.infra.asserts.OrganizationAssertHelper;
 import io.choerodon.iam.infra.asserts.ProjectAssertHelper;
 import io.choerodon.iam.infra.asserts.UserAssertHelper;
 import io.choerodon.iam.infra.common.utils.PageUtils;
+import io.choerodon.iam.infra.common.utils.cache.MenuCache;
+import io.choerodon.iam.infra.common.utils.cache.PermissionCheckCache;
+import io.choerodon.iam.infra.common.utils.cache.ProjectCategoryCache;
 import io.choerodon.iam.infra.dto.*;
 import io.choerodon.iam.infra.enums.ProjectCategory;
 import io.choerodon.iam.infra.enums.RoleLabel;
@@ -91,6 +94,12 @@ public class OrganizationProjectServiceImpl implements OrganizationProjectServic
 
     private RoleMemberService roleMemberService;
 
+    private PermissionCheckCache permissionCheckCache;
+
+    private MenuCache menuCache;
+
+    private ProjectCategoryCache projectCategoryCache;
+
     private final ObjectMapper mapper = new ObjectMapper();
 
     public OrganizationProjectServiceImpl(SagaClient sagaClient,
@@ -106,7 +115,10 @@ public class OrganizationProjectServiceImpl implements OrganizationProjectServic
                                           RoleMapper roleMapper,
                                           LabelMapper labelMapper,
                                           ProjectRelationshipMapper projectRelationshipMapper,
-                                          RoleMemberService roleMemberService) {
+                                          RoleMemberService roleMemberService,
+                                          PermissionCheckCache permissionCheckCache,
+                                          MenuCache menuCache,
+                                          ProjectCategoryCache projectCategoryCache) {
         this.sagaClient = sagaClient;
         this.userService = userService;
         this.asgardFeignClient = asgardFeignClient;
@@ -121,6 +133,9 @@ public class OrganizationProjectServiceImpl implements OrganizationProjectServic
         this.labelMapper = labelMapper;
         this.projectRelationshipMapper = projectRelationshipMapper;
         this.roleMemberService = roleMemberService;
+        this.permissionCheckCache = permissionCheckCache;
+        this.menuCache = menuCache;
+        this.projectCategoryCache = projectCategoryCache;
     }
 
     @Transactional(rollbackFor = Exception.class)
@@ -339,6 +354,7 @@ public class OrganizationProjectServiceImpl implements OrganizationProjectServic
         if (projectMapper.updateByPrimaryKey(project) != 1) {
             throw new UpdateExcetion("error.project.update");
         }
+        permissionCheckCache.invalidateSource(ResourceLevel.PROJECT.value(), project.getId());
         ProjectDTO returnProject = projectMapper.selectByPrimaryKey(projectDTO.getId());
         if (returnProject.getType() != null) {
             ProjectTypeDTO dto = new ProjectTypeDTO();
@@ -444,6 +460,8 @@ public class OrganizationProjectServiceImpl implements OrganizationProjectServic
             if (projectMapCategoryMapper.delete(projectMapCategoryDTO) != 1) {
                 throw new CommonException("error.project.map.category.delete");
             }
+            menuCache.invalidateCategories(ResourceLevel.PROJECT.value(), relationshipDTO.getProjectId());
+            projectCategoryCache.invalidate(relationshipDTO.getProjectId());
         }
         return relationshipDTO.getProgramId();
     }
@@ -20,6 +20,7 @@ import io.choerodon.iam.app.service.OrganizationService;
 import io.choerodon.iam.app.service.UserService;
 import io.choerodon.iam.infra.asserts.DetailsHelperAssert;
 import io.choerodon.iam.infra.asserts.OrganizationAssertHelper;
+import io.choerodon.iam.infra.common.utils.cache.PermissionCheckCache;
 import io.choerodon.iam.infra.dto.OrganizationDTO;
 import io.choerodon.iam.infra.dto.ProjectDTO;
 import io.choerodon.iam.infra.dto.RoleDTO;
@@ -67,6 +68,8 @@ public class OrganizationServiceImpl implements OrganizationService {
 
     private RoleMapper roleMapper;
 
+    private PermissionCheckCache permissionCheckCache;
+
 
     public OrganizationServiceImpl(@Value("${choerodon.devops.message:false}") Boolean devopsMessage,
                                    SagaClient sagaClient,
@@ -76,7 +79,8 @@ public class OrganizationServiceImpl implements OrganizationService {
                                    ProjectMapper projectMapper,
                                    UserMapper userMapper,
                                    OrganizationMapper organizationMapper,
-                                   RoleMapper roleMapper) {
+                                   RoleMapper roleMapper,
+                                   PermissionCheckCache permissionCheckCache) {
         this.devopsMessage = devopsMessage;
         this.sagaClient = sagaClient;
         this.userService = userService;
@@ -86,6 +90,7 @@ public class OrganizationServiceImpl implements OrganizationService {
         this.userMapper = userMapper;
         this.organizationMapper = organizationMapper;
         this.roleMapper = roleMapper;
+        this.permissionCheckCache = permissionCheckCache;
     }
 
     @Override
@@ -141,6 +146,7 @@ public class OrganizationServiceImpl implements OrganizationService {
         if (organizationMapper.updateByPrimaryKeySelective(organizationDTO) != 1) {
             throw new UpdateExcetion("error.organization.update");
         }
+        permissionCheckCache.invalidateSource(ResourceLevel.ORGANIZATION.value(), organizationDTO.getId());
         return organizationMapper.selectByPrimaryKey(organizationDTO);
     }
 
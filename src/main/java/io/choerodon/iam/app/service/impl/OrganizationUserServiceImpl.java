@@ -21,6 +21,8 @@ import io.choerodon.iam.infra.mapper.OrganizationMapper;
 import io.choerodon.iam.infra.mapper.UserMapper;
 import io.choerodon.oauth.core.password.domain.BasePasswordPolicyDTO;
 import io.choerodon.oauth.core.password.domain.BaseUserDTO;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.BeanUtils;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.cloud.context.config.annotation.RefreshScope;
@@ -34,13 +36,18 @@ import io.choerodon.asgard.saga.dto.StartInstanceDTO;
 import io.choerodon.asgard.saga.feign.SagaClient;
 import io.choerodon.core.exception.CommonException;
 import io.choerodon.core.iam.ResourceLevel;
+import io.choerodon.core.oauth.CustomUserDetails;
 import io.choerodon.core.oauth.DetailsHelper;
+import io.choerodon.iam.api.dto.KeysetPageDTO;
 import io.choerodon.iam.api.dto.UserSearchDTO;
 import io.choerodon.iam.api.dto.payload.UserEventPayload;
 import io.choerodon.iam.api.validator.UserPasswordValidator;
 import io.choerodon.iam.app.service.OrganizationUserService;
 import io.choerodon.iam.app.service.SystemSettingService;
+import io.choerodon.iam.infra.common.utils.CollectionUtils;
 import io.choerodon.iam.infra.common.utils.ParamUtils;
+import io.choerodon.iam.infra.common.utils.cache.UserLookupCache;
+import io.choerodon.iam.infra.common.utils.search.UserSearchIndex;
 import io.choerodon.iam.infra.enums.LdapErrorUserCause;
 import io.choerodon.iam.infra.feign.OauthTokenFeignClient;
 import io.choerodon.oauth.core.password.PasswordPolicyManager;
@@ -68,8 +75,20 @@ public class OrganizationUserServiceImpl implements OrganizationUserService {
     private String siteDefaultPassword;
     private SystemSettingService systemSettingService;
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(OrganizationUserServiceImpl.class);
+
     private static final BCryptPasswordEncoder ENCODER = new BCryptPasswordEncoder();
 
+    /**
+     * 多行插入用户每批数量，oracle单条语句的绑定变量有上限
+     */
+    private static final int INSERT_BATCH_SIZE = 500;
+
+    /**
+     * 游标分页每页数量上限
+     */
+    private static final int KEYSET_MAX_SIZE = 1000;
+
     private OrganizationAssertHelper organizationAssertHelper;
 
     private OrganizationMapper organizationMapper;
@@ -80,6 +99,16 @@ public class OrganizationUserServiceImpl implements OrganizationUserService {
 
     private UserService userService;
 
+    private UserSearchIndex userSearchIndex;
+
+    private UserLookupCache userLookupCache;
+
+    /**
+     * 游标分页返回总数时的计数上限
+     */
+    @Value("${choerodon.user.search.count-limit:10000}")
+    private long searchCountLimit;
+
     public OrganizationUserServiceImpl(PasswordRecord passwordRecord,
                                        PasswordPolicyManager passwordPolicyManager,
                                        BasePasswordPolicyMapper basePasswordPolicyMapper,
@@ -91,7 +120,9 @@ public class OrganizationUserServiceImpl implements OrganizationUserService {
                                        OrganizationMapper organizationMapper,
                                        UserAssertHelper userAssertHelper,
                                        UserMapper userMapper,
-                                       UserService userService) {
+                                       UserService userService,
+                                       UserSearchIndex userSearchIndex,
+                                       UserLookupCache userLookupCache) {
         this.passwordPolicyManager = passwordPolicyManager;
         this.basePasswordPolicyMapper = basePasswordPolicyMapper;
         this.sagaClient = sagaClient;
@@ -104,6 +135,8 @@ public class OrganizationUserServiceImpl implements OrganizationUserService {
         this.userAssertHelper = userAssertHelper;
         this.userMapper = userMapper;
         this.userService = userService;
+        this.userSearchIndex = userSearchIndex;
+        this.userLookupCache = userLookupCache;
     }
 
     @Transactional(rollbackFor = CommonException.class)
@@ -151,38 +184,21 @@ public class OrganizationUserServiceImpl implements OrganizationUserService {
             throw new InsertException("error.user.create");
         }
         passwordRecord.updatePassword(userDTO.getId(), userDTO.getPassword());
-        return userMapper.selectByPrimaryKey(userDTO.getId());
-    }
-
-    private UserDTO insertSelective(UserDTO user) {
-        if (userMapper.insertSelective(user) != 1) {
-            throw new InsertException("error.user.create");
-        }
-        return userMapper.selectByPrimaryKey(user.getId());
+        UserDTO user = userMapper.selectByPrimaryKey(userDTO.getId());
+        userSearchIndex.index(Collections.singletonList(user));
+        return user;
     }
 
-
     @Override
     @Transactional(rollbackFor = CommonException.class)
     @Saga(code = USER_CREATE_BATCH, description = "iam批量创建用户", inputSchemaClass = List.class)
     public List<LdapErrorUserDTO> batchCreateUsers(List<UserDTO> insertUsers) {
         List<LdapErrorUserDTO> errorUsers = new ArrayList<>();
         List<UserEventPayload> payloads = new ArrayList<>();
-        insertUsers.forEach(user -> {
-            UserDTO userDTO = null;
-            try {
-                userDTO = insertSelective(user);
-            } catch (Exception e) {
-                LdapErrorUserDTO errorUser = new LdapErrorUserDTO();
-                errorUser.setUuid(user.getUuid());
-                errorUser.setLoginName(user.getLoginName());
-                errorUser.setEmail(user.getEmail());
-                errorUser.setRealName(user.getRealName());
-                errorUser.setPhone(user.getPhone());
-                errorUser.setCause(LdapErrorUserCause.USER_INSERT_ERROR.value());
-                errorUsers.add(errorUser);
-            }
-            if (devopsMessage && userDTO != null && userDTO.getEnabled()) {
+        List<UserDTO> insertedUsers = batchInsert(insertUsers, errorUsers);
+        userSearchIndex.index(insertedUsers);
+        if (devopsMessage) {
+            insertedUsers.stream().filter(user -> Boolean.TRUE.equals(user.getEnabled())).forEach(userDTO -> {
                 UserEventPayload payload = new UserEventPayload();
                 payload.setEmail(userDTO.getEmail());
                 payload.setId(userDTO.getId().toString());
@@ -190,8 +206,8 @@ public class OrganizationUserServiceImpl implements OrganizationUserService {
                 payload.setUsername(userDTO.getLoginName());
                 payload.setOrganizationId(userDTO.getOrganizationId());
                 payloads.add(payload);
-            }
-        });
+            });
+        }
 
         if (!payloads.isEmpty()) {
             try {
@@ -207,6 +223,65 @@ public class OrganizationUserServiceImpl implements OrganizationUserService {
         return errorUsers;
     }
 
+    /**
+     * 多行插入一批用户，主键由插入语句回写，不支持回写多行主键的数据库(oracle)按登录名查回主键
+     * 多行插入失败时退回逐条插入，单个用户插入失败时记录出错的用户，不影响其他用户
+     */
+    private List<UserDTO> batchInsert(List<UserDTO> users, List<LdapErrorUserDTO> errorUsers) {
+        CustomUserDetails userDetails = DetailsHelper.getUserDetails();
+        Long operatorId = userDetails == null ? 0L : userDetails.getUserId();
+        List<UserDTO> insertedUsers = new ArrayList<>();
+        CollectionUtils.subList(users, INSERT_BATCH_SIZE).forEach(list -> {
+            list.forEach(user -> {
+                user.setCreatedBy(operatorId);
+                user.setLastUpdatedBy(operatorId);
+            });
+            try {
+                if (userMapper.batchInsert(list) != list.size()) {
+                    throw new InsertException("error.user.create");
+                }
+                fillIds(list);
+                insertedUsers.addAll(list);
+            } catch (Exception e) {
+                LOGGER.warn("batch insert users failed, insert one by one, exception: {}", e.getMessage());
+                list.forEach(user -> user.setId(null));
+                insertOneByOne(list, insertedUsers, errorUsers);
+            }
+        });
+        return insertedUsers;
+    }
+
+    private void fillIds(List<UserDTO> users) {
+        List<UserDTO> noIdUsers = users.stream().filter(user -> user.getId() == null).collect(Collectors.toList());
+        if (noIdUsers.isEmpty()) {
+            return;
+        }
+        Map<String, Long> ids = new HashMap<>(noIdUsers.size());
+        userMapper.listSlimUsersByLoginNames(noIdUsers.stream().map(UserDTO::getLoginName).toArray(String[]::new), false)
+                .forEach(user -> ids.put(user.getLoginName(), user.getId()));
+        noIdUsers.forEach(user -> user.setId(ids.get(user.getLoginName())));
+    }
+
+    private void insertOneByOne(List<UserDTO> users, List<UserDTO> insertedUsers, List<LdapErrorUserDTO> errorUsers) {
+        users.forEach(user -> {
+            try {
+                if (userMapper.insertSelective(user) != 1) {
+                    throw new InsertException("error.user.create");
+                }
+                insertedUsers.add(user);
+            } catch (Exception e) {
+                LdapErrorUserDTO errorUser = new LdapErrorUserDTO();
+                errorUser.setUuid(user.getUuid());
+                errorUser.setLoginName(user.getLoginName());
+                errorUser.setEmail(user.getEmail());
+                errorUser.setRealName(user.getRealName());
+                errorUser.setPhone(user.getPhone());
+                errorUser.setCause(LdapErrorUserCause.USER_INSERT_ERROR.value());
+                errorUsers.add(errorUser);
+            }
+        });
+    }
+
     private void validatePasswordPolicy(UserDTO userDTO, String password, Long organizationId) {
         BaseUserDTO baseUserDTO = new BaseUserDTO();
         BeanUtils.copyProperties(userDTO, baseUserDTO);
@@ -224,9 +299,35 @@ public class OrganizationUserServiceImpl implements OrganizationUserService {
 
     @Override
     public PageInfo<UserDTO> pagingQuery(PageRequest pageRequest, UserSearchDTO user) {
+        String param = ParamUtils.arrToStr(user.getParam());
+        Set<String> grams = queryGrams(user, param);
         return PageHelper
                 .startPage(pageRequest.getPage(), pageRequest.getSize())
-                .doSelectPageInfo(() -> userMapper.fulltextSearch(user, ParamUtils.arrToStr(user.getParam())));
+                .doSelectPageInfo(() -> userMapper.fulltextSearch(user, param, grams));
+    }
+
+    @Override
+    public KeysetPageDTO<UserDTO> keysetQuery(Long lastId, int size, boolean withTotal, UserSearchDTO user) {
+        int pageSize = Math.min(Math.max(size, 1), KEYSET_MAX_SIZE);
+        String param = ParamUtils.arrToStr(user.getParam());
+        Set<String> grams = queryGrams(user, param);
+        //多查一条判断是否有下一页
+        List<UserDTO> users = userMapper.fulltextSearchBefore(user, param, grams, lastId, pageSize + 1);
+        KeysetPageDTO<UserDTO> page = new KeysetPageDTO<>();
+        page.setHasNextPage(users.size() > pageSize);
+        List<UserDTO> list = users.size() > pageSize ? users.subList(0, pageSize) : users;
+        page.setList(list);
+        page.setLastId(list.isEmpty() ? null : list.get(list.size() - 1).getId());
+        if (withTotal) {
+            long total = userMapper.fulltextSearchCount(user, param, grams, searchCountLimit);
+            page.setTotal(total);
+            page.setTotalCapped(total >= searchCountLimit);
+        }
+        return page;
+    }
+
+    private Set<String> queryGrams(UserSearchDTO user, String param) {
+        return userSearchIndex.queryGrams(user.getLoginName(), user.getRealName(), user.getEmail(), param);
     }
 
     @Transactional(rollbackFor = CommonException.class)
@@ -266,7 +367,12 @@ public class OrganizationUserServiceImpl implements OrganizationUserService {
         if (userMapper.updateByPrimaryKeySelective(userDTO) != 1) {
             throw new UpdateExcetion("error.user.update");
         }
-        return userMapper.selectByPrimaryKey(userDTO.getId());
+        userLookupCache.invalidate(userDTO.getId());
+        UserDTO user = userMapper.selectByPrimaryKey(userDTO.getId());
+        if (userDTO.getLoginName() != null || userDTO.getRealName() != null || userDTO.getEmail() != null) {
+            userSearchIndex.index(Collections.singletonList(user));
+        }
+        return user;
     }
 
     @Transactional
@@ -326,6 +432,8 @@ public class OrganizationUserServiceImpl implements OrganizationUserService {
         UserEventPayload userEventPayload = new UserEventPayload();
         userEventPayload.setUsername(user.getLoginName());
         userMapper.deleteByPrimaryKey(id);
+        userLookupCache.invalidate(id);
+        userSearchIndex.remove(Collections.singletonList(id));
         if (devopsMessage) {
             try {
                 String input = mapper.writeValueAsString(userEventPayload);
@@ -383,6 +491,7 @@ public class OrganizationUserServiceImpl implements OrganizationUserService {
         if (userMapper.updateByPrimaryKeySelective(dto) != 1) {
             throw new UpdateExcetion("error.user.update");
         }
+        userLookupCache.invalidate(userId);
         return dto;
     }
 
@@ -406,6 +515,47 @@ public class OrganizationUserServiceImpl implements OrganizationUserService {
         return user;
     }
 
+    @Transactional(rollbackFor = CommonException.class)
+    @Override
+    public void batchEnableUsers(Long organizationId, List<UserDTO> users) {
+        batchUpdateStatus(organizationId, users, true, USER_ENABLE);
+    }
+
+    @Transactional(rollbackFor = CommonException.class)
+    @Override
+    public void batchDisableUsers(Long organizationId, List<UserDTO> users) {
+        batchUpdateStatus(organizationId, users, false, USER_DISABLE);
+    }
+
+    /**
+     * 一条语句更新状态，事件沿用单个用户启停用的saga和payload，下游服务无需改动
+     */
+    private void batchUpdateStatus(Long organizationId, List<UserDTO> users, boolean enabled, String sagaCode) {
+        if (users.isEmpty()) {
+            return;
+        }
+        organizationAssertHelper.organizationNotExisted(organizationId);
+        Set<Long> ids = users.stream().map(UserDTO::getId).collect(Collectors.toSet());
+        CustomUserDetails userDetails = DetailsHelper.getUserDetails();
+        Long lastUpdatedBy = userDetails == null ? 0L : userDetails.getUserId();
+        //oracle In-list上限为1000，这里List size要小于1000
+        CollectionUtils.subSet(ids, 999).forEach(set -> userMapper.updateEnabledByIds(set, enabled, lastUpdatedBy));
+        userLookupCache.invalidate(ids);
+        if (devopsMessage) {
+            for (UserDTO user : users) {
+                UserEventPayload userEventPayload = new UserEventPayload();
+                userEventPayload.setUsername(user.getLoginName());
+                userEventPayload.setId(user.getId().toString());
+                try {
+                    String input = mapper.writeValueAsString(userEventPayload);
+                    sagaClient.startSaga(sagaCode, new StartInstanceDTO(input, "user", userEventPayload.getId(), ResourceLevel.ORGANIZATION.value(), organizationId));
+                } catch (Exception e) {
+                    throw new CommonException("error.organizationUserService.batchUpdateStatus.event", e);
+                }
+            }
+        }
+    }
+
     @Override
     public List<Long> listUserIds(Long organizationId) {
         return organizationMapper.listMemberIds(organizationId, "organization");
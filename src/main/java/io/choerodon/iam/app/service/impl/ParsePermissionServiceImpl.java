@@ -9,6 +9,7 @@ import io.choerodon.core.swagger.PermissionData;
 import io.choerodon.core.swagger.SwaggerExtraData;
 import io.choerodon.eureka.event.EurekaEventPayload;
 import io.choerodon.iam.app.service.UploadHistoryService;
+import io.choerodon.iam.infra.common.utils.cache.PermissionCheckCache;
 import io.choerodon.iam.infra.dto.PermissionDTO;
 import io.choerodon.iam.infra.dto.RoleDTO;
 import io.choerodon.iam.infra.dto.RolePermissionDTO;
@@ -46,6 +47,8 @@ public class ParsePermissionServiceImpl implements UploadHistoryService.ParsePer
 
     private RoleMapper roleMapper;
 
+    private PermissionCheckCache permissionCheckCache;
+
     @Value("${choerodon.cleanPermission:false}")
     private boolean cleanPermission;
 
@@ -55,10 +58,12 @@ public class ParsePermissionServiceImpl implements UploadHistoryService.ParsePer
 
     public ParsePermissionServiceImpl(PermissionMapper permissionMapper,
                                       RolePermissionMapper rolePermissionMapper,
-                                      RoleMapper roleMapper) {
+                                      RoleMapper roleMapper,
+                                      PermissionCheckCache permissionCheckCache) {
         this.permissionMapper = permissionMapper;
         this.rolePermissionMapper = rolePermissionMapper;
         this.roleMapper = roleMapper;
+        this.permissionCheckCache = permissionCheckCache;
     }
 
     private void fetchSwaggerJsonByIp(final EurekaEventPayload payload) {
@@ -94,6 +99,7 @@ public class ParsePermissionServiceImpl implements UploadHistoryService.ParsePer
                     //清理role_permission表层级不符的脏数据，会导致基于角色创建失败
                     cleanRolePermission();
                 }
+                permissionCheckCache.invalidateAll();
             }
         } catch (IOException e) {
             throw new CommonException("error.parsePermissionService.parse.IOException", e);
@@ -13,8 +13,12 @@ import io.choerodon.core.oauth.DetailsHelper;
 import io.choerodon.core.swagger.PermissionData;
 import io.choerodon.core.swagger.SwaggerExtraData;
 import io.choerodon.iam.api.dto.CheckPermissionDTO;
+import io.choerodon.iam.api.dto.SourceRoleDTO;
 import io.choerodon.iam.app.service.PermissionService;
 import io.choerodon.iam.infra.asserts.PermissionAssertHelper;
+import io.choerodon.iam.infra.common.utils.CollectionUtils;
+import io.choerodon.iam.infra.common.utils.cache.PermissionBitmapIndex;
+import io.choerodon.iam.infra.common.utils.cache.PermissionCheckCache;
 import io.choerodon.iam.infra.dto.MenuPermissionDTO;
 import io.choerodon.iam.infra.dto.PermissionDTO;
 import io.choerodon.iam.infra.dto.RolePermissionDTO;
@@ -45,14 +49,12 @@ public class PermissionServiceImpl implements PermissionService {
 
     private static final Logger logger = LoggerFactory.getLogger(PermissionServiceImpl.class);
 
+    private static final int IN_LIST_SIZE = 999;
+
     private PermissionMapper permissionMapper;
 
     private DiscoveryClient discoveryClient;
 
-    private OrganizationMapper organizationMapper;
-
-    private ProjectMapper projectMapper;
-
     private final ObjectMapper objectMapper = new ObjectMapper();
 
     private PermissionAssertHelper permissionAssertHelper;
@@ -61,20 +63,24 @@ public class PermissionServiceImpl implements PermissionService {
 
     private MenuPermissionMapper menuPermissionMapper;
 
+    private MemberRoleMapper memberRoleMapper;
+
+    private PermissionCheckCache permissionCheckCache;
+
     public PermissionServiceImpl(DiscoveryClient discoveryClient,
-                                 OrganizationMapper organizationMapper,
-                                 ProjectMapper projectMapper,
                                  PermissionMapper permissionMapper,
                                  PermissionAssertHelper permissionAssertHelper,
                                  RolePermissionMapper rolePermissionMapper,
-                                 MenuPermissionMapper menuPermissionMapper) {
+                                 MenuPermissionMapper menuPermissionMapper,
+                                 MemberRoleMapper memberRoleMapper,
+                                 PermissionCheckCache permissionCheckCache) {
         this.discoveryClient = discoveryClient;
-        this.organizationMapper = organizationMapper;
-        this.projectMapper = projectMapper;
         this.permissionMapper = permissionMapper;
         this.permissionAssertHelper = permissionAssertHelper;
         this.rolePermissionMapper = rolePermissionMapper;
         this.menuPermissionMapper = menuPermissionMapper;
+        this.memberRoleMapper = memberRoleMapper;
+        this.permissionCheckCache = permissionCheckCache;
     }
 
 
@@ -93,16 +99,21 @@ public class PermissionServiceImpl implements PermissionService {
             checkPermissionDTOList.forEach(i -> i.setApprove(false));
             return checkPermissionDTOList;
         }
+        PermissionBitmapIndex.Snapshot snapshot = permissionCheckCache.snapshot();
         //super admin例外处理
         if (details.getAdmin() != null && details.getAdmin()) {
-            checkPermissionDTOList.forEach(dto -> dto.setApprove(permissionAssertHelper.codeExisted(dto.getCode().trim())));
+            checkPermissionDTOList.forEach(dto -> dto.setApprove(snapshot.codeExisted(dto.getCode().trim())));
             return checkPermissionDTOList;
         }
         Long userId = details.getUserId();
+        Map<String, Map<Long, Set<String>>> sourceCodes = groupCodesBySource(checkPermissionDTOList);
+        Map<String, Map<Long, PermissionCheckCache.GrantedPermissions>> grantedPermissions =
+                resolveGrantedPermissions(snapshot, userId, sourceCodes);
         Set<String> resultCodes = new HashSet<>();
-        resultCodes.addAll(checkSitePermission(checkPermissionDTOList, userId));
-        resultCodes.addAll(checkOrgPermission(checkPermissionDTOList, userId));
-        resultCodes.addAll(checkProjectPermission(checkPermissionDTOList, userId));
+        sourceCodes.forEach((level, codeMap) -> codeMap.forEach((sourceId, codes) -> {
+            PermissionCheckCache.GrantedPermissions granted = grantedPermissions.get(level).get(sourceId);
+            codes.stream().filter(granted::contains).forEach(resultCodes::add);
+        }));
         checkPermissionDTOList.forEach(p -> {
             p.setApprove(false);
             if (resultCodes.contains(p.getCode())) {
@@ -112,67 +123,101 @@ public class PermissionServiceImpl implements PermissionService {
         return checkPermissionDTOList;
     }
 
-    private Set<String> checkSitePermission(final List<CheckPermissionDTO> checkPermissionDTOList, final Long userId) {
-        Set<String> siteCodes = checkPermissionDTOList.stream().filter(i -> ResourceLevel.SITE.value().equals(i.getResourceType()))
-                .map(CheckPermissionDTO::getCode).collect(Collectors.toSet());
-        //site层校验之后的权限集
-        return permissionMapper.checkPermission(userId, ResourceLevel.SITE.value(), 0L, siteCodes);
-    }
-
-    private Set<String> checkOrgPermission(final List<CheckPermissionDTO> checkPermissionDTOList, final Long userId) {
-        List<CheckPermissionDTO> organizationPermissions = checkPermissionDTOList.stream().filter(i -> ResourceLevel.ORGANIZATION.value().equals(i.getResourceType()))
-                .collect(Collectors.toList());
-        Map<Long, List<CheckPermissionDTO>> orgPermissionMaps = new HashMap<>();
-        organizationPermissions.forEach(p -> {
-            if (orgPermissionMaps.get(p.getOrganizationId()) != null && !orgPermissionMaps.get(p.getOrganizationId()).isEmpty()) {
-                orgPermissionMaps.get(p.getOrganizationId()).add(p);
+    /**
+     * 按层级和sourceId对待校验的code分组，site层sourceId为0
+     */
+    private Map<String, Map<Long, Set<String>>> groupCodesBySource(final List<CheckPermissionDTO> checkPermissionDTOList) {
+        Map<String, Map<Long, Set<String>>> sourceCodes = new HashMap<>();
+        for (CheckPermissionDTO dto : checkPermissionDTOList) {
+            String level = dto.getResourceType();
+            Long sourceId;
+            if (ResourceLevel.SITE.value().equals(level)) {
+                sourceId = 0L;
+            } else if (ResourceLevel.ORGANIZATION.value().equals(level)) {
+                sourceId = dto.getOrganizationId();
+            } else if (ResourceLevel.PROJECT.value().equals(level)) {
+                sourceId = dto.getProjectId();
             } else {
-                List<CheckPermissionDTO> list = new ArrayList<>();
-                list.add(p);
-                orgPermissionMaps.put(p.getOrganizationId(), list);
+                continue;
             }
-        });
-        Set<String> organizationCodes = new HashSet<>();
-        for (Map.Entry<Long, List<CheckPermissionDTO>> entry : orgPermissionMaps.entrySet()) {
-            Long orgId = entry.getKey();
-            if (orgId != null) {
-                Boolean orgEnabled = organizationMapper.organizationEnabled(orgId);
-                if (orgEnabled != null && !orgEnabled) {
+            sourceCodes.computeIfAbsent(level, k -> new HashMap<>())
+                    .computeIfAbsent(sourceId, k -> new HashSet<>()).add(dto.getCode());
+        }
+        if (!sourceCodes.containsKey(ResourceLevel.SITE.value())) {
+            //未传site层code时不限制code范围，与之前的sql行为保持一致
+            Set<String> allCodes = checkPermissionDTOList.stream().map(CheckPermissionDTO::getCode).collect(Collectors.toSet());
+            sourceCodes.computeIfAbsent(ResourceLevel.SITE.value(), k -> new HashMap<>()).put(0L, allCodes);
+        }
+        return sourceCodes;
+    }
+
+    /**
+     * 获取每个(层级, sourceId)的有效权限，缓存未命中的部分一次查询出角色和启用状态
+     */
+    private Map<String, Map<Long, PermissionCheckCache.GrantedPermissions>> resolveGrantedPermissions(
+            PermissionBitmapIndex.Snapshot snapshot, Long userId, Map<String, Map<Long, Set<String>>> sourceCodes) {
+        long generation = permissionCheckCache.generation();
+        Map<String, Map<Long, PermissionCheckCache.GrantedPermissions>> result = new HashMap<>();
+        Map<String, Set<Long>> missingSourceIds = new HashMap<>();
+        sourceCodes.forEach((level, codeMap) -> {
+            Map<Long, PermissionCheckCache.GrantedPermissions> grantedMap = result.computeIfAbsent(level, k -> new HashMap<>());
+            for (Long sourceId : codeMap.keySet()) {
+                if (sourceId == null) {
+                    grantedMap.put(null, PermissionCheckCache.GrantedPermissions.of(snapshot, snapshot.publicBitmap()));
                     continue;
                 }
+                PermissionCheckCache.GrantedPermissions granted = permissionCheckCache.getIfPresent(snapshot, userId, level, sourceId);
+                if (granted == null) {
+                    missingSourceIds.computeIfAbsent(level, k -> new HashSet<>()).add(sourceId);
+                } else {
+                    grantedMap.put(sourceId, granted);
+                }
             }
-            Set<String> searchOrganizationCodes = entry.getValue().stream().map(CheckPermissionDTO::getCode).collect(Collectors.toSet());
-            organizationCodes.addAll(permissionMapper.checkPermission(userId, ResourceLevel.ORGANIZATION.value(), orgId, searchOrganizationCodes));
+        });
+        if (missingSourceIds.isEmpty()) {
+            return result;
         }
-        return organizationCodes;
-    }
-
-    private Set<String> checkProjectPermission(final List<CheckPermissionDTO> checkPermissionDTOList, final Long userId) {
-        List<CheckPermissionDTO> projectPermissions = checkPermissionDTOList.stream().filter(i -> ResourceLevel.PROJECT.value().equals(i.getResourceType()))
-                .collect(Collectors.toList());
-        Map<Long, List<CheckPermissionDTO>> projectMaps = new HashMap<>();
-        projectPermissions.forEach(p -> {
-            if (projectMaps.get(p.getProjectId()) != null && !projectMaps.get(p.getProjectId()).isEmpty()) {
-                projectMaps.get(p.getProjectId()).add(p);
-            } else {
-                List<CheckPermissionDTO> list = new ArrayList<>();
-                list.add(p);
-                projectMaps.put(p.getProjectId(), list);
+        Map<String, Map<Long, List<Long>>> sourceRoleIds = new HashMap<>();
+        Map<String, Set<Long>> disabledSourceIds = new HashMap<>();
+        selectSourceRoles(userId, missingSourceIds).forEach(row -> {
+            List<Long> roleIds = sourceRoleIds.computeIfAbsent(row.getSourceType(), k -> new HashMap<>())
+                    .computeIfAbsent(row.getSourceId(), k -> new ArrayList<>());
+            if (row.getRoleId() != null) {
+                roleIds.add(row.getRoleId());
+            }
+            if (Boolean.FALSE.equals(row.getEnabled())) {
+                disabledSourceIds.computeIfAbsent(row.getSourceType(), k -> new HashSet<>()).add(row.getSourceId());
             }
         });
-        Set<String> projectCodes = new HashSet<>();
-        for (Map.Entry<Long, List<CheckPermissionDTO>> entry : projectMaps.entrySet()) {
-            Long projectId = entry.getKey();
-            if (projectId != null) {
-                Boolean projectEnabled = projectMapper.projectEnabled(projectId);
-                if (projectEnabled != null && !projectEnabled) {
-                    continue;
-                }
+        missingSourceIds.forEach((level, sourceIds) -> sourceIds.forEach(sourceId -> {
+            PermissionCheckCache.GrantedPermissions granted;
+            if (disabledSourceIds.getOrDefault(level, Collections.emptySet()).contains(sourceId)) {
+                granted = PermissionCheckCache.GrantedPermissions.disabled(snapshot);
+            } else {
+                List<Long> roleIds = sourceRoleIds.getOrDefault(level, Collections.emptyMap())
+                        .getOrDefault(sourceId, Collections.emptyList());
+                granted = PermissionCheckCache.GrantedPermissions.of(snapshot, snapshot.effectiveBitmap(level, roleIds));
             }
-            Set<String> searchProjectCodes = entry.getValue().stream().map(CheckPermissionDTO::getCode).collect(Collectors.toSet());
-            projectCodes.addAll(permissionMapper.checkPermission(userId, ResourceLevel.PROJECT.value(), projectId, searchProjectCodes));
+            permissionCheckCache.put(userId, level, sourceId, granted, generation);
+            result.get(level).put(sourceId, granted);
+        }));
+        return result;
+    }
+
+    private List<SourceRoleDTO> selectSourceRoles(Long userId, Map<String, Set<Long>> sourceIds) {
+        boolean includeSite = sourceIds.containsKey(ResourceLevel.SITE.value());
+        List<Set<Long>> organizationIds = CollectionUtils.subSet(
+                sourceIds.getOrDefault(ResourceLevel.ORGANIZATION.value(), Collections.emptySet()), IN_LIST_SIZE);
+        List<Set<Long>> projectIds = CollectionUtils.subSet(
+                sourceIds.getOrDefault(ResourceLevel.PROJECT.value(), Collections.emptySet()), IN_LIST_SIZE);
+        int rounds = Math.max(includeSite ? 1 : 0, Math.max(organizationIds.size(), projectIds.size()));
+        List<SourceRoleDTO> rows = new ArrayList<>();
+        for (int i = 0; i < rounds; i++) {
+            rows.addAll(memberRoleMapper.selectSourceRoles(userId, includeSite && i == 0,
+                    i < organizationIds.size() ? organizationIds.get(i) : null,
+                    i < projectIds.size() ? projectIds.get(i) : null));
         }
-        return projectCodes;
+        return rows;
     }
 
 
@@ -213,6 +258,7 @@ public class PermissionServiceImpl implements PermissionService {
             MenuPermissionDTO menuPermission = new MenuPermissionDTO();
             menuPermission.setPermissionCode(code);
             menuPermissionMapper.delete(menuPermission);
+            permissionCheckCache.invalidateAll();
         } else {
             throw new CommonException("error.permission.not.obsoleting");
         }
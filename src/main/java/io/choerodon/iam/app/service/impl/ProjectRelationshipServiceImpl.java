@@ -11,6 +11,8 @@ import io.choerodon.iam.api.dto.payload.ProjectRelationshipInsertPayload;
 import io.choerodon.iam.app.service.OrganizationProjectService;
 import io.choerodon.iam.app.service.ProjectRelationshipService;
 import io.choerodon.iam.infra.asserts.ProjectAssertHelper;
+import io.choerodon.iam.infra.common.utils.cache.MenuCache;
+import io.choerodon.iam.infra.common.utils.cache.ProjectCategoryCache;
 import io.choerodon.iam.infra.dto.ProjectDTO;
 import io.choerodon.iam.infra.dto.ProjectMapCategoryDTO;
 import io.choerodon.iam.infra.dto.ProjectRelationshipDTO;
@@ -65,12 +67,18 @@ public class ProjectRelationshipServiceImpl implements ProjectRelationshipServic
 
     private ProjectMapper projectMapper;
 
+    private MenuCache menuCache;
+
+    private ProjectCategoryCache projectCategoryCache;
+
     public ProjectRelationshipServiceImpl(TransactionalProducer producer, ProjectRelationshipMapper relationshipMapper,
                                           ProjectCategoryMapper projectCategoryMapper, ProjectMapCategoryMapper projectMapCategoryMapper,
                                           OrganizationProjectService organizationProjectService,
                                           ProjectRelationshipMapper projectRelationshipMapper,
                                           ProjectAssertHelper projectAssertHelper,
-                                          ProjectMapper projectMapper) {
+                                          ProjectMapper projectMapper,
+                                          MenuCache menuCache,
+                                          ProjectCategoryCache projectCategoryCache) {
         this.producer = producer;
         this.relationshipMapper = relationshipMapper;
         this.projectCategoryMapper = projectCategoryMapper;
@@ -79,6 +87,8 @@ public class ProjectRelationshipServiceImpl implements ProjectRelationshipServic
         this.projectRelationshipMapper = projectRelationshipMapper;
         this.projectAssertHelper = projectAssertHelper;
         this.projectMapper = projectMapper;
+        this.menuCache = menuCache;
+        this.projectCategoryCache = projectCategoryCache;
     }
 
     @Override
@@ -293,6 +303,8 @@ public class ProjectRelationshipServiceImpl implements ProjectRelationshipServic
         if (projectMapCategoryMapper.insert(projectMapCategoryDTO) != 1) {
             throw new CommonException("error.project.map.category.insert");
         }
+        menuCache.invalidateCategories(ResourceLevel.PROJECT.value(), projectId);
+        projectCategoryCache.invalidate(projectId);
     }
 
     private void removeProgramProject(Long projectId) {
@@ -307,6 +319,8 @@ public class ProjectRelationshipServiceImpl implements ProjectRelationshipServic
         if (projectMapCategoryMapper.delete(projectMapCategoryDTO) != 1) {
             throw new CommonException("error.project.map.category.delete");
         }
+        menuCache.invalidateCategories(ResourceLevel.PROJECT.value(), projectId);
+        projectCategoryCache.invalidate(projectId);
     }
 
     /**
@@ -12,6 +12,7 @@ import io.choerodon.core.excel.ExcelReadConfig;
 import io.choerodon.core.excel.ExcelReadHelper;
 import io.choerodon.core.exception.CommonException;
 import io.choerodon.core.iam.ResourceLevel;
+import io.choerodon.core.oauth.CustomUserDetails;
 import io.choerodon.core.oauth.DetailsHelper;
 
 
@@ -22,8 +23,11 @@ import io.choerodon.iam.api.dto.RoleAssignmentDeleteDTO;
 import io.choerodon.iam.api.validator.RoleAssignmentViewValidator;
 import io.choerodon.iam.app.service.RoleMemberService;
 import io.choerodon.iam.infra.asserts.UserAssertHelper;
+import io.choerodon.iam.infra.common.utils.CollectionUtils;
 import io.choerodon.iam.infra.common.utils.PageUtils;
 import io.choerodon.iam.infra.common.utils.ParamUtils;
+import io.choerodon.iam.infra.common.utils.cache.PermissionCheckCache;
+import io.choerodon.iam.infra.common.utils.cache.RoleMemberCountCache;
 import io.choerodon.iam.infra.common.utils.excel.ExcelImportUserTask;
 import io.choerodon.iam.infra.dto.ClientDTO;
 import io.choerodon.iam.infra.dto.MemberRoleDTO;
@@ -90,6 +94,10 @@ public class RoleMemberServiceImpl implements RoleMemberService {
 
     private UploadHistoryMapper uploadHistoryMapper;
 
+    private PermissionCheckCache permissionCheckCache;
+
+    private RoleMemberCountCache roleMemberCountCache;
+
     public RoleMemberServiceImpl(ExcelImportUserTask excelImportUserTask,
                                  ExcelImportUserTask.FinishFallback finishFallback,
                                  OrganizationMapper organizationMapper,
@@ -100,7 +108,9 @@ public class RoleMemberServiceImpl implements RoleMemberService {
                                  SagaClient sagaClient,
                                  LabelMapper labelMapper,
                                  ClientMapper clientMapper,
-                                 UploadHistoryMapper uploadHistoryMapper) {
+                                 UploadHistoryMapper uploadHistoryMapper,
+                                 PermissionCheckCache permissionCheckCache,
+                                 RoleMemberCountCache roleMemberCountCache) {
         this.excelImportUserTask = excelImportUserTask;
         this.finishFallback = finishFallback;
         this.organizationMapper = organizationMapper;
@@ -112,6 +122,8 @@ public class RoleMemberServiceImpl implements RoleMemberService {
         this.labelMapper = labelMapper;
         this.clientMapper = clientMapper;
         this.uploadHistoryMapper = uploadHistoryMapper;
+        this.permissionCheckCache = permissionCheckCache;
+        this.roleMemberCountCache = roleMemberCountCache;
     }
 
 
@@ -136,14 +148,7 @@ public class RoleMemberServiceImpl implements RoleMemberService {
         }
 
         // member type 为 'user' 时
-        for (Long memberId : memberIds) {
-            memberRoleDTOList.forEach(m ->
-                    m.setMemberId(memberId)
-            );
-            memberRoleDTOS.addAll(
-                    insertOrUpdateRolesOfUserByMemberId(isEdit, 0L, memberId, memberRoleDTOList, ResourceLevel.SITE.value()));
-        }
-        return memberRoleDTOS;
+        return insertOrUpdateRolesOfUsersByMemberIds(isEdit, 0L, memberIds, memberRoleDTOList, ResourceLevel.SITE.value());
     }
 
     @Transactional(rollbackFor = CommonException.class)
@@ -168,16 +173,8 @@ public class RoleMemberServiceImpl implements RoleMemberService {
         }
 
         // member type 为 'user' 时
-        for (Long memberId : memberIds) {
-            memberRoleDTOList.forEach(m ->
-                    m.setMemberId(memberId)
-            );
-            memberRoleDTOS.addAll(
-                    insertOrUpdateRolesOfUserByMemberId(isEdit, organizationId, memberId,
-                            memberRoleDTOList,
-                            ResourceLevel.ORGANIZATION.value()));
-        }
-        return memberRoleDTOS;
+        return insertOrUpdateRolesOfUsersByMemberIds(isEdit, organizationId, memberIds, memberRoleDTOList,
+                ResourceLevel.ORGANIZATION.value());
     }
 
     private String validate(List<MemberRoleDTO> memberRoleDTOList, String memberType) {
@@ -227,16 +224,8 @@ public class RoleMemberServiceImpl implements RoleMemberService {
         }
 
         // member type 为 'user' 时
-        for (Long memberId : memberIds) {
-            memberRoleDTOList.forEach(m ->
-                    m.setMemberId(memberId)
-            );
-            memberRoleDTOS.addAll(
-                    insertOrUpdateRolesOfUserByMemberId(isEdit, projectId, memberId,
-                            memberRoleDTOList,
-                            ResourceLevel.PROJECT.value()));
-        }
-        return memberRoleDTOS;
+        return insertOrUpdateRolesOfUsersByMemberIds(isEdit, projectId, memberIds, memberRoleDTOList,
+                ResourceLevel.PROJECT.value());
     }
 
     @Transactional(rollbackFor = CommonException.class)
@@ -350,6 +339,8 @@ public class RoleMemberServiceImpl implements RoleMemberService {
         if (memberRoleMapper.insertSelective(memberRoleDTO) != 1) {
             throw new CommonException("error.member_role.create");
         }
+        permissionCheckCache.invalidateUser(memberRoleDTO.getMemberId());
+        roleMemberCountCache.invalidateSource(memberRoleDTO.getSourceType(), memberRoleDTO.getSourceId());
         return memberRoleMapper.selectByPrimaryKey(memberRoleDTO.getId());
     }
 
@@ -461,12 +452,135 @@ public class RoleMemberServiceImpl implements RoleMemberService {
                             exceptDelete(returnList, t);
                         }
                     });
+            permissionCheckCache.invalidateUser(memberId);
+            roleMemberCountCache.invalidateSource(sourceType, sourceId);
         }
         //查当前用户/客户端有那些角色
         return memberRoleMapper.select(memberRole)
                 .stream().map(MemberRoleDTO::getRoleId).collect(Collectors.toList());
     }
 
+    /**
+     * 批量为多个用户分配同一组角色
+     * 一次查询这批用户已有的角色，用集合求差后多行插入/删除，所有用户合并为一个saga事件
+     */
+    private List<MemberRoleDTO> insertOrUpdateRolesOfUsersByMemberIds(Boolean isEdit, Long sourceId, List<Long> memberIds,
+                                                                      List<MemberRoleDTO> memberRoles, String sourceType) {
+        String memberType = MemberType.USER.value();
+        Set<Long> userIds = new LinkedHashSet<>(memberIds);
+        if (userIds.isEmpty()) {
+            return new ArrayList<>();
+        }
+        Map<Long, UserDTO> users = userAssertHelper.usersNotExisted(userIds);
+        Set<Long> newRoleIds = memberRoles.stream().map(MemberRoleDTO::getRoleId).collect(Collectors.toCollection(LinkedHashSet::new));
+        Map<Long, List<MemberRoleDTO>> existingMemberRoles = selectMemberRoles(sourceId, sourceType, memberType, userIds);
+        List<MemberRoleDTO> insertList = new ArrayList<>();
+        List<Long> deleteList = new ArrayList<>();
+        Set<Long> changedUserIds = new HashSet<>();
+        userIds.forEach(userId -> {
+            List<MemberRoleDTO> owned = existingMemberRoles.getOrDefault(userId, Collections.emptyList());
+            Set<Long> ownedRoleIds = owned.stream().map(MemberRoleDTO::getRoleId).collect(Collectors.toSet());
+            //传入的roleId与数据库里存在的roleId的差集为要插入的roleId
+            newRoleIds.stream().filter(roleId -> !ownedRoleIds.contains(roleId)).forEach(roleId -> {
+                MemberRoleDTO mr = new MemberRoleDTO();
+                mr.setRoleId(roleId);
+                mr.setMemberId(userId);
+                mr.setMemberType(memberType);
+                mr.setSourceType(sourceType);
+                mr.setSourceId(sourceId);
+                insertList.add(mr);
+                changedUserIds.add(userId);
+            });
+            //数据库存在的roleId与传入的roleId的差集为要删除的roleId
+            if (isEdit != null && isEdit) {
+                owned.stream().filter(mr -> !newRoleIds.contains(mr.getRoleId())).forEach(mr -> {
+                    deleteList.add(mr.getId());
+                    changedUserIds.add(userId);
+                });
+            }
+        });
+        if (!insertList.isEmpty()) {
+            validateInsertTarget(insertList.stream().map(MemberRoleDTO::getRoleId).collect(Collectors.toSet()), sourceId, sourceType);
+            CustomUserDetails userDetails = DetailsHelper.getUserDetails();
+            Long operatorId = userDetails == null ? 0L : userDetails.getUserId();
+            CollectionUtils.subList(insertList, 999).forEach(list -> memberRoleMapper.batchInsert(list, operatorId));
+        }
+        CollectionUtils.subList(deleteList, 999).forEach(memberRoleMapper::deleteByIds);
+        permissionCheckCache.invalidateUsers(changedUserIds);
+        if (!changedUserIds.isEmpty()) {
+            roleMemberCountCache.invalidateSource(sourceType, sourceId);
+        }
+        //查这批用户当前有哪些角色
+        Map<Long, List<MemberRoleDTO>> currentMemberRoles =
+                changedUserIds.isEmpty() ? existingMemberRoles : selectMemberRoles(sourceId, sourceType, memberType, userIds);
+        if (devopsMessage) {
+            Map<Long, Set<String>> roleLabels = selectRoleLabels(currentMemberRoles.values().stream()
+                    .flatMap(List::stream).map(MemberRoleDTO::getRoleId).collect(Collectors.toSet()));
+            List<UserMemberEventPayload> userMemberEventPayloads = new ArrayList<>();
+            userIds.forEach(userId -> {
+                UserMemberEventPayload userMemberEventMsg = new UserMemberEventPayload();
+                userMemberEventMsg.setResourceId(sourceId);
+                userMemberEventMsg.setUserId(userId);
+                userMemberEventMsg.setResourceType(sourceType);
+                userMemberEventMsg.setUsername(users.get(userId).getLoginName());
+                List<MemberRoleDTO> owned = currentMemberRoles.get(userId);
+                if (owned != null && !owned.isEmpty()) {
+                    userMemberEventMsg.setRoleLabels(labelsOf(owned, roleLabels));
+                }
+                userMemberEventPayloads.add(userMemberEventMsg);
+            });
+            sendEvent(userMemberEventPayloads);
+        }
+        List<MemberRoleDTO> returnList = new ArrayList<>();
+        userIds.forEach(userId -> returnList.addAll(currentMemberRoles.getOrDefault(userId, Collections.emptyList())));
+        return returnList;
+    }
+
+    private void validateInsertTarget(Set<Long> roleIds, Long sourceId, String sourceType) {
+        roleIds.forEach(roleId -> {
+            if (roleMapper.selectByPrimaryKey(roleId) == null) {
+                throw new CommonException("error.member_role.insert.role.not.exist");
+            }
+        });
+        if (ResourceLevel.PROJECT.value().equals(sourceType)
+                && projectMapper.selectByPrimaryKey(sourceId) == null) {
+            throw new CommonException("error.member_role.insert.project.not.exist");
+        }
+        if (ResourceLevel.ORGANIZATION.value().equals(sourceType)
+                && organizationMapper.selectByPrimaryKey(sourceId) == null) {
+            throw new CommonException("error.member_role.insert.organization.not.exist");
+        }
+    }
+
+    /**
+     * 查询一批成员在某个资源下的角色分配，按成员id分组
+     */
+    private Map<Long, List<MemberRoleDTO>> selectMemberRoles(Long sourceId, String sourceType, String memberType, Set<Long> memberIds) {
+        Map<Long, List<MemberRoleDTO>> memberRoles = new HashMap<>();
+        //oracle In-list上限为1000，这里List size要小于1000
+        CollectionUtils.subSet(memberIds, 999).forEach(set ->
+                memberRoleMapper.selectByMemberIds(sourceId, sourceType, memberType, set)
+                        .forEach(mr -> memberRoles.computeIfAbsent(mr.getMemberId(), k -> new ArrayList<>()).add(mr)));
+        return memberRoles;
+    }
+
+    /**
+     * 一次查询所有涉及角色的标签，返回roleId到标签名的映射
+     */
+    private Map<Long, Set<String>> selectRoleLabels(Set<Long> roleIds) {
+        Map<Long, Set<String>> roleLabels = new HashMap<>();
+        CollectionUtils.subSet(roleIds, 999).forEach(set ->
+                labelMapper.selectRoleLabelNamesInRoleIds(set)
+                        .forEach(label -> roleLabels.computeIfAbsent(label.getRoleId(), k -> new HashSet<>()).add(label.getName())));
+        return roleLabels;
+    }
+
+    private Set<String> labelsOf(List<MemberRoleDTO> memberRoles, Map<Long, Set<String>> roleLabels) {
+        Set<String> labels = new HashSet<>();
+        memberRoles.forEach(mr -> labels.addAll(roleLabels.getOrDefault(mr.getRoleId(), Collections.emptySet())));
+        return labels;
+    }
+
     private void sendEvent(List<UserMemberEventPayload> userMemberEventPayloads) {
         try {
             String input = mapper.writeValueAsString(userMemberEventPayloads);
@@ -532,54 +646,45 @@ public class RoleMemberServiceImpl implements RoleMemberService {
      * @param isRole data的键是否是 roleId
      */
     private void deleteFromMap(Map<Long, List<Long>> data, boolean isRole, String memberType, Long sourceId, String sourceType, boolean doSendEvent, List<UserMemberEventPayload> userMemberEventPayloads) {
+        //[roleId, memberId]
+        List<Long[]> pairs = new ArrayList<>();
         for (Map.Entry<Long, List<Long>> entry : data.entrySet()) {
             Long key = entry.getKey();
             List<Long> values = entry.getValue();
             if (values != null && !values.isEmpty()) {
-                values.forEach(id -> {
-                    Long roleId;
-                    Long memberId;
-                    if (isRole) {
-                        roleId = key;
-                        memberId = id;
-                    } else {
-                        roleId = id;
-                        memberId = key;
-                    }
-                    UserMemberEventPayload userMemberEventPayload =
-                            delete(roleId, memberId, memberType, sourceId, sourceType, doSendEvent);
-                    if (userMemberEventPayload != null) {
-                        userMemberEventPayloads.add(userMemberEventPayload);
-                    }
-                });
+                values.forEach(id -> pairs.add(isRole ? new Long[]{key, id} : new Long[]{id, key}));
             }
         }
-    }
-
-    private UserMemberEventPayload delete(Long roleId, Long memberId, String memberType,
-                                          Long sourceId, String sourceType, boolean doSendEvent) {
-        MemberRoleDTO memberRole = new MemberRoleDTO();
-        memberRole.setRoleId(roleId);
-        memberRole.setMemberId(memberId);
-        memberRole.setMemberType(memberType);
-        memberRole.setSourceId(sourceId);
-        memberRole.setSourceType(sourceType);
-        MemberRoleDTO mr = memberRoleMapper.selectOne(memberRole);
-        if (mr == null) {
-            throw new CommonException(MEMBER_ROLE_NOT_EXIST_EXCEPTION, roleId, memberId);
+        if (pairs.isEmpty()) {
+            return;
         }
-        memberRoleMapper.deleteByPrimaryKey(mr.getId());
-        UserMemberEventPayload userMemberEventMsg = null;
+        Set<Long> memberIds = pairs.stream().map(pair -> pair[1]).collect(Collectors.toCollection(LinkedHashSet::new));
+        Map<String, Long> existingIds = new HashMap<>();
+        selectMemberRoles(sourceId, sourceType, memberType, memberIds).values().forEach(list ->
+                list.forEach(mr -> existingIds.put(mr.getRoleId() + "-" + mr.getMemberId(), mr.getId())));
+        Set<Long> deleteIds = new LinkedHashSet<>();
+        pairs.forEach(pair -> {
+            Long id = existingIds.get(pair[0] + "-" + pair[1]);
+            if (id == null) {
+                throw new CommonException(MEMBER_ROLE_NOT_EXIST_EXCEPTION, pair[0], pair[1]);
+            }
+            deleteIds.add(id);
+        });
+        CollectionUtils.subList(new ArrayList<>(deleteIds), 999).forEach(memberRoleMapper::deleteByIds);
+        permissionCheckCache.invalidateUsers(memberIds);
+        roleMemberCountCache.invalidateSource(sourceType, sourceId);
         //查询移除的role所包含的所有Label
         if (doSendEvent) {
-            userMemberEventMsg = new UserMemberEventPayload();
-            userMemberEventMsg.setResourceId(sourceId);
-            userMemberEventMsg.setResourceType(sourceType);
-            UserDTO user = userAssertHelper.userNotExisted(memberId);
-            userMemberEventMsg.setUsername(user.getLoginName());
-            userMemberEventMsg.setUserId(memberId);
+            Map<Long, UserDTO> users = userAssertHelper.usersNotExisted(memberIds);
+            pairs.forEach(pair -> {
+                UserMemberEventPayload userMemberEventMsg = new UserMemberEventPayload();
+                userMemberEventMsg.setResourceId(sourceId);
+                userMemberEventMsg.setResourceType(sourceType);
+                userMemberEventMsg.setUsername(users.get(pair[1]).getLoginName());
+                userMemberEventMsg.setUserId(pair[1]);
+                userMemberEventPayloads.add(userMemberEventMsg);
+            });
         }
-        return userMemberEventMsg;
     }
 
     @Override
@@ -607,6 +712,8 @@ public class RoleMemberServiceImpl implements RoleMemberService {
         if (memberRoleMapper.insertSelective(memberRole) != 1) {
             throw new CommonException("error.member_role.create");
         }
+        permissionCheckCache.invalidateUser(memberRole.getMemberId());
+        roleMemberCountCache.invalidateSource(memberRole.getSourceType(), memberRole.getSourceId());
         if (devopsMessage) {
             List<UserMemberEventPayload> userMemberEventPayloads = new ArrayList<>();
             Long userId = memberRole.getMemberId();
@@ -634,5 +741,39 @@ public class RoleMemberServiceImpl implements RoleMemberService {
         }
     }
 
-
+    @Override
+    @Transactional(rollbackFor = Exception.class)
+    public void batchInsertAndSendEvent(List<MemberRoleDTO> memberRoles, Map<Long, String> loginNames) {
+        if (memberRoles.isEmpty()) {
+            return;
+        }
+        CustomUserDetails userDetails = DetailsHelper.getUserDetails();
+        memberRoleMapper.batchInsert(memberRoles, userDetails == null ? 0L : userDetails.getUserId());
+        Set<Long> userIds = memberRoles.stream().map(MemberRoleDTO::getMemberId).collect(Collectors.toSet());
+        permissionCheckCache.invalidateUsers(userIds);
+        MemberRoleDTO first = memberRoles.get(0);
+        roleMemberCountCache.invalidateSource(first.getSourceType(), first.getSourceId());
+        if (devopsMessage) {
+            Long sourceId = first.getSourceId();
+            String sourceType = first.getSourceType();
+            //用户在该资源下的全部角色，一次查询
+            Map<Long, List<MemberRoleDTO>> currentMemberRoles = selectMemberRoles(sourceId, sourceType, first.getMemberType(), userIds);
+            Map<Long, Set<String>> roleLabels = selectRoleLabels(currentMemberRoles.values().stream()
+                    .flatMap(List::stream).map(MemberRoleDTO::getRoleId).collect(Collectors.toSet()));
+            List<UserMemberEventPayload> userMemberEventPayloads = new ArrayList<>();
+            userIds.forEach(userId -> {
+                UserMemberEventPayload userMemberEventMsg = new UserMemberEventPayload();
+                userMemberEventMsg.setResourceId(sourceId);
+                userMemberEventMsg.setUserId(userId);
+                userMemberEventMsg.setResourceType(sourceType);
+                userMemberEventMsg.setUsername(loginNames.get(userId));
+                List<MemberRoleDTO> owned = currentMemberRoles.get(userId);
+                if (owned != null && !owned.isEmpty()) {
+                    userMemberEventMsg.setRoleLabels(labelsOf(owned, roleLabels));
+                }
+                userMemberEventPayloads.add(userMemberEventMsg);
+            });
+            sendEvent(userMemberEventPayloads);
+        }
+    }
 }
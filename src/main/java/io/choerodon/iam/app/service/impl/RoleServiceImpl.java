@@ -1,24 +1,24 @@
 package io.choerodon.iam.app.service.impl;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.github.pagehelper.PageHelper;
 import com.github.pagehelper.PageInfo;
-import io.choerodon.asgard.saga.dto.StartInstanceDTO;
-import io.choerodon.asgard.saga.feign.SagaClient;
 import io.choerodon.base.domain.PageRequest;
 import io.choerodon.base.enums.ResourceType;
 import io.choerodon.core.exception.CommonException;
 import io.choerodon.core.iam.ResourceLevel;
 import io.choerodon.iam.api.query.ClientRoleQuery;
 import io.choerodon.iam.api.dto.RoleAssignmentSearchDTO;
-import io.choerodon.iam.api.dto.payload.UserMemberEventPayload;
 import io.choerodon.iam.api.query.RoleQuery;
 import io.choerodon.iam.api.validator.ResourceLevelValidator;
 import io.choerodon.iam.app.service.RoleService;
 import io.choerodon.iam.infra.asserts.LabelAssertHelper;
 import io.choerodon.iam.infra.asserts.PermissionAssertHelper;
 import io.choerodon.iam.infra.asserts.RoleAssertHelper;
+import io.choerodon.iam.infra.common.utils.CollectionUtils;
 import io.choerodon.iam.infra.common.utils.ParamUtils;
+import io.choerodon.iam.infra.common.utils.cache.PermissionCheckCache;
+import io.choerodon.iam.infra.common.utils.cache.RoleMemberCountCache;
+import io.choerodon.iam.infra.common.utils.saga.RoleLabelEventTask;
 import io.choerodon.iam.infra.dto.*;
 import io.choerodon.iam.infra.exception.EmptyParamException;
 import io.choerodon.iam.infra.exception.IllegalArgumentException;
@@ -28,16 +28,17 @@ import io.choerodon.iam.infra.mapper.*;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.util.ObjectUtils;
 import org.springframework.util.StringUtils;
 
 import java.util.*;
+import java.util.function.Function;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
-import static io.choerodon.iam.infra.common.utils.SagaTopic.MemberRole.MEMBER_ROLE_UPDATE;
-
 /**
  * @author superlee
  * @data 2018/3/27
@@ -66,9 +67,11 @@ public class RoleServiceImpl implements RoleService {
 
     private PermissionAssertHelper permissionAssertHelper;
 
-    private SagaClient sagaClient;
+    private PermissionCheckCache permissionCheckCache;
+
+    private RoleLabelEventTask roleLabelEventTask;
 
-    private final ObjectMapper mapper = new ObjectMapper();
+    private RoleMemberCountCache roleMemberCountCache;
 
 
     public RoleServiceImpl(ClientMapper clientMapper,
@@ -78,8 +81,11 @@ public class RoleServiceImpl implements RoleService {
                            RoleLabelMapper roleLabelMapper,
                            PermissionAssertHelper permissionAssertHelper,
                            LabelMapper labelMapper,
-                           SagaClient sagaClient, UserMapper userMapper,
-                           RolePermissionMapper rolePermissionMapper) {
+                           UserMapper userMapper,
+                           RolePermissionMapper rolePermissionMapper,
+                           PermissionCheckCache permissionCheckCache,
+                           RoleLabelEventTask roleLabelEventTask,
+                           RoleMemberCountCache roleMemberCountCache) {
         this.clientMapper = clientMapper;
         this.roleMapper = roleMapper;
         this.roleAssertHelper = roleAssertHelper;
@@ -87,9 +93,11 @@ public class RoleServiceImpl implements RoleService {
         this.roleLabelMapper = roleLabelMapper;
         this.permissionAssertHelper = permissionAssertHelper;
         this.labelMapper = labelMapper;
-        this.sagaClient = sagaClient;
         this.userMapper = userMapper;
         this.rolePermissionMapper = rolePermissionMapper;
+        this.permissionCheckCache = permissionCheckCache;
+        this.roleLabelEventTask = roleLabelEventTask;
+        this.roleMemberCountCache = roleMemberCountCache;
     }
 
     @Override
@@ -144,6 +152,9 @@ public class RoleServiceImpl implements RoleService {
         }
         //维护role_permission表
         insertRolePermission(roleDTO);
+        if (!ObjectUtils.isEmpty(roleDTO.getPermissions())) {
+            permissionCheckCache.invalidateAll();
+        }
         //维护role_label表
         insertRoleLabel(roleDTO);
         return roleDTO;
@@ -305,6 +316,9 @@ public class RoleServiceImpl implements RoleService {
             rp.setPermissionId(permissionId);
             rolePermissionMapper.delete(rp);
         });
+        if (!insertList.isEmpty() || !deleteList.isEmpty()) {
+            permissionCheckCache.invalidateAll();
+        }
     }
 
     private void validate(RoleDTO role, Long permissionId) {
@@ -336,28 +350,19 @@ public class RoleServiceImpl implements RoleService {
         //新增的labelId集合
         List<Long> insertList = newLabelIds.stream().filter(item ->
                 !intersection.contains(item)).collect(Collectors.toList());
-        List<UserMemberEventPayload> userMemberEventPayloads = new ArrayList<>();
-        List<UserDTO> users = userMapper.selectUsersFromMemberRoleByOptions(roleDTO.getId(), "user", null, ResourceLevel.PROJECT.value(), null, null);
-        boolean sendSagaEvent = !ObjectUtils.isEmpty(users) && devopsMessage;
         doUpdateAndDelete(roleDTO, insertList, deleteList);
-        if (sendSagaEvent) {
-            users.forEach(user -> {
-                List<LabelDTO> labelList = labelMapper.selectByUserId(user.getId());
-                UserMemberEventPayload payload = new UserMemberEventPayload();
-                payload.setResourceId(user.getSourceId());
-                payload.setUserId(user.getId());
-                payload.setResourceType(ResourceLevel.PROJECT.value());
-                payload.setUsername(user.getLoginName());
-                Set<String> nameSet = new HashSet<>(labelList.stream().map(LabelDTO::getName).collect(Collectors.toSet()));
-                payload.setRoleLabels(nameSet);
-                userMemberEventPayloads.add(payload);
-            });
-            try {
-                String input = mapper.writeValueAsString(userMemberEventPayloads);
-                String refIds = userMemberEventPayloads.stream().map(t -> String.valueOf(t.getUserId())).collect(Collectors.joining(","));
-                sagaClient.startSaga(MEMBER_ROLE_UPDATE, new StartInstanceDTO(input, "users", refIds));
-            } catch (Exception e) {
-                throw new CommonException("error.IRoleServiceImpl.update.event", e);
+        if (devopsMessage && (!insertList.isEmpty() || !deleteList.isEmpty())) {
+            //事务提交后再异步通知拥有该角色的用户，避免角色更新的事务等待事件发送
+            Long roleId = roleDTO.getId();
+            if (TransactionSynchronizationManager.isSynchronizationActive()) {
+                TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                    @Override
+                    public void afterCommit() {
+                        roleLabelEventTask.sendRoleLabelEvent(roleId);
+                    }
+                });
+            } else {
+                roleLabelEventTask.sendRoleLabelEvent(roleId);
             }
         }
     }
@@ -420,6 +425,7 @@ public class RoleServiceImpl implements RoleService {
         RolePermissionDTO rolePermission = new RolePermissionDTO();
         rolePermission.setRoleId(id);
         rolePermissionMapper.delete(rolePermission);
+        permissionCheckCache.invalidateAll();
         RoleLabelDTO roleLabelDTO = new RoleLabelDTO();
         roleLabelDTO.setRoleId(id);
         roleLabelMapper.delete(roleLabelDTO);
@@ -441,6 +447,7 @@ public class RoleServiceImpl implements RoleService {
         if (roleMapper.updateByPrimaryKeySelective(dto) != 1) {
             throw new UpdateExcetion("error.role.update.status");
         }
+        permissionCheckCache.invalidateAll();
         return dto;
     }
 
@@ -469,75 +476,74 @@ public class RoleServiceImpl implements RoleService {
     @Override
     public List<RoleDTO> listRolesWithUserCountOnSiteLevel(RoleAssignmentSearchDTO roleAssignmentSearchDTO) {
         List<RoleDTO> roles = roleMapper.fuzzySearchRolesByName(roleAssignmentSearchDTO.getRoleName(), ResourceLevel.SITE.value());
-        String param = ParamUtils.arrToStr(roleAssignmentSearchDTO.getParam());
-        roles.forEach(r -> {
-            Integer count = userMapper.selectUserCountFromMemberRoleByOptions(r.getId(),
-                    "user", 0L, ResourceLevel.SITE.value(), roleAssignmentSearchDTO, param);
-            r.setUserCount(count);
-        });
-        return roles;
+        return setUserCounts(roles, 0L, ResourceLevel.SITE.value(), roleAssignmentSearchDTO);
     }
 
     @Override
     public List<RoleDTO> listRolesWithClientCountOnSiteLevel(ClientRoleQuery clientRoleSearchDTO) {
         List<RoleDTO> roles = roleMapper.fuzzySearchRolesByName(clientRoleSearchDTO.getRoleName(), ResourceLevel.SITE.value());
-        String param = ParamUtils.arrToStr(clientRoleSearchDTO.getParam());
-        roles.forEach(r -> {
-            Integer count = clientMapper.selectClientCountFromMemberRoleByOptions(
-                    r.getId(), ResourceLevel.SITE.value(), 0L, clientRoleSearchDTO, param);
-            r.setUserCount(count);
-        });
-        return roles;
+        return setClientCounts(roles, 0L, ResourceLevel.SITE.value(), clientRoleSearchDTO);
     }
 
     @Override
     public List<RoleDTO> listRolesWithUserCountOnOrganizationLevel(RoleAssignmentSearchDTO roleAssignmentSearchDTO, Long sourceId) {
         List<RoleDTO> roles = roleMapper.fuzzySearchRolesByName(roleAssignmentSearchDTO.getRoleName(), ResourceLevel.ORGANIZATION.value());
-        String param = ParamUtils.arrToStr(roleAssignmentSearchDTO.getParam());
-        roles.forEach(r -> {
-            Integer count = userMapper.selectUserCountFromMemberRoleByOptions(r.getId(),
-                    "user", sourceId, ResourceLevel.ORGANIZATION.value(), roleAssignmentSearchDTO, param);
-            r.setUserCount(count);
-        });
-        return roles;
+        return setUserCounts(roles, sourceId, ResourceLevel.ORGANIZATION.value(), roleAssignmentSearchDTO);
     }
 
     @Override
     public List<RoleDTO> listRolesWithClientCountOnOrganizationLevel(ClientRoleQuery clientRoleSearchDTO, Long sourceId) {
         List<RoleDTO> roles = roleMapper.fuzzySearchRolesByName(clientRoleSearchDTO.getRoleName(), ResourceLevel.ORGANIZATION.value());
-        String param = ParamUtils.arrToStr(clientRoleSearchDTO.getParam());
-        roles.forEach(r -> {
-            Integer count = clientMapper.selectClientCountFromMemberRoleByOptions(
-                    r.getId(), ResourceLevel.ORGANIZATION.value(), sourceId, clientRoleSearchDTO, param);
-            r.setUserCount(count);
-        });
-        return roles;
+        return setClientCounts(roles, sourceId, ResourceLevel.ORGANIZATION.value(), clientRoleSearchDTO);
     }
 
     @Override
     public List<RoleDTO> listRolesWithUserCountOnProjectLevel(RoleAssignmentSearchDTO roleAssignmentSearchDTO, Long sourceId) {
         List<RoleDTO> roles = roleMapper.fuzzySearchRolesByName(roleAssignmentSearchDTO.getRoleName(), ResourceLevel.PROJECT.value());
-        String param = ParamUtils.arrToStr(roleAssignmentSearchDTO.getParam());
-        roles.forEach(r -> {
-            Integer count = userMapper.selectUserCountFromMemberRoleByOptions(
-                    r.getId(), "user", sourceId, ResourceLevel.PROJECT.value(), roleAssignmentSearchDTO, param);
-            r.setUserCount(count);
-        });
-        return roles;
+        return setUserCounts(roles, sourceId, ResourceLevel.PROJECT.value(), roleAssignmentSearchDTO);
     }
 
     @Override
     public List<RoleDTO> listRolesWithClientCountOnProjectLevel(ClientRoleQuery clientRoleSearchDTO, Long sourceId) {
         List<RoleDTO> roles = roleMapper.fuzzySearchRolesByName(clientRoleSearchDTO.getRoleName(), ResourceLevel.PROJECT.value());
+        return setClientCounts(roles, sourceId, ResourceLevel.PROJECT.value(), clientRoleSearchDTO);
+    }
+
+    private List<RoleDTO> setUserCounts(List<RoleDTO> roles, Long sourceId, String sourceType,
+                                        RoleAssignmentSearchDTO roleAssignmentSearchDTO) {
+        String param = ParamUtils.arrToStr(roleAssignmentSearchDTO.getParam());
+        Map<Long, Integer> counts = roleMemberCountCache.get("user", sourceType, sourceId,
+                () -> countGroupByRole(roles, roleIds -> userMapper.selectUserCountsGroupByRole(
+                        roleIds, "user", sourceId, sourceType, roleAssignmentSearchDTO, param)),
+                roleAssignmentSearchDTO.getRoleName(), roleAssignmentSearchDTO.getLoginName(),
+                roleAssignmentSearchDTO.getRealName(), param);
+        roles.forEach(r -> r.setUserCount(counts.getOrDefault(r.getId(), 0)));
+        return roles;
+    }
+
+    private List<RoleDTO> setClientCounts(List<RoleDTO> roles, Long sourceId, String sourceType,
+                                          ClientRoleQuery clientRoleSearchDTO) {
         String param = ParamUtils.arrToStr(clientRoleSearchDTO.getParam());
-        roles.forEach(r -> {
-            Integer count = clientMapper.selectClientCountFromMemberRoleByOptions(
-                    r.getId(), ResourceLevel.PROJECT.value(), sourceId, clientRoleSearchDTO, param);
-            r.setUserCount(count);
-        });
+        Map<Long, Integer> counts = roleMemberCountCache.get("client", sourceType, sourceId,
+                () -> countGroupByRole(roles, roleIds -> clientMapper.selectClientCountsGroupByRole(
+                        roleIds, sourceType, sourceId, clientRoleSearchDTO, param)),
+                clientRoleSearchDTO.getRoleName(), clientRoleSearchDTO.getClientName(), param);
+        roles.forEach(r -> r.setUserCount(counts.getOrDefault(r.getId(), 0)));
         return roles;
     }
 
+    /**
+     * 一次分组查询所有角色的成员数，没有成员的角色不在结果中
+     */
+    private Map<Long, Integer> countGroupByRole(List<RoleDTO> roles, Function<Set<Long>, List<RoleDTO>> query) {
+        Map<Long, Integer> counts = new HashMap<>();
+        Set<Long> roleIds = roles.stream().map(RoleDTO::getId).collect(Collectors.toSet());
+        //oracle In-list上限为1000，这里List size要小于1000
+        CollectionUtils.subSet(roleIds, 999).forEach(set ->
+                query.apply(set).forEach(r -> counts.put(r.getId(), r.getUserCount())));
+        return counts;
+    }
+
     @Override
     public void check(RoleDTO role) {
         Boolean checkCode = !StringUtils.isEmpty(role.getCode());
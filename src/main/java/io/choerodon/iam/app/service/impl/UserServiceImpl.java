@@ -19,9 +19,13 @@ import io.choerodon.iam.api.validator.ResourceLevelValidator;
 import io.choerodon.iam.api.validator.UserPasswordValidator;
 import io.choerodon.iam.app.service.UserService;
 import io.choerodon.iam.infra.asserts.*;
+import io.choerodon.iam.infra.common.utils.CollectionUtils;
 import io.choerodon.iam.infra.common.utils.ImageUtils;
 import io.choerodon.iam.infra.common.utils.PageUtils;
 import io.choerodon.iam.infra.common.utils.ParamUtils;
+import io.choerodon.iam.infra.common.utils.cache.ProjectCategoryCache;
+import io.choerodon.iam.infra.common.utils.cache.UserLookupCache;
+import io.choerodon.iam.infra.common.utils.search.UserSearchIndex;
 import io.choerodon.iam.infra.dto.MemberRoleDTO;
 import io.choerodon.iam.infra.dto.OrganizationDTO;
 import io.choerodon.iam.infra.dto.ProjectDTO;
@@ -36,11 +40,15 @@ import io.choerodon.oauth.core.password.domain.BasePasswordPolicyDTO;
 import io.choerodon.oauth.core.password.domain.BaseUserDTO;
 import io.choerodon.oauth.core.password.mapper.BasePasswordPolicyMapper;
 import io.choerodon.oauth.core.password.record.PasswordRecord;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.BeanUtils;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.cloud.context.config.annotation.RefreshScope;
+import org.springframework.core.task.AsyncTaskExecutor;
 import org.springframework.scheduling.annotation.Async;
 import org.springframework.scheduling.annotation.AsyncResult;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
@@ -52,6 +60,7 @@ import org.springframework.web.multipart.MultipartFile;
 
 import java.time.LocalDate;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -72,12 +81,20 @@ public class UserServiceImpl implements UserService {
 
     private static final String USER_NOT_LOGIN_EXCEPTION = "error.user.not.login";
     private static final String USER_ID_NOT_EQUAL_EXCEPTION = "error.user.id.not.equals";
+    private static final String NOTICE_RESOLVE_METRIC = "iam.notice.resolve";
+    private static final String NOTICE_SEND_METRIC = "iam.notice.send";
+    private static final String NOTICE_FAILURE_METRIC = "iam.notice.failures";
     @Value("${choerodon.category.enabled:false}")
     private boolean enableCategory;
     @Value("${choerodon.devops.message:false}")
     private boolean devopsMessage;
     @Value("${spring.application.name:default}")
     private String serviceName;
+    /**
+     * 单次调用notify-service发送的最大用户数
+     */
+    @Value("${choerodon.notice.batch-size:1000}")
+    private int noticeBatchSize;
     private PasswordRecord passwordRecord;
     private FileFeignClient fileFeignClient;
     private BasePasswordPolicyMapper basePasswordPolicyMapper;
@@ -86,7 +103,7 @@ public class UserServiceImpl implements UserService {
     private SagaClient sagaClient;
     private MemberRoleMapper memberRoleMapper;
     private final ObjectMapper mapper = new ObjectMapper();
-    private ProjectMapCategoryMapper projectMapCategoryMapper;
+    private ProjectCategoryCache projectCategoryCache;
     private NotifyFeignClient notifyFeignClient;
     private UserMapper userMapper;
 
@@ -99,7 +116,10 @@ public class UserServiceImpl implements UserService {
     private OrganizationMapper organizationMapper;
     private ProjectAssertHelper projectAssertHelper;
     private RoleAssertHelper roleAssertHelper;
+    private AsyncTaskExecutor notifyBatchExecutor;
+    private UserSearchIndex userSearchIndex;
 
+    private UserLookupCache userLookupCache;
 
     public UserServiceImpl(PasswordRecord passwordRecord,
                            FileFeignClient fileFeignClient,
@@ -108,7 +128,7 @@ public class UserServiceImpl implements UserService {
                            UserPasswordValidator userPasswordValidator,
                            PasswordPolicyManager passwordPolicyManager,
                            MemberRoleMapper memberRoleMapper,
-                           ProjectMapCategoryMapper projectMapCategoryMapper,
+                           ProjectCategoryCache projectCategoryCache,
                            NotifyFeignClient notifyFeignClient,
                            UserMapper userMapper,
                            UserAssertHelper userAssertHelper,
@@ -116,7 +136,10 @@ public class UserServiceImpl implements UserService {
                            ProjectMapper projectMapper,
                            OrganizationMapper organizationMapper,
                            ProjectAssertHelper projectAssertHelper,
-                           RoleAssertHelper roleAssertHelper) {
+                           RoleAssertHelper roleAssertHelper,
+                           @Qualifier("notify-batch-executor") AsyncTaskExecutor notifyBatchExecutor,
+                           UserSearchIndex userSearchIndex,
+                           UserLookupCache userLookupCache) {
         this.passwordRecord = passwordRecord;
         this.fileFeignClient = fileFeignClient;
         this.sagaClient = sagaClient;
@@ -124,7 +147,7 @@ public class UserServiceImpl implements UserService {
         this.passwordPolicyManager = passwordPolicyManager;
         this.userPasswordValidator = userPasswordValidator;
         this.memberRoleMapper = memberRoleMapper;
-        this.projectMapCategoryMapper = projectMapCategoryMapper;
+        this.projectCategoryCache = projectCategoryCache;
         this.notifyFeignClient = notifyFeignClient;
         this.userMapper = userMapper;
         this.userAssertHelper = userAssertHelper;
@@ -133,6 +156,9 @@ public class UserServiceImpl implements UserService {
         this.organizationMapper = organizationMapper;
         this.projectAssertHelper = projectAssertHelper;
         this.roleAssertHelper = roleAssertHelper;
+        this.notifyBatchExecutor = notifyBatchExecutor;
+        this.userSearchIndex = userSearchIndex;
+        this.userLookupCache = userLookupCache;
     }
 
     @Override
@@ -195,17 +221,15 @@ public class UserServiceImpl implements UserService {
     }
 
     private List<ProjectDTO> mergeCategories(List<ProjectDTO> projectDTOS) {
-        List<ProjectMapCategorySimpleDTO> projectMapCategorySimpleDTOS = projectMapCategoryMapper.selectAllProjectMapCategories();
+        Set<Long> projectIds = projectDTOS.stream().map(ProjectDTO::getId).collect(Collectors.toSet());
+        Map<Long, List<String>> categoryMap = projectCategoryCache.getAll(projectIds);
         projectDTOS.forEach(p -> {
-            List<ProjectCategoryDTO> collectCategories = new ArrayList<>();
-            List<String> collect = projectMapCategorySimpleDTOS.stream().filter(c -> c.getProjectId().equals(p.getId())).map(c -> c.getCategory()).collect(Collectors.toList());
-            for (String collectOne : collect) {
+            List<ProjectCategoryDTO> categories = new ArrayList<>();
+            for (String name : categoryMap.getOrDefault(p.getId(), Collections.emptyList())) {
                 ProjectCategoryDTO projectCategoryDTO = new ProjectCategoryDTO();
-                projectCategoryDTO.setName(collectOne);
-                collectCategories.add(projectCategoryDTO);
+                projectCategoryDTO.setName(name);
+                categories.add(projectCategoryDTO);
             }
-            List<ProjectCategoryDTO> categories = new ArrayList<>();
-            categories.addAll(collectCategories);
             p.setCategories(categories);
         });
         return projectDTOS;
@@ -304,6 +328,7 @@ public class UserServiceImpl implements UserService {
             if (userMapper.updateByPrimaryKeySelective(dto) != 1) {
                 throw new CommonException("error.user.update");
             }
+            userLookupCache.invalidate(id);
             return photoUrl;
         } catch (Exception e) {
             LOGGER.warn("error happened when save photo {}", e.getMessage());
@@ -375,7 +400,12 @@ public class UserServiceImpl implements UserService {
         if (userMapper.updateByPrimaryKeySelective(userDTO) != 1) {
             throw new UpdateExcetion("error.user.update");
         }
-        return userMapper.selectByPrimaryKey(userDTO);
+        userLookupCache.invalidate(userDTO.getId());
+        UserDTO user = userMapper.selectByPrimaryKey(userDTO);
+        if (userDTO.getLoginName() != null || userDTO.getRealName() != null || userDTO.getEmail() != null) {
+            userSearchIndex.index(Collections.singletonList(user));
+        }
+        return user;
     }
 
     @Override
@@ -576,7 +606,7 @@ public class UserServiceImpl implements UserService {
         if (ObjectUtils.isEmpty(ids)) {
             return new ArrayList<>();
         } else {
-            return userMapper.listUsersByIds(ids, onlyEnabled);
+            return userLookupCache.listByIds(ids, Boolean.TRUE.equals(onlyEnabled));
         }
     }
 
@@ -585,7 +615,7 @@ public class UserServiceImpl implements UserService {
         if (ObjectUtils.isEmpty(emails)) {
             return new ArrayList<>();
         } else {
-            return userMapper.listUsersByEmails(emails);
+            return userLookupCache.listByEmails(emails);
         }
     }
 
@@ -594,7 +624,34 @@ public class UserServiceImpl implements UserService {
         if (ObjectUtils.isEmpty(loginNames)) {
             return new ArrayList<>();
         } else {
-            return userMapper.listUsersByLoginNames(loginNames, onlyEnabled);
+            return userLookupCache.listByLoginNames(loginNames, Boolean.TRUE.equals(onlyEnabled));
+        }
+    }
+
+    @Override
+    public List<SlimUserDTO> listSlimUsersByIds(Long[] ids, Boolean onlyEnabled) {
+        if (ObjectUtils.isEmpty(ids)) {
+            return new ArrayList<>();
+        } else {
+            return userLookupCache.listSlimByIds(ids, Boolean.TRUE.equals(onlyEnabled));
+        }
+    }
+
+    @Override
+    public List<SlimUserDTO> listSlimUsersByEmails(String[] emails) {
+        if (ObjectUtils.isEmpty(emails)) {
+            return new ArrayList<>();
+        } else {
+            return userLookupCache.listSlimByEmails(emails);
+        }
+    }
+
+    @Override
+    public List<SlimUserDTO> listSlimUsersByLoginNames(String[] loginNames, Boolean onlyEnabled) {
+        if (ObjectUtils.isEmpty(loginNames)) {
+            return new ArrayList<>();
+        } else {
+            return userLookupCache.listSlimByLoginNames(loginNames, Boolean.TRUE.equals(onlyEnabled));
         }
     }
 
@@ -656,6 +713,7 @@ public class UserServiceImpl implements UserService {
             throw new CommonException("error.user.create");
         }
         UserDTO userDTO = userMapper.selectByPrimaryKey(user);
+        userSearchIndex.index(Collections.singletonList(userDTO));
         Long userId = userDTO.getId();
         roles.forEach(r -> {
             MemberRoleDTO memberRole = new MemberRoleDTO();
@@ -878,39 +936,78 @@ public class UserServiceImpl implements UserService {
     @Override
     @Async("notify-executor")
     public Future<String> sendNotice(Long fromUserId, List<Long> userIds, String code, Map<String, Object> params, Long sourceId, boolean sendAll) {
-        LOGGER.info("ready : send Notice to {} users", userIds.size());
         if (userIds == null || userIds.isEmpty()) {
             return new AsyncResult<>("userId is null");
         }
+        LOGGER.info("ready : send Notice to {} users", userIds.size());
         long beginTime = System.currentTimeMillis();
-        NoticeSendDTO noticeSendDTO = new NoticeSendDTO();
-        noticeSendDTO.setCode(code);
+        Timer.Sample resolveSample = Timer.start(Metrics.globalRegistry);
+        List<NoticeSendDTO.User> users = resolveNoticeUsers(userIds, sendAll);
+        resolveSample.stop(Metrics.timer(NOTICE_RESOLVE_METRIC, "code", code));
         NoticeSendDTO.User currentUser = new NoticeSendDTO.User();
         currentUser.setId(fromUserId);
-        noticeSendDTO.setFromUser(currentUser);
-        noticeSendDTO.setParams(params);
-        noticeSendDTO.setSourceId(sourceId);
-        List<NoticeSendDTO.User> users = new LinkedList<>();
+        Timer sendTimer = Metrics.timer(NOTICE_SEND_METRIC, "code", code);
+        List<Future<?>> futures = new ArrayList<>();
+        LOGGER.info("start : send Notice to {} users", users.size());
+        CollectionUtils.subList(users, noticeBatchSize).forEach(targetUsers -> {
+            NoticeSendDTO noticeSendDTO = new NoticeSendDTO();
+            noticeSendDTO.setCode(code);
+            noticeSendDTO.setFromUser(currentUser);
+            noticeSendDTO.setParams(params);
+            noticeSendDTO.setSourceId(sourceId);
+            noticeSendDTO.setTargetUsers(targetUsers);
+            futures.add(notifyBatchExecutor.submit(() -> sendTimer.record(() -> notifyFeignClient.postNotice(noticeSendDTO))));
+        });
+        //等待所有批次发送完，失败的批次计数，再把第一个失败抛给调用方
+        Throwable failure = null;
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CommonException("error.notice.send.interrupted", e);
+            } catch (ExecutionException e) {
+                Metrics.counter(NOTICE_FAILURE_METRIC, "code", code).increment();
+                LOGGER.error("send notice batch failed, code: {}, exception: {}", code, e.getCause().getMessage());
+                if (failure == null) {
+                    failure = e.getCause();
+                }
+            }
+        }
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        }
+        if (failure != null) {
+            throw new CommonException("error.notice.send", failure);
+        }
+        LOGGER.info("end : send Notice to {} users", users.size());
+        return new AsyncResult<>((System.currentTimeMillis() - beginTime) / 1000 + "s");
+    }
+
+    /**
+     * 批量查询用户邮箱，用户已删除的不发送
+     * 如果是发送给所有人，我们无需查看是否有角色分配，全部发送，避免查表
+     */
+    private List<NoticeSendDTO.User> resolveNoticeUsers(List<Long> userIds, boolean sendAll) {
+        Map<Long, String> emails = new HashMap<>();
+        if (!sendAll) {
+            //oracle In-list上限为1000，这里List size要小于1000
+            CollectionUtils.subSet(new HashSet<>(userIds), 999).forEach(ids ->
+                    userMapper.listUsersByIds(ids.toArray(new Long[0]), false)
+                            .forEach(userDTO -> emails.put(userDTO.getId(), userDTO.getEmail())));
+        }
+        List<NoticeSendDTO.User> users = new ArrayList<>(userIds.size());
         userIds.forEach(id -> {
+            //有角色分配，但是角色已经删除
+            if (!sendAll && !emails.containsKey(id)) {
+                return;
+            }
             NoticeSendDTO.User user = new NoticeSendDTO.User();
             user.setId(id);
-            //如果是发送给所有人，我们无需查看是否有角色分配，全部发送，避免查表
-            if (!sendAll) {
-                UserDTO userDTO = userMapper.selectByPrimaryKey(id);
-                if (userDTO != null) {
-                    //有角色分配，但是角色已经删除
-                    user.setEmail(userDTO.getEmail());
-                    users.add(user);
-                }
-            } else {
-                users.add(user);
-            }
+            user.setEmail(emails.get(id));
+            users.add(user);
         });
-        noticeSendDTO.setTargetUsers(users);
-        LOGGER.info("start : send Notice to {} users", userIds.size());
-        notifyFeignClient.postNotice(noticeSendDTO);
-        LOGGER.info("end : send Notice to {} users", userIds.size());
-        return new AsyncResult<>((System.currentTimeMillis() - beginTime) / 1000 + "s");
+        return users;
     }
 
     @Override
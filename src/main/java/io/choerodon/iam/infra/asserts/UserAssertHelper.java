@@ -1,11 +1,17 @@
 package io.choerodon.iam.infra.asserts;
 
 import io.choerodon.core.exception.CommonException;
+import io.choerodon.iam.infra.common.utils.CollectionUtils;
 import io.choerodon.iam.infra.dto.UserDTO;
 import io.choerodon.iam.infra.exception.AlreadyExsitedException;
 import io.choerodon.iam.infra.mapper.UserMapper;
 import org.springframework.stereotype.Component;
 
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
 /**
  * 用户断言帮助类
  *
@@ -76,6 +82,23 @@ public class UserAssertHelper extends AssertHelper {
         return dto;
     }
 
+    /**
+     * 批量校验用户存在，返回用户id到用户的映射
+     */
+    public Map<Long, UserDTO> usersNotExisted(Collection<Long> ids) {
+        Map<Long, UserDTO> users = new HashMap<>();
+        //oracle In-list上限为1000，这里List size要小于1000
+        CollectionUtils.subSet(new HashSet<>(ids), 999).forEach(set ->
+                userMapper.listUsersByIds(set.toArray(new Long[0]), false)
+                        .forEach(user -> users.put(user.getId(), user)));
+        for (Long id : ids) {
+            if (!users.containsKey(id)) {
+                throw new CommonException("error.user.not.exist", id);
+            }
+        }
+        return users;
+    }
+
     public void loginNameExisted(String loginName) {
         loginNameExisted(loginName,"error.user.loginName.exist");
     }
@@ -0,0 +1,117 @@
+package io.choerodon.iam.infra.common.utils.cache;
+
+import io.choerodon.iam.infra.dto.ApplicationExplorationDTO;
+import io.choerodon.iam.infra.mapper.ApplicationExplorationMapper;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 组织下组合应用的父子关系图缓存
+ * <p>
+ * 以组织为单位懒加载为邻接表，读路径的后代、祖先查询在内存中完成。
+ * 组合关系的增删和成环校验使用事务内重新加载的图，不依赖缓存；变更后立即失效并在事务提交后再次失效。
+ * 多实例部署时读路径依赖过期时间收敛
+ */
+@Component
+public class ApplicationCombinationCache {
+
+    private final ApplicationExplorationMapper applicationExplorationMapper;
+
+    private final LocalCache<Long, Graph> graphs;
+
+    public ApplicationCombinationCache(ApplicationExplorationMapper applicationExplorationMapper,
+                                       @Value("${choerodon.cache.application-combination.max-size:1000}") int maxSize,
+                                       @Value("${choerodon.cache.application-combination.expire-seconds:300}") long expireSeconds) {
+        this.applicationExplorationMapper = applicationExplorationMapper;
+        this.graphs = new LocalCache<>(maxSize, expireSeconds * 1000);
+    }
+
+    /**
+     * 查询组织下的组合关系图，未命中时从iam_application_exploration加载
+     */
+    public Graph get(Long organizationId) {
+        return graphs.get(organizationId, this::load);
+    }
+
+    /**
+     * 绕过缓存从数据库加载组织下的组合关系图，写路径在事务内使用，避免基于过期的图计算变更
+     */
+    public Graph loadFresh(Long organizationId) {
+        return load(organizationId);
+    }
+
+    /**
+     * 组织下的组合关系变更，立即失效并在事务提交后再次失效，丢弃提交前加载的旧图
+     */
+    public void invalidate(Long organizationId) {
+        LocalCache.invalidateOnCommit(() -> graphs.invalidate(organizationId));
+    }
+
+    private Graph load(Long organizationId) {
+        Graph graph = new Graph();
+        List<ApplicationExplorationDTO> edges = applicationExplorationMapper.selectCombinationEdges(organizationId);
+        edges.forEach(edge -> graph.link(edge.getParentId(), edge.getApplicationId()));
+        return graph;
+    }
+
+    /**
+     * 组合应用关系的邻接表，发布到缓存后只读
+     */
+    public static final class Graph {
+
+        private final Map<Long, Set<Long>> children = new HashMap<>();
+
+        private final Map<Long, Set<Long>> parents = new HashMap<>();
+
+        /**
+         * 直接子应用
+         */
+        public Set<Long> children(Long id) {
+            return Collections.unmodifiableSet(children.getOrDefault(id, Collections.emptySet()));
+        }
+
+        /**
+         * 所有后代，不包含自己
+         */
+        public Set<Long> descendants(Long id) {
+            return traverse(id, children);
+        }
+
+        /**
+         * 所有祖先，包含自己
+         */
+        public Set<Long> ancestors(Long id) {
+            Set<Long> ancestors = traverse(id, parents);
+            ancestors.add(id);
+            return ancestors;
+        }
+
+        private Set<Long> traverse(Long id, Map<Long, Set<Long>> adjacency) {
+            Set<Long> visited = new LinkedHashSet<>();
+            Deque<Long> stack = new ArrayDeque<>();
+            stack.push(id);
+            while (!stack.isEmpty()) {
+                for (Long next : adjacency.getOrDefault(stack.pop(), Collections.emptySet())) {
+                    if (visited.add(next)) {
+                        stack.push(next);
+                    }
+                }
+            }
+            return visited;
+        }
+
+        private void link(Long parentId, Long childId) {
+            children.computeIfAbsent(parentId, k -> new LinkedHashSet<>()).add(childId);
+            parents.computeIfAbsent(childId, k -> new LinkedHashSet<>()).add(parentId);
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package io.choerodon.iam.infra.common.utils.cache;
+
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * 进程内缓存，容量有上限（LRU淘汰）且每个条目有过期时间
+ * <p>
+ * 加载过程在锁外执行，加载期间若发生过失效操作，则加载结果只返回不写入缓存，避免把旧数据写回
+ *
+ * @param <K> key
+ * @param <V> value
+ */
+public class LocalCache<K, V> {
+
+    private final int maxSize;
+
+    private final long ttlMillis;
+
+    private final Map<K, Entry<V>> entries;
+
+    private final AtomicLong hitCount = new AtomicLong();
+
+    private final AtomicLong missCount = new AtomicLong();
+
+    /**
+     * 每次失效操作递增，用于丢弃失效前开始的加载结果
+     */
+    private long generation;
+
+    /**
+     * @param maxSize   最大条目数，小于1时不缓存
+     * @param ttlMillis 条目存活时间，毫秒
+     */
+    public LocalCache(int maxSize, long ttlMillis) {
+        this.maxSize = maxSize;
+        this.ttlMillis = ttlMillis;
+        this.entries = new LinkedHashMap<K, Entry<V>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+                return size() > LocalCache.this.maxSize;
+            }
+        };
+    }
+
+    public boolean isEnabled() {
+        return maxSize > 0 && ttlMillis > 0;
+    }
+
+    /**
+     * 查询缓存，不存在或已过期返回null
+     */
+    public synchronized V getIfPresent(K key) {
+        Entry<V> entry = entries.get(key);
+        if (entry == null) {
+            missCount.incrementAndGet();
+            return null;
+        }
+        if (entry.isExpired()) {
+            entries.remove(key);
+            missCount.incrementAndGet();
+            return null;
+        }
+        hitCount.incrementAndGet();
+        return entry.value;
+    }
+
+    /**
+     * 查询缓存，未命中时调用loader加载并写入缓存
+     */
+    public V get(K key, Function<? super K, ? extends V> loader) {
+        if (!isEnabled()) {
+            return loader.apply(key);
+        }
+        long loadGeneration;
+        synchronized (this) {
+            V value = getIfPresent(key);
+            if (value != null) {
+                return value;
+            }
+            loadGeneration = generation;
+        }
+        V value = loader.apply(key);
+        putIfGeneration(key, value, loadGeneration);
+        return value;
+    }
+
+    public synchronized void put(K key, V value) {
+        putIfGeneration(key, value, generation);
+    }
+
+    /**
+     * 获取当前的失效代数，配合{@link #putIfGeneration}使用，用于批量加载场景
+     */
+    public synchronized long generation() {
+        return generation;
+    }
+
+    /**
+     * 仅当加载开始后没有发生失效操作时写入缓存
+     */
+    public synchronized void putIfGeneration(K key, V value, long loadGeneration) {
+        if (!isEnabled() || value == null || loadGeneration != generation) {
+            return;
+        }
+        entries.put(key, new Entry<>(value, System.currentTimeMillis() + ttlMillis));
+    }
+
+    public synchronized void invalidate(K key) {
+        generation++;
+        entries.remove(key);
+    }
+
+    public synchronized void invalidateIf(Predicate<? super K> predicate) {
+        generation++;
+        Iterator<K> iterator = entries.keySet().iterator();
+        while (iterator.hasNext()) {
+            if (predicate.test(iterator.next())) {
+                iterator.remove();
+            }
+        }
+    }
+
+    public synchronized void invalidateAll() {
+        generation++;
+        entries.clear();
+    }
+
+    /**
+     * 立即执行失效操作，若当前处于事务中，事务提交后再执行一次
+     * 防止事务提交前有并发请求把未提交前的旧数据重新加载进缓存
+     */
+    public static void invalidateOnCommit(Runnable invalidation) {
+        invalidation.run();
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    invalidation.run();
+                }
+            });
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    private static final class Entry<V> {
+        private final V value;
+        private final long expireAt;
+
+        private Entry(V value, long expireAt) {
+            this.value = value;
+            this.expireAt = expireAt;
+        }
+
+        private boolean isExpired() {
+            return System.currentTimeMillis() > expireAt;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package io.choerodon.iam.infra.common.utils.cache;
+
+import io.choerodon.base.enums.ResourceType;
+import io.choerodon.iam.infra.dto.MenuDTO;
+import io.choerodon.iam.infra.mapper.MenuMapper;
+import io.choerodon.mybatis.util.OGNL;
+import org.springframework.beans.BeanUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Supplier;
+
+/**
+ * 菜单缓存
+ * <p>
+ * 按(语言, 层级)缓存该层级的全部菜单快照，按(语言, code)缓存根菜单，菜单增删改和菜单配置保存时全部失效；
+ * 另按(层级, sourceId)缓存项目/组织的类别，开源版本的项目单类别单独缓存，项目群关系变更时两者都失效。
+ * 快照中的对象是共享的，使用方通过{@link #copy}拿到副本后再组装树
+ */
+@Component
+public class MenuCache {
+
+    private final MenuMapper menuMapper;
+
+    private final LocalCache<Key, List<MenuDTO>> levelMenus;
+
+    private final LocalCache<Key, MenuDTO> topMenus;
+
+    private final LocalCache<Key, List<String>> categories;
+
+    private final LocalCache<Long, List<String>> projectCategories;
+
+    public MenuCache(MenuMapper menuMapper,
+                     @Value("${choerodon.cache.menu.max-size:100}") int maxSize,
+                     @Value("${choerodon.cache.menu.expire-seconds:300}") long expireSeconds,
+                     @Value("${choerodon.cache.menu-category.max-size:10000}") int categoryMaxSize,
+                     @Value("${choerodon.cache.menu-category.expire-seconds:60}") long categoryExpireSeconds) {
+        this.menuMapper = menuMapper;
+        this.levelMenus = new LocalCache<>(maxSize, expireSeconds * 1000);
+        this.topMenus = new LocalCache<>(maxSize, expireSeconds * 1000);
+        this.categories = new LocalCache<>(categoryMaxSize, categoryExpireSeconds * 1000);
+        this.projectCategories = new LocalCache<>(categoryMaxSize, categoryExpireSeconds * 1000);
+    }
+
+    /**
+     * 层级下的全部菜单，带路由和页面权限类型，返回的对象不可修改
+     */
+    public List<MenuDTO> levelMenus(String level) {
+        return levelMenus.get(new Key(OGNL.language(), level), k ->
+                Collections.unmodifiableList(new ArrayList<>(menuMapper.selectByLevelWithPermissionType(level))));
+    }
+
+    /**
+     * 根菜单的副本，不存在返回null
+     */
+    public MenuDTO topMenu(String code) {
+        MenuDTO menu = topMenus.get(new Key(OGNL.language(), code), k -> {
+            MenuDTO dto = new MenuDTO();
+            dto.setCode(code);
+            return menuMapper.selectOne(dto);
+        });
+        return menu == null ? null : copy(menu);
+    }
+
+    /**
+     * 项目在FD_PROJECT中的类别，开源版本使用，项目不存在时为空列表
+     */
+    public List<String> projectCategory(Long projectId, Supplier<List<String>> loader) {
+        return projectCategories.get(projectId, k -> Collections.unmodifiableList(loader.get()));
+    }
+
+    /**
+     * 项目/组织的类别，非开源版本使用
+     */
+    public List<String> categories(String level, Long sourceId, Supplier<List<String>> loader) {
+        return categories.get(new Key(level, sourceId), k -> Collections.unmodifiableList(loader.get()));
+    }
+
+    /**
+     * 菜单变更
+     */
+    public void invalidateMenus() {
+        LocalCache.invalidateOnCommit(() -> {
+            levelMenus.invalidateAll();
+            topMenus.invalidateAll();
+        });
+    }
+
+    /**
+     * 项目/组织的类别变更
+     */
+    public void invalidateCategories(String level, Long sourceId) {
+        LocalCache.invalidateOnCommit(() -> {
+            categories.invalidate(new Key(level, sourceId));
+            if (ResourceType.isProject(level)) {
+                projectCategories.invalidate(sourceId);
+            }
+        });
+    }
+
+    public static MenuDTO copy(MenuDTO menu) {
+        MenuDTO dto = new MenuDTO();
+        BeanUtils.copyProperties(menu, dto);
+        dto.setSubMenus(null);
+        return dto;
+    }
+
+    private static final class Key {
+        private final Object first;
+        private final Object second;
+
+        private Key(Object first, Object second) {
+            this.first = first;
+            this.second = second;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Key key = (Key) o;
+            return Objects.equals(first, key.first) && Objects.equals(second, key.second);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(first, second);
+        }
+    }
+}
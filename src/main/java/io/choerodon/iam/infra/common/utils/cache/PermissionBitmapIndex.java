@@ -0,0 +1,165 @@
+package io.choerodon.iam.infra.common.utils.cache;
+
+import io.choerodon.iam.infra.dto.PermissionDTO;
+import io.choerodon.iam.infra.dto.RolePermissionDTO;
+import io.choerodon.iam.infra.mapper.PermissionMapper;
+import io.choerodon.iam.infra.mapper.RolePermissionMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+
+/**
+ * 权限位图索引
+ * <p>
+ * 为每个权限code分配一个连续的整数下标，每个已启用角色对应一个权限位图，
+ * 用户在某个层级某个资源下的有效权限 = (所拥有角色位图的并集 & 该层级权限位图) | 公共/登录可访问权限位图，
+ * 批量校验权限只需要按code取下标查位图，不再需要关联查询。
+ * 本实例的变更在事务提交后重建；其他实例的角色、权限变更只依赖快照过期时间刷新
+ */
+@Component
+public class PermissionBitmapIndex {
+
+    private static final Logger logger = LoggerFactory.getLogger(PermissionBitmapIndex.class);
+
+    private PermissionMapper permissionMapper;
+
+    private RolePermissionMapper rolePermissionMapper;
+
+    private final long ttlMillis;
+
+    private volatile Snapshot snapshot;
+
+    public PermissionBitmapIndex(PermissionMapper permissionMapper,
+                                 RolePermissionMapper rolePermissionMapper,
+                                 @Value("${choerodon.cache.permission.index-expire-seconds:300}") long expireSeconds) {
+        this.permissionMapper = permissionMapper;
+        this.rolePermissionMapper = rolePermissionMapper;
+        this.ttlMillis = expireSeconds * 1000;
+    }
+
+    /**
+     * 获取当前索引快照，不存在或已过期时从数据库加载
+     */
+    public Snapshot current() {
+        Snapshot current = snapshot;
+        if (current != null && !current.isExpired(ttlMillis)) {
+            return current;
+        }
+        synchronized (this) {
+            if (snapshot == null || snapshot.isExpired(ttlMillis)) {
+                snapshot = load();
+            }
+            return snapshot;
+        }
+    }
+
+    /**
+     * 权限、角色权限或角色启停用变更后调用，下次访问时重建
+     */
+    public void invalidate() {
+        LocalCache.invalidateOnCommit(() -> {
+            synchronized (this) {
+                snapshot = null;
+            }
+        });
+    }
+
+    private Snapshot load() {
+        long begin = System.currentTimeMillis();
+        List<PermissionDTO> permissions = permissionMapper.selectIndexItems();
+        Map<String, Integer> codeIndex = new HashMap<>(permissions.size() * 4 / 3 + 1);
+        Map<Long, Integer> idIndex = new HashMap<>(permissions.size() * 4 / 3 + 1);
+        Map<String, BitSet> levelBitmaps = new HashMap<>();
+        BitSet publicBitmap = new BitSet(permissions.size());
+        int index = 0;
+        for (PermissionDTO permission : permissions) {
+            codeIndex.put(permission.getCode(), index);
+            idIndex.put(permission.getId(), index);
+            if (permission.getResourceLevel() != null) {
+                levelBitmaps.computeIfAbsent(permission.getResourceLevel(), k -> new BitSet(permissions.size())).set(index);
+            }
+            if (Boolean.TRUE.equals(permission.getPublicAccess()) || Boolean.TRUE.equals(permission.getLoginAccess())) {
+                publicBitmap.set(index);
+            }
+            index++;
+        }
+        Map<Long, BitSet> roleBitmaps = new HashMap<>();
+        for (RolePermissionDTO rolePermission : rolePermissionMapper.selectOfEnabledRoles()) {
+            Integer permissionIndex = idIndex.get(rolePermission.getPermissionId());
+            if (permissionIndex != null) {
+                roleBitmaps.computeIfAbsent(rolePermission.getRoleId(), k -> new BitSet(permissions.size())).set(permissionIndex);
+            }
+        }
+        logger.info("load permission bitmap index, permissions: {}, roles: {}, {} millisecond",
+                codeIndex.size(), roleBitmaps.size(), System.currentTimeMillis() - begin);
+        return new Snapshot(codeIndex, levelBitmaps, publicBitmap, roleBitmaps);
+    }
+
+    /**
+     * 不可变的索引快照，位图下标只在同一个快照内有意义
+     */
+    public static final class Snapshot {
+
+        private final Map<String, Integer> codeIndex;
+
+        private final Map<String, BitSet> levelBitmaps;
+
+        private final BitSet publicBitmap;
+
+        private final Map<Long, BitSet> roleBitmaps;
+
+        private final long loadedAt = System.currentTimeMillis();
+
+        private Snapshot(Map<String, Integer> codeIndex, Map<String, BitSet> levelBitmaps,
+                         BitSet publicBitmap, Map<Long, BitSet> roleBitmaps) {
+            this.codeIndex = codeIndex;
+            this.levelBitmaps = levelBitmaps;
+            this.publicBitmap = publicBitmap;
+            this.roleBitmaps = roleBitmaps;
+        }
+
+        private boolean isExpired(long ttlMillis) {
+            return System.currentTimeMillis() - loadedAt >= ttlMillis;
+        }
+
+        public boolean codeExisted(String code) {
+            return codeIndex.containsKey(code);
+        }
+
+        /**
+         * 计算拥有这些角色的成员在某个层级下的有效权限位图，已包含公共/登录可访问权限
+         */
+        public BitSet effectiveBitmap(String level, Collection<Long> roleIds) {
+            BitSet bitmap = new BitSet();
+            for (Long roleId : roleIds) {
+                BitSet roleBitmap = roleBitmaps.get(roleId);
+                if (roleBitmap != null) {
+                    bitmap.or(roleBitmap);
+                }
+            }
+            BitSet levelBitmap = levelBitmaps.get(level);
+            if (levelBitmap == null) {
+                bitmap.clear();
+            } else {
+                bitmap.and(levelBitmap);
+            }
+            bitmap.or(publicBitmap);
+            return bitmap;
+        }
+
+        /**
+         * 只包含公共/登录可访问权限的位图
+         */
+        public BitSet publicBitmap() {
+            return (BitSet) publicBitmap.clone();
+        }
+
+        public boolean contains(BitSet bitmap, String code) {
+            Integer index = codeIndex.get(code);
+            return index != null && bitmap.get(index);
+        }
+    }
+}
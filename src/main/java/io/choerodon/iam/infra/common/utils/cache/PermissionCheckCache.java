@@ -0,0 +1,148 @@
+package io.choerodon.iam.infra.common.utils.cache;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * 权限校验缓存
+ * <p>
+ * 按(userId, sourceType, sourceId)缓存用户的有效权限位图，位图基于{@link PermissionBitmapIndex}的快照计算，
+ * 组织/项目被停用时缓存为不通过任何权限
+ */
+@Component
+public class PermissionCheckCache {
+
+    private final PermissionBitmapIndex permissionBitmapIndex;
+
+    private final LocalCache<Key, GrantedPermissions> grantedPermissions;
+
+    public PermissionCheckCache(PermissionBitmapIndex permissionBitmapIndex,
+                                @Value("${choerodon.cache.permission.max-size:10000}") int maxSize,
+                                @Value("${choerodon.cache.permission.expire-seconds:300}") long expireSeconds) {
+        this.permissionBitmapIndex = permissionBitmapIndex;
+        this.grantedPermissions = new LocalCache<>(maxSize, expireSeconds * 1000);
+    }
+
+    public PermissionBitmapIndex.Snapshot snapshot() {
+        return permissionBitmapIndex.current();
+    }
+
+    /**
+     * 查询缓存的有效权限，未命中或缓存基于其他快照计算时返回null
+     */
+    public GrantedPermissions getIfPresent(PermissionBitmapIndex.Snapshot snapshot,
+                                           Long userId, String sourceType, Long sourceId) {
+        GrantedPermissions granted = grantedPermissions.getIfPresent(new Key(userId, sourceType, sourceId));
+        if (granted == null || granted.snapshot != snapshot) {
+            return null;
+        }
+        return granted;
+    }
+
+    /**
+     * 批量加载前获取，写入时传回，加载期间发生过失效则不写入
+     */
+    public long generation() {
+        return grantedPermissions.generation();
+    }
+
+    public void put(Long userId, String sourceType, Long sourceId, GrantedPermissions granted, long generation) {
+        grantedPermissions.putIfGeneration(new Key(userId, sourceType, sourceId), granted, generation);
+    }
+
+    /**
+     * 用户的角色分配变更
+     */
+    public void invalidateUser(Long userId) {
+        LocalCache.invalidateOnCommit(() -> grantedPermissions.invalidateIf(k -> Objects.equals(k.userId, userId)));
+    }
+
+    /**
+     * 一批用户的角色分配变更，只遍历一次缓存
+     */
+    public void invalidateUsers(Collection<Long> userIds) {
+        Set<Long> ids = new HashSet<>(userIds);
+        LocalCache.invalidateOnCommit(() -> grantedPermissions.invalidateIf(k -> ids.contains(k.userId)));
+    }
+
+    /**
+     * 组织/项目启停用
+     */
+    public void invalidateSource(String sourceType, Long sourceId) {
+        LocalCache.invalidateOnCommit(() -> grantedPermissions.invalidateIf(k ->
+                Objects.equals(k.sourceType, sourceType) && Objects.equals(k.sourceId, sourceId)));
+    }
+
+    /**
+     * 角色权限、角色启停用或权限本身变更，同时重建权限位图索引
+     */
+    public void invalidateAll() {
+        permissionBitmapIndex.invalidate();
+        LocalCache.invalidateOnCommit(grantedPermissions::invalidateAll);
+    }
+
+    /**
+     * 用户在某个资源下的有效权限
+     */
+    public static final class GrantedPermissions {
+        private final PermissionBitmapIndex.Snapshot snapshot;
+        private final BitSet bitmap;
+
+        private GrantedPermissions(PermissionBitmapIndex.Snapshot snapshot, BitSet bitmap) {
+            this.snapshot = snapshot;
+            this.bitmap = bitmap;
+        }
+
+        public static GrantedPermissions of(PermissionBitmapIndex.Snapshot snapshot, BitSet bitmap) {
+            return new GrantedPermissions(snapshot, bitmap);
+        }
+
+        /**
+         * 资源被停用，不通过任何权限
+         */
+        public static GrantedPermissions disabled(PermissionBitmapIndex.Snapshot snapshot) {
+            return new GrantedPermissions(snapshot, null);
+        }
+
+        public boolean contains(String code) {
+            return bitmap != null && snapshot.contains(bitmap, code);
+        }
+    }
+
+    private static final class Key {
+        private final Long userId;
+        private final String sourceType;
+        private final Long sourceId;
+
+        private Key(Long userId, String sourceType, Long sourceId) {
+            this.userId = userId;
+            this.sourceType = sourceType;
+            this.sourceId = sourceId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Key key = (Key) o;
+            return Objects.equals(userId, key.userId)
+                    && Objects.equals(sourceType, key.sourceType)
+                    && Objects.equals(sourceId, key.sourceId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(userId, sourceType, sourceId);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package io.choerodon.iam.infra.common.utils.cache;
+
+import io.choerodon.iam.api.dto.ProjectMapCategorySimpleDTO;
+import io.choerodon.iam.infra.common.utils.CollectionUtils;
+import io.choerodon.iam.infra.mapper.ProjectMapCategoryMapper;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 项目类别名称缓存
+ * <p>
+ * 按项目id缓存项目关联的类别名称，未命中的项目按id批量加载，项目群关系增删类别时失效。
+ * 类别本身的名称变更只依赖过期时间刷新
+ */
+@Component
+public class ProjectCategoryCache {
+
+    /**
+     * oracle In-list上限为1000，这里List size要小于1000
+     */
+    private static final int BATCH_SIZE = 999;
+
+    private final ProjectMapCategoryMapper projectMapCategoryMapper;
+
+    private final LocalCache<Long, List<String>> categories;
+
+    public ProjectCategoryCache(ProjectMapCategoryMapper projectMapCategoryMapper,
+                                @Value("${choerodon.cache.project-category.max-size:50000}") int maxSize,
+                                @Value("${choerodon.cache.project-category.expire-seconds:300}") long expireSeconds) {
+        this.projectMapCategoryMapper = projectMapCategoryMapper;
+        this.categories = new LocalCache<>(maxSize, expireSeconds * 1000);
+    }
+
+    /**
+     * 查询项目id到类别名称的映射，项目没有关联类别时类别名称为null
+     */
+    public Map<Long, List<String>> getAll(Collection<Long> projectIds) {
+        Map<Long, List<String>> result = new HashMap<>(projectIds.size());
+        Set<Long> missed = new HashSet<>();
+        for (Long projectId : projectIds) {
+            List<String> names = categories.getIfPresent(projectId);
+            if (names == null) {
+                missed.add(projectId);
+            } else {
+                result.put(projectId, names);
+            }
+        }
+        if (missed.isEmpty()) {
+            return result;
+        }
+        long generation = categories.generation();
+        Map<Long, List<String>> loaded = new HashMap<>(missed.size());
+        for (Set<Long> ids : CollectionUtils.subSet(missed, BATCH_SIZE)) {
+            for (ProjectMapCategorySimpleDTO dto : projectMapCategoryMapper.selectProjectMapCategoriesByProjectIds(ids)) {
+                loaded.computeIfAbsent(dto.getProjectId(), k -> new ArrayList<>()).add(dto.getCategory());
+            }
+        }
+        loaded.forEach((projectId, names) -> {
+            List<String> value = Collections.unmodifiableList(names);
+            categories.putIfGeneration(projectId, value, generation);
+            result.put(projectId, value);
+        });
+        return result;
+    }
+
+    /**
+     * 项目关联的类别变更
+     */
+    public void invalidate(Long projectId) {
+        LocalCache.invalidateOnCommit(() -> categories.invalidate(projectId));
+    }
+}
@@ -0,0 +1,78 @@
+package io.choerodon.iam.infra.common.utils.cache;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Supplier;
+
+/**
+ * 角色分配页面的角色成员数缓存
+ * <p>
+ * 按(成员类型, 层级, sourceId, 查询条件)缓存每个角色的成员数，该资源下的角色分配变更时失效，
+ * 默认不开启，开启时建议使用较短的过期时间，用户或客户端信息变更只依赖过期时间刷新
+ */
+@Component
+public class RoleMemberCountCache {
+
+    private final LocalCache<Key, Map<Long, Integer>> counts;
+
+    public RoleMemberCountCache(@Value("${choerodon.cache.role-member-count.max-size:1000}") int maxSize,
+                                @Value("${choerodon.cache.role-member-count.expire-seconds:0}") long expireSeconds) {
+        this.counts = new LocalCache<>(maxSize, expireSeconds * 1000);
+    }
+
+    /**
+     * 查询角色id到成员数的映射，未命中时调用loader加载
+     *
+     * @param conditions 影响计数结果的查询条件
+     */
+    public Map<Long, Integer> get(String memberType, String sourceType, Long sourceId,
+                                  Supplier<Map<Long, Integer>> loader, Object... conditions) {
+        return counts.get(new Key(memberType, sourceType, sourceId, conditions), k -> loader.get());
+    }
+
+    /**
+     * 资源下的角色分配变更
+     */
+    public void invalidateSource(String sourceType, Long sourceId) {
+        LocalCache.invalidateOnCommit(() -> counts.invalidateIf(k ->
+                Objects.equals(k.sourceType, sourceType) && Objects.equals(k.sourceId, sourceId)));
+    }
+
+    private static final class Key {
+        private final String memberType;
+        private final String sourceType;
+        private final Long sourceId;
+        private final Object[] conditions;
+
+        private Key(String memberType, String sourceType, Long sourceId, Object[] conditions) {
+            this.memberType = memberType;
+            this.sourceType = sourceType;
+            this.sourceId = sourceId;
+            this.conditions = conditions;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Key key = (Key) o;
+            return Objects.equals(memberType, key.memberType)
+                    && Objects.equals(sourceType, key.sourceType)
+                    && Objects.equals(sourceId, key.sourceId)
+                    && Arrays.equals(conditions, key.conditions);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(memberType, sourceType, sourceId, Arrays.hashCode(conditions));
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package io.choerodon.iam.infra.common.utils.cache;
+
+import io.choerodon.iam.infra.common.utils.CollectionUtils;
+import io.choerodon.iam.infra.dto.AccessTokenDTO;
+import io.choerodon.iam.infra.mapper.AccessTokenMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.oauth2.common.OAuth2AccessToken;
+import org.springframework.security.oauth2.common.util.SerializationUtils;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * access token反序列化后的元数据缓存
+ * <p>
+ * token_id由token值摘要得到，同一token_id对应的Token对象不会变化，缓存无需失效，只受容量和过期时间限制。
+ * 只有未命中的token才读取并反序列化Token对象
+ */
+@Component
+public class TokenMetadataCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TokenMetadataCache.class);
+
+    /**
+     * oracle In-list上限为1000，这里List size要小于1000
+     */
+    private static final int BATCH_SIZE = 999;
+
+    private final AccessTokenMapper accessTokenMapper;
+
+    private final LocalCache<String, Metadata> metadata;
+
+    public TokenMetadataCache(AccessTokenMapper accessTokenMapper,
+                              @Value("${choerodon.cache.token-metadata.max-size:50000}") int maxSize,
+                              @Value("${choerodon.cache.token-metadata.expire-seconds:86400}") long expireSeconds) {
+        this.accessTokenMapper = accessTokenMapper;
+        this.metadata = new LocalCache<>(maxSize, expireSeconds * 1000);
+    }
+
+    /**
+     * 查询token_id对应的元数据，已被删除或无法反序列化的token不返回
+     */
+    public Map<String, Metadata> getAll(Collection<String> tokenIds) {
+        Map<String, Metadata> result = new HashMap<>(tokenIds.size());
+        Set<String> missed = new LinkedHashSet<>();
+        for (String tokenId : tokenIds) {
+            Metadata value = metadata.getIfPresent(tokenId);
+            if (value == null) {
+                missed.add(tokenId);
+            } else {
+                result.put(tokenId, value);
+            }
+        }
+        for (Set<String> ids : CollectionUtils.subSet(missed, BATCH_SIZE)) {
+            for (AccessTokenDTO dto : accessTokenMapper.selectTokenList(new ArrayList<>(ids))) {
+                Metadata value = decode(dto);
+                if (value != null) {
+                    metadata.put(dto.getTokenId(), value);
+                    result.put(dto.getTokenId(), value);
+                }
+            }
+        }
+        return result;
+    }
+
+    private static Metadata decode(AccessTokenDTO dto) {
+        try {
+            OAuth2AccessToken token = SerializationUtils.deserialize(dto.getToken());
+            Object createTime = token.getAdditionalInformation().get("createTime");
+            return new Metadata(token.getValue(), token.getExpiration(),
+                    createTime instanceof Date ? (Date) createTime : null);
+        } catch (RuntimeException e) {
+            LOGGER.warn("deserialize token {} failed: {}", dto.getTokenId(), e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Token对象中列表页需要的字段
+     */
+    public static final class Metadata {
+
+        private final String value;
+
+        private final Date expiration;
+
+        private final Date createTime;
+
+        private Metadata(String value, Date expiration, Date createTime) {
+            this.value = value;
+            this.expiration = expiration;
+            this.createTime = createTime;
+        }
+
+        public String getValue() {
+            return value;
+        }
+
+        public Date getExpiration() {
+            return expiration;
+        }
+
+        public Date getCreateTime() {
+            return createTime;
+        }
+
+        public boolean isExpired() {
+            return expiration != null && expiration.before(new Date());
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package io.choerodon.iam.infra.common.utils.cache;
+
+import io.choerodon.iam.api.dto.SlimUserDTO;
+import io.choerodon.iam.infra.common.utils.CollectionUtils;
+import io.choerodon.iam.infra.dto.UserDTO;
+import io.choerodon.iam.infra.mapper.UserMapper;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+import org.springframework.beans.BeanUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * 批量查询用户接口的用户缓存
+ * <p>
+ * 按id缓存用户，登录名和邮箱作为二级索引只记录对应的用户id，命中索引后还要校验缓存中用户的登录名或邮箱与查询值一致。
+ * 批量查询时命中的用户直接返回，未命中的按批从数据库加载后写入缓存。不缓存不存在的用户，新增用户无需失效。
+ * 用户的增删改在事务提交后按id失效，其他服务直接修改iam_user(如oauth锁定用户)只依赖过期时间刷新。
+ * 完整用户和精简用户分别缓存，命中和未命中的次数以iam.user.lookup.cache.requests指标暴露，用于评估缓存大小
+ */
+@Component
+public class UserLookupCache {
+
+    /**
+     * oracle In-list上限为1000，这里List size要小于1000
+     */
+    private static final int BATCH_SIZE = 999;
+
+    private static final String METRIC = "iam.user.lookup.cache";
+
+    private final UserMapper userMapper;
+
+    private final View<UserDTO> users;
+
+    private final View<SlimUserDTO> slimUsers;
+
+    public UserLookupCache(UserMapper userMapper,
+                           @Value("${choerodon.cache.user-lookup.max-size:10000}") int maxSize,
+                           @Value("${choerodon.cache.user-lookup.expire-seconds:60}") long expireSeconds) {
+        this.userMapper = userMapper;
+        this.users = new View<>("full", maxSize, expireSeconds * 1000, UserDTO::getId, UserDTO::getLoginName,
+                UserDTO::getEmail, UserDTO::getEnabled, user -> copy(user, UserDTO::new));
+        this.slimUsers = new View<>("slim", maxSize, expireSeconds * 1000, SlimUserDTO::getId, SlimUserDTO::getLoginName,
+                SlimUserDTO::getEmail, SlimUserDTO::getEnabled, user -> copy(user, SlimUserDTO::new));
+    }
+
+    public List<UserDTO> listByIds(Long[] ids, boolean onlyEnabled) {
+        return users.lookup(ids, users::byId,
+                set -> userMapper.listUsersByIds(set.toArray(new Long[0]), false), onlyEnabled);
+    }
+
+    public List<UserDTO> listByLoginNames(String[] loginNames, boolean onlyEnabled) {
+        return users.lookup(loginNames, users::byLoginName,
+                set -> userMapper.listUsersByLoginNames(set.toArray(new String[0]), false), onlyEnabled);
+    }
+
+    /**
+     * 按邮箱查询只返回启用的用户
+     */
+    public List<UserDTO> listByEmails(String[] emails) {
+        return users.lookup(emails, users::byEmail,
+                set -> userMapper.listUsersByEmails(set.toArray(new String[0])), true);
+    }
+
+    public List<SlimUserDTO> listSlimByIds(Long[] ids, boolean onlyEnabled) {
+        return slimUsers.lookup(ids, slimUsers::byId,
+                set -> userMapper.listSlimUsersByIds(set.toArray(new Long[0]), false), onlyEnabled);
+    }
+
+    public List<SlimUserDTO> listSlimByLoginNames(String[] loginNames, boolean onlyEnabled) {
+        return slimUsers.lookup(loginNames, slimUsers::byLoginName,
+                set -> userMapper.listSlimUsersByLoginNames(set.toArray(new String[0]), false), onlyEnabled);
+    }
+
+    public List<SlimUserDTO> listSlimByEmails(String[] emails) {
+        return slimUsers.lookup(emails, slimUsers::byEmail,
+                set -> userMapper.listSlimUsersByEmails(set.toArray(new String[0])), true);
+    }
+
+    /**
+     * 用户变更，需在写用户的事务中调用
+     */
+    public void invalidate(Long userId) {
+        LocalCache.invalidateOnCommit(() -> {
+            users.cache.invalidate(userId);
+            slimUsers.cache.invalidate(userId);
+        });
+    }
+
+    public void invalidate(Collection<Long> userIds) {
+        LocalCache.invalidateOnCommit(() -> userIds.forEach(userId -> {
+            users.cache.invalidate(userId);
+            slimUsers.cache.invalidate(userId);
+        }));
+    }
+
+    private static <T> T copy(T source, Supplier<T> supplier) {
+        T target = supplier.get();
+        BeanUtils.copyProperties(source, target);
+        return target;
+    }
+
+    /**
+     * 一种用户返回类型的缓存和索引
+     */
+    private static final class View<T> {
+
+        private final LocalCache<Long, T> cache;
+
+        private final LocalCache<String, Long> loginNames;
+
+        private final LocalCache<String, Long> emails;
+
+        private final Function<T, Long> id;
+
+        private final Function<T, String> loginName;
+
+        private final Function<T, String> email;
+
+        private final Function<T, Boolean> enabled;
+
+        private final Function<T, T> copy;
+
+        private final AtomicLong hitCount = new AtomicLong();
+
+        private final AtomicLong missCount = new AtomicLong();
+
+        private View(String name, int maxSize, long ttlMillis, Function<T, Long> id, Function<T, String> loginName,
+                     Function<T, String> email, Function<T, Boolean> enabled, Function<T, T> copy) {
+            this.cache = new LocalCache<>(maxSize, ttlMillis);
+            this.loginNames = new LocalCache<>(maxSize, ttlMillis);
+            this.emails = new LocalCache<>(maxSize, ttlMillis);
+            this.id = id;
+            this.loginName = loginName;
+            this.email = email;
+            this.enabled = enabled;
+            this.copy = copy;
+            FunctionCounter.builder(METRIC + ".requests", hitCount, AtomicLong::get)
+                    .tags("view", name, "result", "hit").register(Metrics.globalRegistry);
+            FunctionCounter.builder(METRIC + ".requests", missCount, AtomicLong::get)
+                    .tags("view", name, "result", "miss").register(Metrics.globalRegistry);
+            Gauge.builder(METRIC + ".size", cache, LocalCache::size).tag("view", name).register(Metrics.globalRegistry);
+        }
+
+        private T byId(Long userId) {
+            return cache.getIfPresent(userId);
+        }
+
+        private T byLoginName(String key) {
+            return byIndex(loginNames, key, loginName);
+        }
+
+        private T byEmail(String key) {
+            return byIndex(emails, key, email);
+        }
+
+        private T byIndex(LocalCache<String, Long> index, String key, Function<T, String> field) {
+            Long userId = index.getIfPresent(key);
+            if (userId == null) {
+                return null;
+            }
+            T user = cache.getIfPresent(userId);
+            return user != null && key.equals(field.apply(user)) ? user : null;
+        }
+
+        private <K> List<T> lookup(K[] keys, Function<K, T> cached, Function<Set<K>, List<T>> loader, boolean onlyEnabled) {
+            Map<Long, T> result = new LinkedHashMap<>();
+            Set<K> missed = new LinkedHashSet<>();
+            for (K key : keys) {
+                if (key == null) {
+                    continue;
+                }
+                T user = cached.apply(key);
+                if (user == null) {
+                    missed.add(key);
+                } else {
+                    result.putIfAbsent(id.apply(user), user);
+                }
+            }
+            missCount.addAndGet(missed.size());
+            hitCount.addAndGet(result.size());
+            if (!missed.isEmpty()) {
+                long generation = cache.generation();
+                CollectionUtils.subSet(missed, BATCH_SIZE).forEach(set -> loader.apply(set).forEach(user -> {
+                    Long userId = id.apply(user);
+                    cache.putIfGeneration(userId, user, generation);
+                    if (loginName.apply(user) != null) {
+                        loginNames.put(loginName.apply(user), userId);
+                    }
+                    if (email.apply(user) != null) {
+                        emails.put(email.apply(user), userId);
+                    }
+                    result.putIfAbsent(userId, user);
+                }));
+            }
+            return result.values().stream()
+                    .filter(user -> !onlyEnabled || Boolean.TRUE.equals(enabled.apply(user)))
+                    .map(copy)
+                    .collect(Collectors.toList());
+        }
+    }
+}
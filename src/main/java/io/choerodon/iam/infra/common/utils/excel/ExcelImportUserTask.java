@@ -2,6 +2,7 @@ package io.choerodon.iam.infra.common.utils.excel;
 
 import io.choerodon.core.excel.ExcelExportHelper;
 import io.choerodon.core.exception.CommonException;
+import io.choerodon.core.excel.ExcelReadConfig;
 import io.choerodon.iam.api.dto.ErrorUserDTO;
 import io.choerodon.iam.api.dto.ExcelMemberRoleDTO;
 import io.choerodon.iam.api.validator.UserPasswordValidator;
@@ -10,6 +11,7 @@ import io.choerodon.iam.app.service.RoleMemberService;
 import io.choerodon.iam.app.service.UserService;
 import io.choerodon.iam.infra.common.utils.CollectionUtils;
 import io.choerodon.iam.infra.common.utils.MockMultipartFile;
+import io.choerodon.iam.infra.dto.LdapErrorUserDTO;
 import io.choerodon.iam.infra.dto.MemberRoleDTO;
 import io.choerodon.iam.infra.dto.RoleDTO;
 import io.choerodon.iam.infra.dto.UploadHistoryDTO;
@@ -23,17 +25,23 @@ import org.apache.poi.hssf.usermodel.HSSFWorkbook;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.BeanUtils;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.cloud.context.config.annotation.RefreshScope;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
 import org.springframework.scheduling.annotation.Async;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.stereotype.Component;
 import org.springframework.util.StringUtils;
 
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 import java.util.*;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
@@ -46,6 +54,7 @@ import java.util.stream.Collectors;
 public class ExcelImportUserTask {
     private static final Logger logger = LoggerFactory.getLogger(ExcelImportUserTask.class);
     private static final String ADD_USER = "addUser";
+    private static final int BATCH_SIZE = 1000;
 
     private RoleMemberService roleMemberService;
     private OrganizationUserService organizationUserService;
@@ -60,6 +69,14 @@ public class ExcelImportUserTask {
 
     private MemberRoleMapper memberRoleMapper;
 
+    private AsyncTaskExecutor excelWorkerExecutor;
+
+    /**
+     * 流式导入时已读取但未处理完的最大批次数，读取线程超过该值时阻塞等待
+     */
+    @Value("${choerodon.excel.import.max-pending-batches:8}")
+    private int maxPendingBatches;
+
     public ExcelImportUserTask(RoleMemberService roleMemberService,
                                OrganizationUserService organizationUserService,
                                FileFeignClient fileFeignClient,
@@ -67,7 +84,8 @@ public class ExcelImportUserTask {
                                UserPasswordValidator userPasswordValidator,
                                UserMapper userMapper,
                                RoleMapper roleMapper,
-                               MemberRoleMapper memberRoleMapper) {
+                               MemberRoleMapper memberRoleMapper,
+                               @Qualifier("excel-worker-executor") AsyncTaskExecutor excelWorkerExecutor) {
         this.roleMemberService = roleMemberService;
         this.organizationUserService = organizationUserService;
         this.fileFeignClient = fileFeignClient;
@@ -76,6 +94,7 @@ public class ExcelImportUserTask {
         this.userMapper = userMapper;
         this.roleMapper = roleMapper;
         this.memberRoleMapper = memberRoleMapper;
+        this.excelWorkerExecutor = excelWorkerExecutor;
     }
 
     @Async("excel-executor")
@@ -94,7 +113,7 @@ public class ExcelImportUserTask {
         List<UserDTO> insertUsers = compareWithDb(distinctUsers, errorUsers);
         long end = System.currentTimeMillis();
         logger.info("process user for {} millisecond", (end - begin));
-        List<List<UserDTO>> list = CollectionUtils.subList(insertUsers, 1000);
+        List<List<UserDTO>> list = CollectionUtils.subList(insertUsers, BATCH_SIZE);
         list.forEach(l -> {
             if (!l.isEmpty()) {
                 organizationUserService.batchCreateUsers(l);
@@ -110,6 +129,123 @@ public class ExcelImportUserTask {
         }
     }
 
+    /**
+     * 流式导入用户，逐行读取xlsx，读取线程按批校验字段并做excel内去重，比对、加密和插入交给工作线程池并行处理
+     * excel内的重复数据按读取的先后顺序，先读到的保留，后读到的记为失败
+     *
+     * @param file 上传文件的临时副本，导入结束后删除
+     */
+    @Async("excel-executor")
+    public void importUsers(Long userId, File file, ExcelReadConfig excelReadConfig, Long organizationId,
+                            UploadHistoryDTO uploadHistory, FinishFallback fallback) {
+        logger.info("### begin to stream import users from excel");
+        long begin = System.currentTimeMillis();
+        List<ErrorUserDTO> errorUsers = Collections.synchronizedList(new ArrayList<>());
+        ExcelDistinctFilter distinctFilter = new ExcelDistinctFilter();
+        AtomicInteger successCount = new AtomicInteger();
+        final int permits = Math.max(maxPendingBatches, 1);
+        Semaphore pendingBatches = new Semaphore(permits);
+        try {
+            ExcelSaxReader.read(file, UserDTO.class, excelReadConfig.getPropertyMap(), excelReadConfig.getSkipSheetNames(),
+                    BATCH_SIZE, users -> {
+                        List<UserDTO> distinctUsers = validateBatch(users, organizationId, errorUsers, distinctFilter);
+                        if (!distinctUsers.isEmpty()) {
+                            submitBatch(pendingBatches, () ->
+                                    successCount.addAndGet(importBatch(distinctUsers, errorUsers)));
+                        }
+                    });
+        } catch (CommonException e) {
+            logger.error("stream read excel failed, exception: {}", e.getMessage());
+            uploadHistory.setFinished(false);
+            fallback.callback(uploadHistory);
+            throw e;
+        } finally {
+            //等待所有已提交的批次处理完
+            pendingBatches.acquireUninterruptibly(permits);
+            if (!file.delete()) {
+                logger.warn("delete temp file {} failed", file.getAbsolutePath());
+            }
+        }
+        logger.info("stream import users for {} millisecond", (System.currentTimeMillis() - begin));
+        uploadHistory.setSuccessfulCount(successCount.get());
+        uploadHistory.setFailedCount(errorUsers.size());
+        uploadAndFallback(uploadHistory, fallback, errorUsers);
+        if (successCount.get() > 0) {
+            sendNotice(successCount.get(), userId, organizationId);
+        }
+    }
+
+    private void submitBatch(Semaphore pendingBatches, Runnable task) {
+        pendingBatches.acquireUninterruptibly();
+        Runnable worker = () -> {
+            try {
+                task.run();
+            } finally {
+                pendingBatches.release();
+            }
+        };
+        try {
+            excelWorkerExecutor.execute(worker);
+        } catch (TaskRejectedException e) {
+            worker.run();
+        }
+    }
+
+    /**
+     * 在读取线程中校验一批用户并做excel内去重，保证重复数据按读取顺序判定
+     */
+    private List<UserDTO> validateBatch(List<UserDTO> users, Long organizationId, List<ErrorUserDTO> errorUsers,
+                                        ExcelDistinctFilter distinctFilter) {
+        List<UserDTO> validateUsers = new ArrayList<>();
+        List<ErrorUserDTO> batchErrors = new ArrayList<>();
+        try {
+            users.forEach(u -> {
+                u.setOrganizationId(organizationId);
+                validateUsers(u, batchErrors, validateUsers);
+            });
+        } catch (RuntimeException e) {
+            logger.error("validate users failed, exception: {}", e.getMessage());
+            users.forEach(user -> errorUsers.add(getErrorUserDTO(user, "用户校验失败")));
+            return Collections.emptyList();
+        }
+        errorUsers.addAll(batchErrors);
+        return distinctFilter.filter(validateUsers, errorUsers);
+    }
+
+    /**
+     * 处理一批已去重的用户，返回插入成功的数量，任何异常都把这批用户记为失败
+     */
+    private int importBatch(List<UserDTO> users, List<ErrorUserDTO> errorUsers) {
+        List<ErrorUserDTO> batchErrors = new ArrayList<>();
+        try {
+            users.forEach(this::initUserFields);
+            List<UserDTO> insertUsers = compareWithDb(users, batchErrors);
+            int successCount = 0;
+            if (!insertUsers.isEmpty()) {
+                //只对需要插入的用户加密，BCrypt是导入中最耗cpu的部分
+                insertUsers.forEach(this::encodePassword);
+                List<LdapErrorUserDTO> failedUsers = organizationUserService.batchCreateUsers(insertUsers);
+                failedUsers.forEach(failed -> {
+                    ErrorUserDTO dto = new ErrorUserDTO();
+                    BeanUtils.copyProperties(failed, dto);
+                    dto.setCause("用户插入失败");
+                    batchErrors.add(dto);
+                });
+                successCount = insertUsers.size() - failedUsers.size();
+            }
+            errorUsers.addAll(batchErrors);
+            return successCount;
+        } catch (RuntimeException e) {
+            logger.error("import users batch failed, exception: {}", e.getMessage());
+            users.forEach(user -> {
+                ErrorUserDTO dto = getErrorUserDTO(user, "用户插入失败");
+                dto.setPassword(user.getOriginalPassword());
+                errorUsers.add(dto);
+            });
+            return 0;
+        }
+    }
+
     private void sendNotice(Integer successCount, Long userId, Long organizationId) {
         Map<String, Object> paramsMap = new HashMap<>();
         paramsMap.put("addCount", successCount);
@@ -149,9 +285,9 @@ public class ExcelImportUserTask {
                                  FinishFallback finishFallback) {
         Integer total = memberRoles.size();
         logger.info("### begin to import member-role from excel, total size : {}", total);
-        List<ExcelMemberRoleDTO> errorMemberRoles = new CopyOnWriteArrayList<>();
-        List<ExcelMemberRoleDTO> validateMemberRoles = new CopyOnWriteArrayList<>();
-        memberRoles.parallelStream().forEach(mr -> {
+        List<ExcelMemberRoleDTO> errorMemberRoles = new ArrayList<>();
+        List<ExcelMemberRoleDTO> validateMemberRoles = new ArrayList<>();
+        memberRoles.forEach(mr -> {
             if (StringUtils.isEmpty(mr.getLoginName())) {
                 mr.setCause("登录名为空");
                 errorMemberRoles.add(mr);
@@ -164,34 +300,59 @@ public class ExcelImportUserTask {
         });
         //去重
         List<ExcelMemberRoleDTO> distinctList = distinctMemberRole(validateMemberRoles, errorMemberRoles);
-        //***优化查询次数
-        distinctList.parallelStream().forEach(emr -> {
+        //批量预加载用户和角色
+        Map<String, UserDTO> users = selectUsers(distinctList);
+        Map<String, RoleDTO> roles = selectRoles(distinctList);
+        Long sourceId = uploadHistory.getSourceId();
+        String sourceType = uploadHistory.getSourceType();
+        List<MemberRoleDTO> candidates = new ArrayList<>();
+        Map<MemberRoleDTO, ExcelMemberRoleDTO> candidateRows = new HashMap<>();
+        Map<Long, String> loginNames = new HashMap<>();
+        distinctList.forEach(emr -> {
             String loginName = emr.getLoginName().trim();
-            String code = emr.getRoleCode().trim();
             //检查loginName是否存在
-            UserDTO userDTO = getUser(errorMemberRoles, emr, loginName);
+            UserDTO userDTO = users.get(loginName);
             if (userDTO == null) {
+                emr.setCause("登录名不存在");
+                errorMemberRoles.add(emr);
                 return;
             }
-            Long userId = userDTO.getId();
             //检查role code是否存在
-            RoleDTO role = getRole(errorMemberRoles, emr, code);
+            RoleDTO role = roles.get(emr.getRoleCode().trim());
             if (role == null) {
+                emr.setCause("角色编码不存在");
+                errorMemberRoles.add(emr);
                 return;
             }
-            if (!uploadHistory.getSourceType().equals(role.getResourceLevel())) {
+            if (!sourceType.equals(role.getResourceLevel())) {
                 emr.setCause("导入角色层级与导入所在界面的层级不匹配");
                 errorMemberRoles.add(emr);
                 return;
             }
-            Long roleId = role.getId();
-            //检查memberRole是否存在
-            MemberRoleDTO memberRole = getMemberRole(uploadHistory.getSourceId(), uploadHistory.getSourceType(), errorMemberRoles, emr, userId, roleId);
-            if (memberRole == null) {
-                return;
+            MemberRoleDTO memberRole = new MemberRoleDTO();
+            memberRole.setSourceType(sourceType);
+            memberRole.setSourceId(sourceId);
+            memberRole.setMemberType("user");
+            memberRole.setMemberId(userDTO.getId());
+            memberRole.setRoleId(role.getId());
+            candidates.add(memberRole);
+            candidateRows.put(memberRole, emr);
+            loginNames.put(userDTO.getId(), loginName);
+        });
+        //检查memberRole是否存在，一次查询该资源下这批用户已有的角色
+        Set<String> existedMemberRoles = selectExistedMemberRoles(sourceId, sourceType, loginNames.keySet());
+        List<MemberRoleDTO> insertMemberRoles = new ArrayList<>();
+        candidates.forEach(memberRole -> {
+            if (existedMemberRoles.contains(memberRole.getMemberId() + "-" + memberRole.getRoleId())) {
+                ExcelMemberRoleDTO emr = candidateRows.get(memberRole);
+                emr.setCause("该用户已经被分配了该角色，sourceId={" + sourceId + "}");
+                errorMemberRoles.add(emr);
+            } else {
+                insertMemberRoles.add(memberRole);
             }
-            roleMemberService.insertAndSendEvent(memberRole, loginName);
         });
+        CollectionUtils.subList(insertMemberRoles, BATCH_SIZE).forEach(list ->
+                roleMemberService.batchInsertAndSendEvent(list, loginNames));
         Integer failedCount = errorMemberRoles.size();
         Integer successfulCount = total - failedCount;
         uploadHistory.setFailedCount(failedCount);
@@ -215,43 +376,33 @@ public class ExcelImportUserTask {
         }
     }
 
-    private MemberRoleDTO getMemberRole(Long sourceId, String sourceType, List<ExcelMemberRoleDTO> errorMemberRoles, ExcelMemberRoleDTO emr, Long userId, Long roleId) {
-        MemberRoleDTO memberRole = new MemberRoleDTO();
-        memberRole.setSourceType(sourceType);
-        memberRole.setSourceId(sourceId);
-        memberRole.setMemberType("user");
-        memberRole.setMemberId(userId);
-        memberRole.setRoleId(roleId);
-        if (memberRoleMapper.selectOne(memberRole) != null) {
-            emr.setCause("该用户已经被分配了该角色，sourceId={" + sourceId + "}");
-            errorMemberRoles.add(emr);
-            return null;
-        }
-        return memberRole;
+    private Map<String, UserDTO> selectUsers(List<ExcelMemberRoleDTO> memberRoles) {
+        Set<String> loginNames = memberRoles.stream().map(mr -> mr.getLoginName().trim()).collect(Collectors.toSet());
+        Map<String, UserDTO> users = new HashMap<>();
+        //oracle In-list上限为1000，这里List size要小于1000
+        CollectionUtils.subSet(loginNames, 999).forEach(set ->
+                userMapper.listUsersByLoginNames(set.toArray(new String[0]), false)
+                        .forEach(user -> users.put(user.getLoginName(), user)));
+        return users;
     }
 
-    private RoleDTO getRole(List<ExcelMemberRoleDTO> errorMemberRoles, ExcelMemberRoleDTO emr, String code) {
-        RoleDTO roleDTO = new RoleDTO();
-        roleDTO.setCode(code);
-        RoleDTO role = roleMapper.selectOne(roleDTO);
-        if (role == null) {
-            emr.setCause("角色编码不存在");
-            errorMemberRoles.add(emr);
-            return null;
-        }
-        return role;
+    private Map<String, RoleDTO> selectRoles(List<ExcelMemberRoleDTO> memberRoles) {
+        Set<String> codes = memberRoles.stream().map(mr -> mr.getRoleCode().trim()).collect(Collectors.toSet());
+        Map<String, RoleDTO> roles = new HashMap<>();
+        CollectionUtils.subSet(codes, 999).forEach(set ->
+                roleMapper.selectByCodes(set).forEach(role -> roles.put(role.getCode(), role)));
+        return roles;
     }
 
-    private UserDTO getUser(List<ExcelMemberRoleDTO> errorMemberRoles, ExcelMemberRoleDTO emr, String loginName) {
-        UserDTO user = new UserDTO();
-        user.setLoginName(loginName);
-        UserDTO userDTO = userMapper.selectOne(user);
-        if (userDTO == null) {
-            emr.setCause("登录名不存在");
-            errorMemberRoles.add(emr);
-            return null;
-        }
-        return userDTO;
+    /**
+     * 查询一批用户在某个资源下已分配的角色，返回memberId-roleId
+     */
+    private Set<String> selectExistedMemberRoles(Long sourceId, String sourceType, Set<Long> userIds) {
+        Set<String> existed = new HashSet<>();
+        CollectionUtils.subSet(userIds, 999).forEach(set ->
+                memberRoleMapper.selectByMemberIds(sourceId, sourceType, "user", set)
+                        .forEach(mr -> existed.add(mr.getMemberId() + "-" + mr.getRoleId())));
+        return existed;
     }
 
     /**
@@ -488,27 +639,34 @@ public class ExcelImportUserTask {
     private void processUsers(UserDTO user, List<ErrorUserDTO> errorUsers, List<UserDTO> validateUsers) {
         //只有校验通过的用户才进行其他字段设置
         if (validateUsers(user, errorUsers, validateUsers)) {
-            //excel中用户密码为空，设置默认密码为abcd1234
-            user.setOriginalPassword(user.getPassword());
-            if (StringUtils.isEmpty(user.getPassword())) {
-                user.setPassword("abcd1234");
-            }
-            //加密
-            user.setPassword(ENCODER.encode(user.getPassword()));
-            if (StringUtils.isEmpty(user.getLanguage())) {
-                user.setLanguage("zh_CN");
-            }
-            if (StringUtils.isEmpty(user.getTimeZone())) {
-                user.setTimeZone("CTT");
-            }
-            user.setLastPasswordUpdatedAt(new Date(System.currentTimeMillis()));
-            user.setEnabled(true);
-            user.setLocked(false);
-            user.setLdap(false);
-            user.setAdmin(false);
+            initUserFields(user);
+            encodePassword(user);
         }
     }
 
+    private void encodePassword(UserDTO user) {
+        user.setPassword(ENCODER.encode(user.getPassword()));
+    }
+
+    private void initUserFields(UserDTO user) {
+        //excel中用户密码为空，设置默认密码为abcd1234
+        user.setOriginalPassword(user.getPassword());
+        if (StringUtils.isEmpty(user.getPassword())) {
+            user.setPassword("abcd1234");
+        }
+        if (StringUtils.isEmpty(user.getLanguage())) {
+            user.setLanguage("zh_CN");
+        }
+        if (StringUtils.isEmpty(user.getTimeZone())) {
+            user.setTimeZone("CTT");
+        }
+        user.setLastPasswordUpdatedAt(new Date(System.currentTimeMillis()));
+        user.setEnabled(true);
+        user.setLocked(false);
+        user.setLdap(false);
+        user.setAdmin(false);
+    }
+
     private Boolean validateUsers(UserDTO user, List<ErrorUserDTO> errorUsers, List<UserDTO> insertUsers) {
         String loginName = user.getLoginName();
         String email = user.getEmail();
@@ -574,6 +732,36 @@ public class ExcelImportUserTask {
         return errorUser;
     }
 
+    /**
+     * 流式导入时跨批次的excel内去重，只保留登录名和邮箱，只在读取线程中使用
+     */
+    private final class ExcelDistinctFilter {
+
+        private final Set<String> loginNames = new HashSet<>();
+
+        private final Set<String> emails = new HashSet<>();
+
+        private List<UserDTO> filter(List<UserDTO> users, List<ErrorUserDTO> errorUsers) {
+            List<UserDTO> distinct = new ArrayList<>();
+            for (UserDTO user : users) {
+                boolean loginNameExisted = loginNames.contains(user.getLoginName());
+                boolean emailExisted = emails.contains(user.getEmail());
+                if (loginNameExisted && emailExisted) {
+                    errorUsers.add(getErrorUserDTO(user, "Excel中存在重复的登录名和邮箱"));
+                } else if (loginNameExisted) {
+                    errorUsers.add(getErrorUserDTO(user, "Excel中存在重复的登录名"));
+                } else if (emailExisted) {
+                    errorUsers.add(getErrorUserDTO(user, "Excel中存在重复的邮箱"));
+                } else {
+                    loginNames.add(user.getLoginName());
+                    emails.add(user.getEmail());
+                    distinct.add(user);
+                }
+            }
+            return distinct;
+        }
+    }
+
 
     public interface FinishFallback {
         /**
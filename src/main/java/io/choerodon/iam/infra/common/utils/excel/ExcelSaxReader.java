@@ -0,0 +1,165 @@
+package io.choerodon.iam.infra.common.utils.excel;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.*;
+import java.util.function.Consumer;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+
+import io.choerodon.core.exception.CommonException;
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.ss.usermodel.DataFormatter;
+import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.eventusermodel.XSSFSheetXMLHandler;
+import org.apache.poi.xssf.model.StylesTable;
+import org.apache.poi.xssf.usermodel.XSSFComment;
+import org.springframework.beans.BeanUtils;
+import org.springframework.beans.BeanWrapper;
+import org.springframework.beans.PropertyAccessorFactory;
+import org.springframework.util.StringUtils;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+
+/**
+ * 基于SAX事件模型逐行读取xlsx，不构建整个工作簿的DOM，内存占用与文件行数无关
+ * <p>
+ * 每个sheet的第一行为表头，按propertyMap映射为对象属性，不在映射中的列忽略，
+ * 每读满batchSize行回调一次
+ */
+public final class ExcelSaxReader {
+
+    private ExcelSaxReader() {
+        throw new IllegalStateException("cann`t instantiation class");
+    }
+
+    public static <T> void read(File file, Class<T> clazz, Map<String, String> propertyMap,
+                                String[] skipSheetNames, int batchSize, Consumer<List<T>> consumer) {
+        Set<String> skipSheets = skipSheetNames == null
+                ? Collections.emptySet() : new HashSet<>(Arrays.asList(skipSheetNames));
+        try (OPCPackage pkg = OPCPackage.open(file, PackageAccess.READ)) {
+            ReadOnlySharedStringsTable strings = new ReadOnlySharedStringsTable(pkg);
+            XSSFReader xssfReader = new XSSFReader(pkg);
+            StylesTable styles = xssfReader.getStylesTable();
+            XSSFReader.SheetIterator sheets = (XSSFReader.SheetIterator) xssfReader.getSheetsData();
+            RowHandler<T> handler = new RowHandler<>(clazz, propertyMap, batchSize, consumer);
+            while (sheets.hasNext()) {
+                try (InputStream sheet = sheets.next()) {
+                    if (skipSheets.contains(sheets.getSheetName())) {
+                        continue;
+                    }
+                    handler.startSheet();
+                    XMLReader parser = newParser();
+                    parser.setContentHandler(new XSSFSheetXMLHandler(styles, null, strings, handler, new DataFormatter(), false));
+                    parser.parse(new InputSource(sheet));
+                }
+            }
+            handler.flush();
+        } catch (IOException | OpenXML4JException | SAXException | ParserConfigurationException e) {
+            throw new CommonException("error.excel.read", e);
+        }
+    }
+
+    private static XMLReader newParser() throws ParserConfigurationException, SAXException {
+        SAXParserFactory factory = SAXParserFactory.newInstance();
+        factory.setNamespaceAware(true);
+        factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+        return factory.newSAXParser().getXMLReader();
+    }
+
+    private static final class RowHandler<T> implements XSSFSheetXMLHandler.SheetContentsHandler {
+
+        private final Class<T> clazz;
+
+        private final Map<String, String> propertyMap;
+
+        private final int batchSize;
+
+        private final Consumer<List<T>> consumer;
+
+        /**
+         * 当前sheet列下标到属性名的映射
+         */
+        private final Map<Integer, String> columns = new HashMap<>();
+
+        private List<T> batch = new ArrayList<>();
+
+        private boolean header;
+
+        private BeanWrapper current;
+
+        private RowHandler(Class<T> clazz, Map<String, String> propertyMap, int batchSize, Consumer<List<T>> consumer) {
+            this.clazz = clazz;
+            this.propertyMap = propertyMap;
+            this.batchSize = batchSize;
+            this.consumer = consumer;
+        }
+
+        private void startSheet() {
+            columns.clear();
+            header = true;
+        }
+
+        @Override
+        public void startRow(int rowNum) {
+            current = null;
+        }
+
+        @Override
+        public void endRow(int rowNum) {
+            if (header) {
+                header = false;
+                return;
+            }
+            if (current == null) {
+                return;
+            }
+            @SuppressWarnings("unchecked")
+            T row = (T) current.getWrappedInstance();
+            batch.add(row);
+            current = null;
+            if (batch.size() >= batchSize) {
+                flush();
+            }
+        }
+
+        @Override
+        public void cell(String cellReference, String formattedValue, XSSFComment comment) {
+            int column = new CellReference(cellReference).getCol();
+            if (header) {
+                String property = propertyMap.get(formattedValue == null ? null : formattedValue.trim());
+                if (property != null) {
+                    columns.put(column, property);
+                }
+                return;
+            }
+            String property = columns.get(column);
+            if (property == null || StringUtils.isEmpty(formattedValue)) {
+                return;
+            }
+            if (current == null) {
+                current = PropertyAccessorFactory.forBeanPropertyAccess(BeanUtils.instantiateClass(clazz));
+            }
+            current.setPropertyValue(property, formattedValue);
+        }
+
+        @Override
+        public void headerFooter(String text, boolean isHeader, String tagName) {
+            //页眉页脚不处理
+        }
+
+        private void flush() {
+            if (!batch.isEmpty()) {
+                List<T> rows = batch;
+                batch = new ArrayList<>();
+                consumer.accept(rows);
+            }
+        }
+    }
+}
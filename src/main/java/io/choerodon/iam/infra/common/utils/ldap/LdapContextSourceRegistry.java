@@ -0,0 +1,345 @@
+package io.choerodon.iam.infra.common.utils.ldap;
+
+import io.choerodon.iam.infra.dto.LdapDTO;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.ldap.core.ContextSource;
+import org.springframework.ldap.core.support.LdapContextSource;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import javax.naming.CommunicationException;
+import javax.naming.NamingException;
+import javax.naming.ServiceUnavailableException;
+import javax.naming.directory.DirContext;
+import javax.naming.ldap.LdapContext;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * ldap连接池注册表
+ * <p>
+ * 按ldap id和登录的userDn维护只读连接池，测试连接和同步用户共用同一个池，测试连接另外不经过池绑定一次校验账户密码。连接用完后归还到池中，
+ * 空闲超过validate-after-seconds的连接借出前先查询一次baseDn校验，空闲超过idle-seconds的连接和长期不用的池被回收。
+ * ldap配置通过update修改或删除时按ldap id重建；其他实例修改配置时，借出前比较服务地址、baseDn、超时时间和账户密码，不一致则重建
+ */
+@Component
+public class LdapContextSourceRegistry {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LdapContextSourceRegistry.class);
+
+    private static final String ANONYMOUS = "";
+
+    private static final String[] VALIDATE_ATTRIBUTES = {"objectclass"};
+
+    private final int maxIdle;
+
+    private final long idleMillis;
+
+    private final long validateAfterMillis;
+
+    private final ConcurrentMap<Long, ConcurrentMap<String, Pool>> pools = new ConcurrentHashMap<>();
+
+    public LdapContextSourceRegistry(@Value("${choerodon.ldap.pool.max-idle:8}") int maxIdle,
+                                     @Value("${choerodon.ldap.pool.idle-seconds:300}") long idleSeconds,
+                                     @Value("${choerodon.ldap.pool.validate-after-seconds:30}") long validateAfterSeconds) {
+        this.maxIdle = maxIdle;
+        this.idleMillis = idleSeconds * 1000;
+        this.validateAfterMillis = validateAfterSeconds * 1000;
+    }
+
+    /**
+     * 获取ldap配置对应的连接池，userDn为空时使用匿名只读连接。未保存的ldap配置(id为空)不放入池中
+     *
+     * @param ldap     ldap配置
+     * @param userDn   登录的userDn
+     * @param password 登录密码
+     * @return ContextSource
+     */
+    public ContextSource get(LdapDTO ldap, String userDn, String password) {
+        if (ldap.getId() == null) {
+            return build(ldap, userDn, password);
+        }
+        evictIdle();
+        List<Object> fingerprint = fingerprint(ldap, userDn, password);
+        ConcurrentMap<String, Pool> ldapPools = pools.computeIfAbsent(ldap.getId(), k -> new ConcurrentHashMap<>());
+        return ldapPools.compute(userDn == null ? ANONYMOUS : userDn, (k, old) -> {
+            if (old != null && old.fingerprint.equals(fingerprint)) {
+                return old;
+            }
+            if (old != null) {
+                old.close();
+            }
+            return new Pool(fingerprint, build(ldap, userDn, password));
+        });
+    }
+
+    /**
+     * 不经过池新建一个连接绑定后立即关闭，池中的连接是之前绑定的，不能证明账户密码当前仍然有效。
+     * userDn为空时只校验能否连接服务器，绑定失败抛出spring ldap的异常
+     *
+     * @param ldap     ldap配置
+     * @param userDn   登录的userDn
+     * @param password 登录密码
+     */
+    public void verify(LdapDTO ldap, String userDn, String password) {
+        closeQuietly(build(ldap, userDn, password).getReadOnlyContext());
+    }
+
+    /**
+     * ldap配置变更或删除，关闭并移除该ldap的所有连接池
+     */
+    public void invalidate(Long ldapId) {
+        ConcurrentMap<String, Pool> ldapPools = pools.remove(ldapId);
+        if (ldapPools != null) {
+            ldapPools.values().forEach(Pool::close);
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        pools.keySet().forEach(this::invalidate);
+    }
+
+    private void evictIdle() {
+        long now = System.currentTimeMillis();
+        pools.values().forEach(ldapPools -> ldapPools.values().removeIf(pool -> pool.evict(now)));
+    }
+
+    private static List<Object> fingerprint(LdapDTO ldap, String userDn, String password) {
+        return Arrays.asList(ldap.getServerAddress(), ldap.getPort(), ldap.getBaseDn(),
+                ldap.getConnectionTimeout(), userDn, password);
+    }
+
+    private static LdapContextSource build(LdapDTO ldap, String userDn, String password) {
+        LdapContextSource contextSource = new LdapContextSource();
+        contextSource.setUrl(ldap.getServerAddress() + ":" + ldap.getPort());
+        contextSource.setBase(ldap.getBaseDn());
+        Map<String, Object> environment = new HashMap<>(1);
+        //设置ldap服务器连接超时时间
+        environment.put("com.sun.jndi.ldap.connect.timeout", String.valueOf(ldap.getConnectionTimeout() * 1000));
+        contextSource.setBaseEnvironmentProperties(environment);
+        if (userDn == null) {
+            contextSource.setAnonymousReadOnly(true);
+        } else {
+            contextSource.setUserDn(userDn);
+            contextSource.setPassword(password);
+        }
+        contextSource.afterPropertiesSet();
+        return contextSource;
+    }
+
+    private static void closeQuietly(DirContext context) {
+        try {
+            context.close();
+        } catch (NamingException e) {
+            LOGGER.debug("close ldap context failed: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 一个ldap配置和userDn的只读连接池，读写连接和认证不经过池
+     */
+    private final class Pool implements ContextSource {
+
+        private final List<Object> fingerprint;
+
+        private final LdapContextSource target;
+
+        /**
+         * 头部为最近归还的连接，尾部为空闲最久的连接
+         */
+        private final Deque<IdleContext> idle = new ArrayDeque<>();
+
+        private long lastUsed = System.currentTimeMillis();
+
+        private boolean closed;
+
+        private Pool(List<Object> fingerprint, LdapContextSource target) {
+            this.fingerprint = fingerprint;
+            this.target = target;
+        }
+
+        @Override
+        public DirContext getReadOnlyContext() {
+            IdleContext entry;
+            while ((entry = poll()) != null) {
+                if (System.currentTimeMillis() - entry.since < validateAfterMillis || validate(entry.context)) {
+                    return wrap(entry.context);
+                }
+                closeQuietly(entry.context);
+            }
+            return wrap(target.getReadOnlyContext());
+        }
+
+        @Override
+        public DirContext getReadWriteContext() {
+            return target.getReadWriteContext();
+        }
+
+        @Override
+        public DirContext getContext(String principal, String credentials) {
+            return target.getContext(principal, credentials);
+        }
+
+        private synchronized IdleContext poll() {
+            lastUsed = System.currentTimeMillis();
+            return idle.pollFirst();
+        }
+
+        private void release(DirContext context, boolean reusable) {
+            synchronized (this) {
+                if (reusable && !closed && idle.size() < maxIdle) {
+                    idle.addFirst(new IdleContext(context));
+                    return;
+                }
+            }
+            closeQuietly(context);
+        }
+
+        /**
+         * 关闭空闲超时的连接，池已空且长期未使用时返回true
+         */
+        private boolean evict(long now) {
+            Deque<IdleContext> expired = new ArrayDeque<>();
+            boolean unused;
+            synchronized (this) {
+                while (!idle.isEmpty() && now - idle.peekLast().since >= idleMillis) {
+                    expired.add(idle.pollLast());
+                }
+                unused = idle.isEmpty() && now - lastUsed >= idleMillis;
+                if (unused) {
+                    closed = true;
+                }
+            }
+            expired.forEach(entry -> closeQuietly(entry.context));
+            return unused;
+        }
+
+        private void close() {
+            Deque<IdleContext> contexts;
+            synchronized (this) {
+                closed = true;
+                contexts = new ArrayDeque<>(idle);
+                idle.clear();
+            }
+            contexts.forEach(entry -> closeQuietly(entry.context));
+        }
+
+        private boolean validate(DirContext context) {
+            try {
+                context.getAttributes("", VALIDATE_ATTRIBUTES);
+                return true;
+            } catch (CommunicationException | ServiceUnavailableException e) {
+                LOGGER.debug("pooled ldap context is broken: {}", e.getMessage());
+                return false;
+            } catch (NamingException e) {
+                //服务器有响应，连接可用
+                return true;
+            }
+        }
+
+        private DirContext wrap(DirContext context) {
+            Class<?> type = context instanceof LdapContext ? LdapContext.class : DirContext.class;
+            return (DirContext) Proxy.newProxyInstance(LdapContextSourceRegistry.class.getClassLoader(),
+                    new Class<?>[]{type}, new PooledContextHandler(this, context));
+        }
+    }
+
+    /**
+     * 拦截借出连接的close，归还到池中。连接异常或修改过环境变量的连接不再复用，设置过请求控制(如分页)的连接归还前清除
+     */
+    private static final class PooledContextHandler implements InvocationHandler {
+
+        private final Pool pool;
+
+        private final DirContext context;
+
+        private boolean reusable = true;
+
+        private boolean controlled;
+
+        private boolean released;
+
+        private PooledContextHandler(Pool pool, DirContext context) {
+            this.pool = pool;
+            this.context = context;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if ("close".equals(name) && method.getParameterCount() == 0) {
+                release();
+                return null;
+            }
+            if ("equals".equals(name) && method.getParameterCount() == 1) {
+                return proxy == args[0];
+            }
+            if ("hashCode".equals(name) && method.getParameterCount() == 0) {
+                return System.identityHashCode(proxy);
+            }
+            if (released) {
+                throw new NamingException("ldap context has been closed");
+            }
+            switch (name) {
+                case "setRequestControls":
+                    controlled = true;
+                    break;
+                case "addToEnvironment":
+                case "removeFromEnvironment":
+                case "reconnect":
+                    reusable = false;
+                    break;
+                default:
+                    break;
+            }
+            try {
+                return method.invoke(context, args);
+            } catch (InvocationTargetException e) {
+                Throwable cause = e.getTargetException();
+                if (cause instanceof CommunicationException || cause instanceof ServiceUnavailableException) {
+                    reusable = false;
+                }
+                throw cause;
+            }
+        }
+
+        private void release() {
+            if (released) {
+                return;
+            }
+            released = true;
+            if (reusable && controlled) {
+                try {
+                    ((LdapContext) context).setRequestControls(null);
+                } catch (NamingException e) {
+                    reusable = false;
+                }
+            }
+            pool.release(context, reusable);
+        }
+    }
+
+    private static final class IdleContext {
+
+        private final DirContext context;
+
+        private final long since = System.currentTimeMillis();
+
+        private IdleContext(DirContext context) {
+            this.context = context;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package io.choerodon.iam.infra.common.utils.ldap;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import io.choerodon.iam.infra.common.utils.CollectionUtils;
+import io.choerodon.iam.infra.dto.LdapErrorUserDTO;
+import io.choerodon.iam.infra.mapper.LdapErrorUserMapper;
+
+/**
+ * 一次ldap同步的失败用户缓冲区，多个写库线程并发写入，按批次多行插入
+ * <p>
+ * 每次同步最多记录maxRows条失败用户，超出部分只计数不入库
+ */
+public class LdapErrorUserSink {
+
+    private static final int INSERT_BATCH_SIZE = 500;
+
+    private final LdapErrorUserMapper ldapErrorUserMapper;
+
+    private final Long ldapHistoryId;
+
+    private final long maxRows;
+
+    private List<LdapErrorUserDTO> buffer = new ArrayList<>();
+
+    private long accepted;
+
+    private long overflow;
+
+    public LdapErrorUserSink(LdapErrorUserMapper ldapErrorUserMapper, Long ldapHistoryId, long maxRows) {
+        this.ldapErrorUserMapper = ldapErrorUserMapper;
+        this.ldapHistoryId = ldapHistoryId;
+        this.maxRows = maxRows;
+    }
+
+    /**
+     * 写入缓冲区，超过上限的部分丢弃并计数
+     */
+    public synchronized void add(List<LdapErrorUserDTO> errorUsers) {
+        for (LdapErrorUserDTO errorUser : errorUsers) {
+            if (accepted >= maxRows) {
+                overflow++;
+                continue;
+            }
+            errorUser.setLdapHistoryId(ldapHistoryId);
+            buffer.add(errorUser);
+            accepted++;
+        }
+    }
+
+    /**
+     * 将缓冲区的失败用户批量入库，在分页写完和同步结束时调用
+     */
+    public void flush() {
+        List<LdapErrorUserDTO> rows;
+        synchronized (this) {
+            if (buffer.isEmpty()) {
+                return;
+            }
+            rows = buffer;
+            buffer = new ArrayList<>();
+        }
+        CollectionUtils.subList(rows, INSERT_BATCH_SIZE).forEach(ldapErrorUserMapper::batchInsert);
+    }
+
+    public synchronized long getOverflow() {
+        return overflow;
+    }
+}
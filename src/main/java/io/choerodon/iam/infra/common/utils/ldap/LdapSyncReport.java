@@ -1,71 +1,70 @@
 package io.choerodon.iam.infra.common.utils.ldap;
 
 import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
+ * 同步结果统计，计数器会被多个写入线程并发累加
+ *
  * @author wuguokai
  */
 public class LdapSyncReport {
-    private Long insert;
-    private Long update;
-    private Long error;
+    private final AtomicLong insert = new AtomicLong();
+    private final AtomicLong update = new AtomicLong();
+    private final AtomicLong error = new AtomicLong();
     private Long organizationId;
     private Date startTime;
     private Date endTime;
-    private Long count;
+    private final AtomicLong count = new AtomicLong();
     private Long ldapId;
 
     public LdapSyncReport(Long organizationId) {
         this.organizationId = organizationId;
-        this.insert = 0L;
-        this.update = 0L;
-        this.error = 0L;
-        this.count = 0L;
     }
 
     public void setInsert(Long insert) {
-        this.insert = insert;
+        this.insert.set(insert);
     }
 
     public void setUpdate(Long update) {
-        this.update = update;
+        this.update.set(update);
     }
 
     public void setError(Long error) {
-        this.error = error;
+        this.error.set(error);
     }
 
     public void setCount(Long count) {
-        this.count = count;
+        this.count.set(count);
     }
 
 
     public void incrementNewInsert() {
-        this.insert++;
+        this.insert.incrementAndGet();
     }
 
     public void incrementError() {
-        this.error++;
+        this.error.incrementAndGet();
     }
 
     public void incrementError(Long count) {
-        this.error = this.error + count;
+        this.error.addAndGet(count);
     }
 
     public void incrementUpdate() {
-        this.update++;
+        this.update.incrementAndGet();
     }
 
     public void incrementUpdate(Long update) {
-        this.update = this.update + update;
+        this.update.addAndGet(update);
     }
 
     public void incrementCount() {
-        this.count++;
+        this.count.incrementAndGet();
     }
 
     public void incrementCount(Long count) {
-        this.count = this.count + count;
+        this.count.addAndGet(count);
     }
 
     public Long getOrganizationId() {
@@ -77,19 +76,19 @@ public class LdapSyncReport {
     }
 
     public Long getInsert() {
-        return insert;
+        return insert.get();
     }
 
     public Long getUpdate() {
-        return update;
+        return update.get();
     }
 
     public Long getError() {
-        return error;
+        return error.get();
     }
 
     public Long getCount() {
-        return count;
+        return count.get();
     }
 
     public Long getLdapId() {
@@ -131,6 +130,16 @@ public class LdapSyncReport {
     }
 
     public void reduceInsert(Long count) {
-        this.insert = this.insert - count;
+        this.insert.addAndGet(-count);
+    }
+
+    /**
+     * 累加一个分页的统计结果
+     */
+    public void merge(LdapSyncReport pageReport) {
+        this.insert.addAndGet(pageReport.getInsert());
+        this.update.addAndGet(pageReport.getUpdate());
+        this.error.addAndGet(pageReport.getError());
+        this.count.addAndGet(pageReport.getCount());
     }
 }
@@ -2,6 +2,7 @@ package io.choerodon.iam.infra.common.utils.ldap;
 
 import java.lang.reflect.Field;
 import java.util.*;
+import java.util.concurrent.Semaphore;
 import java.util.stream.Collectors;
 import javax.naming.NamingException;
 import javax.naming.directory.Attribute;
@@ -18,7 +19,11 @@ import io.choerodon.iam.infra.mapper.LdapHistoryMapper;
 import io.choerodon.iam.infra.mapper.UserMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.cloud.context.config.annotation.RefreshScope;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
 import org.springframework.ldap.control.PagedResultsDirContextProcessor;
 import org.springframework.ldap.core.AttributesMapper;
 import org.springframework.ldap.core.LdapOperations;
@@ -50,14 +55,30 @@ public class LdapSyncUserTask {
 
     private LdapHistoryMapper ldapHistoryMapper;
 
+    private AsyncTaskExecutor ldapWriterExecutor;
+
+    /**
+     * 已读取但未写完的最大分页数，读取线程超过该值时阻塞等待写库线程
+     */
+    @Value("${choerodon.ldap.sync.max-pending-pages:8}")
+    private int maxPendingPages;
+
+    /**
+     * 每次同步最多记录的失败用户数
+     */
+    @Value("${choerodon.ldap.sync.max-error-users:10000}")
+    private long maxErrorUsers;
+
     public LdapSyncUserTask(OrganizationUserService organizationUserService,
                             LdapErrorUserMapper ldapErrorUserMapper,
                             UserMapper userMapper,
-                            LdapHistoryMapper ldapHistoryMapper) {
+                            LdapHistoryMapper ldapHistoryMapper,
+                            @Qualifier("ldap-writer-executor") AsyncTaskExecutor ldapWriterExecutor) {
         this.organizationUserService = organizationUserService;
         this.ldapErrorUserMapper = ldapErrorUserMapper;
         this.userMapper = userMapper;
         this.ldapHistoryMapper = ldapHistoryMapper;
+        this.ldapWriterExecutor = ldapWriterExecutor;
     }
 
     @Async("ldap-executor")
@@ -65,13 +86,21 @@ public class LdapSyncUserTask {
         logger.info("@@@ start to sync users from ldap server, sync type: {}", syncType);
         LdapSyncReport ldapSyncReport = initLdapSyncReport(ldap);
         LdapHistoryDTO ldapHistory = initLdapHistory(ldap.getId());
-        syncUsersFromLdapServer(ldapTemplate, ldap, ldapSyncReport, ldapHistory.getId(), syncType);
+        LdapErrorUserSink errorUserSink = new LdapErrorUserSink(ldapErrorUserMapper, ldapHistory.getId(), maxErrorUsers);
+        try {
+            syncUsersFromLdapServer(ldapTemplate, ldap, ldapSyncReport, errorUserSink, syncType);
+        } finally {
+            errorUserSink.flush();
+        }
+        if (errorUserSink.getOverflow() > 0) {
+            logger.warn("error users exceed the limit {}, {} error users are not recorded", maxErrorUsers, errorUserSink.getOverflow());
+        }
         logger.info("@@@ syncing users has been finished, sync type: {}, ldapSyncReport: {}", syncType, ldapSyncReport);
         fallback.callback(ldapSyncReport, ldapHistory);
     }
 
     private void syncUsersFromLdapServer(LdapTemplate ldapTemplate, LdapDTO ldap,
-                                         LdapSyncReport ldapSyncReport, Long ldapHistoryId,
+                                         LdapSyncReport ldapSyncReport, LdapErrorUserSink errorUserSink,
                                          String syncType) {
         //搜索控件
         final SearchControls searchControls = new SearchControls();
@@ -98,46 +127,101 @@ public class LdapSyncUserTask {
         } catch (IllegalAccessException e) {
             logger.warn("reflect to get field value failed, exception: {}", e);
         }
-        SingleContextSource.doWithSingleContext(
-                ldapTemplate.getContextSource(), new LdapOperationsCallback<List<UserDTO>>() {
-                    @Override
-                    public List<UserDTO> doWithLdapOperations(LdapOperations operations) {
-                        Integer page = 1;
-                        do {
-                            List<UserDTO> users = new ArrayList<>();
-                            List<LdapErrorUserDTO> errorUsers = new ArrayList<>();
-                            List<Attributes> attributesList =
-                                    operations.search("", andFilter.toString(), searchControls,
-                                            attributesMapper, processor);
-                            //将当前分页的数据做插入处理
-                            if (attributesList.isEmpty()) {
-                                logger.warn("can not find any attributes while filter is {}, page is {}", andFilter, page);
-                                break;
-                            } else {
-                                processUserFromAttributes(ldap, attributesList, users, ldapSyncReport, errorUsers);
-                                attributesList.clear();
-                            }
-                            //当前页做数据写入
-                            if (!users.isEmpty()) {
-                                switch (syncType) {
-                                    case "sync":
-                                        compareWithDbAndInsert(users, ldapSyncReport, errorUsers, ldapHistoryId);
-                                        break;
-                                    case "disable":
-                                        disable(users, ldapSyncReport, errorUsers, ldapHistoryId);
-                                        break;
-                                    default:
-                                        break;
+        //读取线程只负责拉取分页，写库交给写库线程池，通过信号量限制在途分页数
+        final int permits = Math.max(maxPendingPages, 1);
+        final Semaphore pendingPages = new Semaphore(permits);
+        try {
+            SingleContextSource.doWithSingleContext(
+                    ldapTemplate.getContextSource(), new LdapOperationsCallback<List<UserDTO>>() {
+                        @Override
+                        public List<UserDTO> doWithLdapOperations(LdapOperations operations) {
+                            Integer page = 1;
+                            do {
+                                List<UserDTO> users = new ArrayList<>();
+                                List<LdapErrorUserDTO> errorUsers = new ArrayList<>();
+                                List<Attributes> attributesList =
+                                        operations.search("", andFilter.toString(), searchControls,
+                                                attributesMapper, processor);
+                                if (attributesList.isEmpty()) {
+                                    logger.warn("can not find any attributes while filter is {}, page is {}", andFilter, page);
+                                    break;
+                                } else {
+                                    processUserFromAttributes(ldap, attributesList, users, ldapSyncReport, errorUsers);
+                                    attributesList.clear();
+                                }
+                                //当前页交给写库线程池处理
+                                if (!users.isEmpty()) {
+                                    submitPage(pendingPages, page, users, errorUsers, ldapSyncReport, errorUserSink, syncType);
                                 }
-                            }
-                            users.clear();
-                            errorUsers.clear();
-                            page++;
-                        } while (processor.hasMore());
-//                        } while (processor.getCookie().getCookie() != null);
-                        return null;
-                    }
-                }, false, ignorePartialResultException, ignoreNameNotFoundException);
+                                page++;
+                            } while (processor.hasMore());
+                            return null;
+                        }
+                    }, false, ignorePartialResultException, ignoreNameNotFoundException);
+        } finally {
+            //等待所有已提交的分页写完，保证回调时统计结果完整
+            pendingPages.acquireUninterruptibly(permits);
+        }
+    }
+
+    private void submitPage(Semaphore pendingPages, Integer page, List<UserDTO> users,
+                            List<LdapErrorUserDTO> errorUsers, LdapSyncReport ldapSyncReport,
+                            LdapErrorUserSink errorUserSink, String syncType) {
+        pendingPages.acquireUninterruptibly();
+        Runnable writer = () -> {
+            try {
+                writePage(page, users, errorUsers, ldapSyncReport, syncType);
+                saveErrorUsers(page, errorUsers, errorUserSink);
+            } finally {
+                users.clear();
+                errorUsers.clear();
+                pendingPages.release();
+            }
+        };
+        try {
+            ldapWriterExecutor.execute(writer);
+        } catch (TaskRejectedException e) {
+            logger.warn("ldap writer executor rejected page {}, write it in reader thread", page);
+            writer.run();
+        }
+    }
+
+    /**
+     * 分页先在自己的统计中累加，写完后合并到总的统计。写入失败时，新增在batchCreateUsers的事务内已回滚，不再计为新增；
+     * 已确定更新或失败的用户保持原来的计数，其余用户计为失败
+     */
+    private void writePage(Integer page, List<UserDTO> users, List<LdapErrorUserDTO> errorUsers,
+                           LdapSyncReport ldapSyncReport, String syncType) {
+        LdapSyncReport pageReport = new LdapSyncReport(ldapSyncReport.getOrganizationId());
+        try {
+            switch (syncType) {
+                case "sync":
+                    compareWithDbAndInsert(users, pageReport, errorUsers);
+                    break;
+                case "disable":
+                    disable(users, pageReport, errorUsers);
+                    break;
+                default:
+                    break;
+            }
+        } catch (Exception e) {
+            pageReport.reduceInsert(pageReport.getInsert());
+            pageReport.incrementError(users.size() - pageReport.getUpdate() - pageReport.getError());
+            logger.error("write users of page {} failed", page, e);
+        }
+        ldapSyncReport.merge(pageReport);
+    }
+
+    /**
+     * 分页写完后失败用户批量入库，入库失败不影响统计
+     */
+    private void saveErrorUsers(Integer page, List<LdapErrorUserDTO> errorUsers, LdapErrorUserSink errorUserSink) {
+        try {
+            errorUserSink.add(errorUsers);
+            errorUserSink.flush();
+        } catch (Exception e) {
+            logger.error("save error users of page {} failed", page, e);
+        }
     }
 
     private AndFilter getFilter(LdapDTO ldap) {
@@ -283,7 +367,7 @@ public class LdapSyncUserTask {
     }
 
     private void compareWithDbAndInsert(List<UserDTO> users, LdapSyncReport ldapSyncReport,
-                                        List<LdapErrorUserDTO> errorUsers, Long ldapHistoryId) {
+                                        List<LdapErrorUserDTO> errorUsers) {
         ldapSyncReport.incrementCount(Long.valueOf(users.size()));
         List<UserDTO> insertUsers = new ArrayList<>();
         Set<String> nameSet = users.stream().map(UserDTO::getLoginName).collect(Collectors.toSet());
@@ -291,14 +375,15 @@ public class LdapSyncUserTask {
         //oracle In-list上限为1000，这里List size要小于1000
         List<Set<String>> subNameSet = CollectionUtils.subSet(nameSet, 999);
         List<Set<String>> subEmailSet = CollectionUtils.subSet(emailSet, 999);
-        Set<String> existedNames = new HashSet<>();
+        Map<String, UserDTO> existedUsers = selectByLoginNames(subNameSet);
         Set<String> existedEmails = new HashSet<>();
-        subNameSet.forEach(set -> existedNames.addAll(userMapper.matchLoginName(set)));
         subEmailSet.forEach(set -> existedEmails.addAll(userMapper.matchEmail(set)));
 
+        List<UserDTO> enableUsers = new ArrayList<>();
         users.forEach(user -> {
             String loginName = user.getLoginName();
-            if (!existedNames.contains(loginName)) {
+            UserDTO userDTO = existedUsers.get(loginName);
+            if (userDTO == null) {
                 if (existedEmails.contains(user.getEmail())) {
                     //邮箱重复，报错
                     ldapSyncReport.incrementError();
@@ -314,41 +399,53 @@ public class LdapSyncUserTask {
                     insertUsers.add(user);
                     ldapSyncReport.incrementNewInsert();
                 }
-            } else {
-                UserDTO userDTO = selectByLoginName(loginName);
+            } else if (userDTO.getLastUpdatedBy().equals(0L) && !userDTO.getEnabled()) {
                 //lastUpdatedBy=0则是程序同步的，跳过在用户界面上手动禁用的情况
-                if (userDTO.getLastUpdatedBy().equals(0L) && !userDTO.getEnabled()) {
-                    organizationUserService.enableUser(ldapSyncReport.getOrganizationId(), userDTO.getId());
-                    ldapSyncReport.incrementUpdate();
-                }
+                enableUsers.add(userDTO);
             }
 
         });
+        if (!enableUsers.isEmpty()) {
+            organizationUserService.batchEnableUsers(ldapSyncReport.getOrganizationId(), enableUsers);
+            ldapSyncReport.incrementUpdate(Long.valueOf(enableUsers.size()));
+        }
         insertUser(ldapSyncReport, errorUsers, insertUsers);
-        insertErrorUser(errorUsers, ldapHistoryId);
 
-        cleanAfterDataPersistence(insertUsers, nameSet, emailSet, subNameSet, subEmailSet, existedNames, existedEmails);
+        cleanAfterDataPersistence(insertUsers, nameSet, emailSet, subNameSet, subEmailSet, existedUsers, existedEmails);
     }
 
-    private UserDTO selectByLoginName(String loginName) {
-        UserDTO dto = new UserDTO();
-        dto.setLoginName(loginName);
-        return userMapper.selectOne(dto);
+    /**
+     * 按登录名批量查询已存在的用户
+     */
+    private Map<String, UserDTO> selectByLoginNames(List<Set<String>> subNameSet) {
+        Map<String, UserDTO> existedUsers = new HashMap<>();
+        subNameSet.forEach(set ->
+                userMapper.listUsersByLoginNames(set.toArray(new String[0]), false)
+                        .forEach(user -> existedUsers.put(user.getLoginName(), user)));
+        return existedUsers;
     }
 
 
     private void disable(List<UserDTO> users, LdapSyncReport ldapSyncReport,
-                         List<LdapErrorUserDTO> errorUsers, Long ldapHistoryId) {
+                         List<LdapErrorUserDTO> errorUsers) {
+        Set<String> nameSet = users.stream().map(UserDTO::getLoginName).collect(Collectors.toSet());
+        Map<String, UserDTO> existedUsers = selectByLoginNames(CollectionUtils.subSet(nameSet, 999));
+        //按组织分组，每个组织一条update语句一个批量事件
+        Map<Long, List<UserDTO>> disableUsers = new HashMap<>();
+        Map<Long, List<UserDTO>> ldapUsers = new HashMap<>();
         users.forEach(user -> {
-            UserDTO userDTO = selectByLoginName(user.getLoginName());
-            if (userDTO == null) {
-                return;
+            UserDTO userDTO = existedUsers.get(user.getLoginName());
+            if (userDTO != null && userDTO.getEnabled()) {
+                disableUsers.computeIfAbsent(userDTO.getOrganizationId(), k -> new ArrayList<>()).add(userDTO);
+                ldapUsers.computeIfAbsent(userDTO.getOrganizationId(), k -> new ArrayList<>()).add(user);
             }
-            if (userDTO.getEnabled()) {
-                try {
-                    organizationUserService.disableUser(userDTO.getOrganizationId(), userDTO.getId());
-                    ldapSyncReport.incrementUpdate();
-                } catch (CommonException e) {
+        });
+        disableUsers.forEach((organizationId, list) -> {
+            try {
+                organizationUserService.batchDisableUsers(organizationId, list);
+                ldapSyncReport.incrementUpdate(Long.valueOf(list.size()));
+            } catch (CommonException e) {
+                ldapUsers.get(organizationId).forEach(user -> {
                     LdapErrorUserDTO errorUser = new LdapErrorUserDTO();
                     errorUser.setUuid(user.getUuid());
                     errorUser.setLoginName(user.getLoginName());
@@ -357,22 +454,12 @@ public class LdapSyncUserTask {
                     errorUser.setPhone(user.getPhone());
                     errorUser.setCause(LdapErrorUserCause.SEND_MESSAGE_FAILED.value());
                     errorUsers.add(errorUser);
-                }
+                });
             }
         });
-        insertErrorUser(errorUsers, ldapHistoryId);
     }
 
 
-    private void insertErrorUser(List<LdapErrorUserDTO> errorUsers, Long ldapHistoryId) {
-        if (!errorUsers.isEmpty()) {
-            errorUsers.forEach(errorUser -> {
-                errorUser.setLdapHistoryId(ldapHistoryId);
-                ldapErrorUserMapper.insert(errorUser);
-            });
-        }
-    }
-
     private void insertUser(LdapSyncReport ldapSyncReport, List<LdapErrorUserDTO> errorUsers, List<UserDTO> insertUsers) {
         if (!insertUsers.isEmpty()) {
             List<LdapErrorUserDTO> errorUserList = organizationUserService.batchCreateUsers(insertUsers);
@@ -396,13 +483,13 @@ public class LdapSyncUserTask {
 
     private void cleanAfterDataPersistence(List<UserDTO> insertUsers, Set<String> nameSet, Set<String> emailSet,
                                            List<Set<String>> subNameSet, List<Set<String>> subEmailSet,
-                                           Set<String> existedNames, Set<String> existedEmails) {
+                                           Map<String, UserDTO> existedUsers, Set<String> existedEmails) {
         insertUsers.clear();
         nameSet.clear();
         emailSet.clear();
         subNameSet.clear();
         subEmailSet.clear();
-        existedNames.clear();
+        existedUsers.clear();
         existedEmails.clear();
     }
 
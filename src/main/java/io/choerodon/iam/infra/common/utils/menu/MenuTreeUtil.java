@@ -1,68 +1,85 @@
-//package io.choerodon.iam.infra.common.utils.menu;
-//
-//import io.choerodon.iam.api.dto.MenuDTO;
-//
-//import java.util.ArrayList;
-//import java.util.Collections;
-//import java.util.List;
-//
-///**
-// * 递归解析菜单列表为菜单树的形式
-// *
-// * @author wuguokai
-// */
-//public class MenuTreeUtil {
-//
-//    private MenuTreeUtil() {
-//    }
-//
-//    //将菜单格式化成树形
-//    public static List<MenuDTO> formatMenu(List<MenuDTO> entryList) {
-//        List<MenuDTO> displayMenus = new ArrayList<>();
-//        for (MenuDTO menuDTO : entryList) {
-//            if ((menuDTO.getParentId() == null || menuDTO.getParentId() == 0)
-//                    && ("root".equals(menuDTO.getType()) || "dir".equals(menuDTO.getType()))) {
-//                menuDTO.setSubMenus(processMenu(menuDTO.getId(), entryList));
-//                displayMenus.add(menuDTO);
-//            }
-//        }
-//        if (!displayMenus.isEmpty()) {
-//            return sortMenu(displayMenus);
-//        }
-//        return displayMenus;
-//    }
-//
-//    //递归将菜单格式化成树形
-//    private static List<MenuDTO> processMenu(Long id, List<MenuDTO> menus) {
-//        List<MenuDTO> subMenus = null;
-//        for (MenuDTO menu : menus) {
-//            if (menu.getParentId().equals(id)) {
-//                if (subMenus == null) {
-//                    subMenus = new ArrayList<>();
-//                }
-//                menu.setSubMenus(processMenu(menu.getId(), menus));
-//                subMenus.add(menu);
-//            }
-//        }
-//        if (subMenus != null) {
-//            return sortMenu(subMenus);
-//        }
-//        return subMenus;
-//    }
-//
-//    private static List<MenuDTO> sortMenu(List<MenuDTO> entryList) {
-//        Collections.sort(entryList, (MenuDTO m1, MenuDTO m2) -> {
-//            if (m1.getSort() == null) {
-//                return -1;
-//            }
-//            if (m2.getSort() == null || m1.getSort() > m2.getSort()) {
-//                return 1;
-//            }
-//            if (m1.getSort().equals(m2.getSort())) {
-//                return 0;
-//            }
-//            return -1;
-//        });
-//        return entryList;
-//    }
-//}
+package io.choerodon.iam.infra.common.utils.menu;
+
+import io.choerodon.base.enums.MenuType;
+import io.choerodon.iam.infra.dto.MenuDTO;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 将菜单列表组装为以根菜单为起点的菜单树
+ * <p>
+ * 先按parentCode(忽略大小写)把菜单分组，再从根菜单向下遍历一次，整体为线性复杂度。
+ * 同级菜单按sort升序，sort为空的排在最后，sort相同时按id升序，结果与输入顺序无关
+ *
+ * @author wuguokai
+ */
+public class MenuTreeUtil {
+
+    private static final Comparator<MenuDTO> MENU_ORDER =
+            Comparator.comparing(MenuDTO::getSort, Comparator.nullsLast(Comparator.<Integer>naturalOrder()))
+                    .thenComparing(MenuDTO::getId, Comparator.nullsLast(Comparator.<Long>naturalOrder()));
+
+    private MenuTreeUtil() {
+    }
+
+    /**
+     * 把menus组装到parentMenu的子菜单下，只挂载目录(menu)和叶子菜单(menu_item)，会修改传入菜单的subMenus
+     *
+     * @param parentMenu      根菜单
+     * @param menus           所有菜单
+     * @param isShowEmptyMenu 是否显示空目录
+     */
+    public static void toTreeMenu(MenuDTO parentMenu, Collection<MenuDTO> menus, boolean isShowEmptyMenu) {
+        Map<String, List<MenuDTO>> childrenMap = new HashMap<>(menus.size());
+        for (MenuDTO menu : menus) {
+            if (menu.getParentCode() != null
+                    && (MenuType.isMenuItem(menu.getType()) || MenuType.isMenu(menu.getType()))) {
+                childrenMap.computeIfAbsent(normalize(menu.getParentCode()), k -> new ArrayList<>()).add(menu);
+            }
+        }
+        Set<String> visited = new HashSet<>();
+        visited.add(normalize(parentMenu.getCode()));
+        processMenu(parentMenu, childrenMap, visited, isShowEmptyMenu);
+    }
+
+    private static void processMenu(MenuDTO parentMenu, Map<String, List<MenuDTO>> childrenMap,
+                                    Set<String> visited, boolean isShowEmptyMenu) {
+        List<MenuDTO> children = childrenMap.get(normalize(parentMenu.getCode()));
+        List<MenuDTO> subMenus = new ArrayList<>();
+        if (children != null) {
+            for (MenuDTO menu : children) {
+                if (MenuType.isMenuItem(menu.getType())) {
+                    subMenus.add(menu);
+                    continue;
+                }
+                //目录code重复或成环时只挂载一次
+                if (!visited.add(normalize(menu.getCode()))) {
+                    continue;
+                }
+                processMenu(menu, childrenMap, visited, isShowEmptyMenu);
+                // 目录有叶子菜单才放到父级目录下(过滤空目录)
+                if (isShowEmptyMenu || menu.getSubMenus() != null) {
+                    subMenus.add(menu);
+                }
+            }
+        }
+        if (subMenus.isEmpty()) {
+            parentMenu.setSubMenus(null);
+        } else {
+            subMenus.sort(MENU_ORDER);
+            parentMenu.setSubMenus(subMenus);
+        }
+    }
+
+    private static String normalize(String code) {
+        return code == null ? null : code.toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,119 @@
+package io.choerodon.iam.infra.common.utils.saga;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.choerodon.asgard.saga.dto.StartInstanceDTO;
+import io.choerodon.asgard.saga.feign.SagaClient;
+import io.choerodon.core.iam.ResourceLevel;
+import io.choerodon.iam.api.dto.payload.UserMemberEventPayload;
+import io.choerodon.iam.infra.common.utils.CollectionUtils;
+import io.choerodon.iam.infra.dto.UserDTO;
+import io.choerodon.iam.infra.mapper.LabelMapper;
+import io.choerodon.iam.infra.mapper.UserMapper;
+import io.micrometer.core.instrument.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Async;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static io.choerodon.iam.infra.common.utils.SagaTopic.MemberRole.MEMBER_ROLE_UPDATE;
+
+/**
+ * 角色标签变更后，通知拥有该角色的项目层用户标签的变化
+ * 在角色更新的事务提交后异步执行，按批次发送saga事件。发送失败的批次有限次重试，仍失败的计入iam.role.label.failures，
+ * 日志记录roleId和用户，重新保存该角色即可按当前数据重发
+ */
+@Component
+public class RoleLabelEventTask {
+    private static final Logger logger = LoggerFactory.getLogger(RoleLabelEventTask.class);
+
+    private static final String FAILURE_METRIC = "iam.role.label.failures";
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private UserMapper userMapper;
+
+    private LabelMapper labelMapper;
+
+    private SagaClient sagaClient;
+
+    /**
+     * 单个saga事件包含的最大用户数
+     */
+    @Value("${choerodon.saga.member-role.batch-size:1000}")
+    private int batchSize;
+
+    /**
+     * 单个批次发送失败后的重试次数
+     */
+    @Value("${choerodon.saga.member-role.retry-times:3}")
+    private int retryTimes;
+
+    /**
+     * 重试间隔，按重试次数递增
+     */
+    @Value("${choerodon.saga.member-role.retry-interval-millis:1000}")
+    private long retryIntervalMillis;
+
+    public RoleLabelEventTask(UserMapper userMapper, LabelMapper labelMapper, SagaClient sagaClient) {
+        this.userMapper = userMapper;
+        this.labelMapper = labelMapper;
+        this.sagaClient = sagaClient;
+    }
+
+    @Async("saga-executor")
+    public void sendRoleLabelEvent(Long roleId) {
+        String sourceType = ResourceLevel.PROJECT.value();
+        List<UserDTO> users = userMapper.selectUsersFromMemberRoleByOptions(roleId, "user", null, sourceType, null, null);
+        if (users.isEmpty()) {
+            return;
+        }
+        //一次查询所有用户的标签
+        Map<Long, Set<String>> userLabels = new HashMap<>();
+        labelMapper.selectUserLabelNamesByRoleId(roleId, sourceType).forEach(label ->
+                userLabels.computeIfAbsent(label.getUserId(), k -> new HashSet<>()).add(label.getName()));
+        List<UserMemberEventPayload> userMemberEventPayloads = new ArrayList<>(users.size());
+        users.forEach(user -> {
+            UserMemberEventPayload payload = new UserMemberEventPayload();
+            payload.setResourceId(user.getSourceId());
+            payload.setUserId(user.getId());
+            payload.setResourceType(sourceType);
+            payload.setUsername(user.getLoginName());
+            payload.setRoleLabels(userLabels.getOrDefault(user.getId(), new HashSet<>()));
+            userMemberEventPayloads.add(payload);
+        });
+        CollectionUtils.subList(userMemberEventPayloads, Math.max(batchSize, 1)).forEach(payloads -> {
+            String refIds = payloads.stream().map(t -> String.valueOf(t.getUserId())).collect(Collectors.joining(","));
+            try {
+                String input = mapper.writeValueAsString(payloads);
+                startSagaWithRetry(roleId, new StartInstanceDTO(input, "users", refIds));
+            } catch (Exception e) {
+                if (e instanceof InterruptedException) {
+                    Thread.currentThread().interrupt();
+                }
+                Metrics.counter(FAILURE_METRIC).increment();
+                logger.error("send role label event failed, roleId: {}, userIds: {}", roleId, refIds, e);
+            }
+        });
+        logger.info("send role label event of role {} to {} users", roleId, users.size());
+    }
+
+    private void startSagaWithRetry(Long roleId, StartInstanceDTO startInstanceDTO) throws InterruptedException {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                sagaClient.startSaga(MEMBER_ROLE_UPDATE, startInstanceDTO);
+                return;
+            } catch (RuntimeException e) {
+                if (attempt >= retryTimes) {
+                    throw e;
+                }
+                logger.warn("send role label event failed, roleId: {}, retry {}/{}, exception: {}",
+                        roleId, attempt + 1, retryTimes, e.getMessage());
+                Thread.sleep(retryIntervalMillis * (attempt + 1));
+            }
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package io.choerodon.iam.infra.common.utils.search;
+
+import io.choerodon.iam.infra.common.utils.CollectionUtils;
+import io.choerodon.iam.infra.dto.UserDTO;
+import io.choerodon.iam.infra.dto.UserSearchGramDTO;
+import io.choerodon.iam.infra.mapper.UserSearchGramMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * 用户全文搜索的二元分词索引，存放在iam_user_search_gram
+ * <p>
+ * 登录名、真实姓名和邮箱转小写后切分为连续两个字符的分词，查询时先用搜索词的全部分词在索引表中筛出候选用户，
+ * 再由原有的LIKE条件精确过滤，结果与全表LIKE一致。只包含一个字符或带LIKE通配符的搜索词不参与筛选。
+ * <p>
+ * 默认不开启；开启后若索引表中没有重建完成标记，启动时在后台按id分页重建，重建完成前查询不使用索引。
+ * 重建开始时删除标记，写完最后一批后再写入标记(user_id为0的行)，其他实例或中断的重建留下的不完整索引不会被使用。
+ * 如需强制重建，可删除标记行或设置choerodon.user.search.index.rebuild-on-startup
+ */
+@Component
+public class UserSearchIndex {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(UserSearchIndex.class);
+
+    private static final int GRAM_LENGTH = 2;
+
+    /**
+     * oracle In-list上限为1000，单次查询的分词数和每批插入的行数都要小于1000
+     */
+    private static final int BATCH_SIZE = 999;
+
+    /**
+     * 重建完成标记，gram长度与二元分词不同，不会被查询命中
+     */
+    private static final Long MARKER_USER_ID = 0L;
+
+    private static final String MARKER_GRAM = "#ready";
+
+    private final UserSearchGramMapper userSearchGramMapper;
+
+    private final boolean enabled;
+
+    private final boolean rebuildOnStartup;
+
+    private volatile boolean ready;
+
+    public UserSearchIndex(UserSearchGramMapper userSearchGramMapper,
+                           @Value("${choerodon.user.search.index.enabled:false}") boolean enabled,
+                           @Value("${choerodon.user.search.index.rebuild-on-startup:false}") boolean rebuildOnStartup) {
+        this.userSearchGramMapper = userSearchGramMapper;
+        this.enabled = enabled;
+        this.rebuildOnStartup = rebuildOnStartup;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        if (!enabled) {
+            return;
+        }
+        if (!rebuildOnStartup && userSearchGramMapper.selectCount(marker()) > 0) {
+            ready = true;
+            return;
+        }
+        Thread thread = new Thread(this::rebuild, "user-search-index-rebuild");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * 新增或修改了登录名、真实姓名、邮箱的用户重新写入索引，需在写用户的事务中调用
+     */
+    public void index(Collection<UserDTO> users) {
+        if (!enabled || users.isEmpty()) {
+            return;
+        }
+        Set<Long> userIds = users.stream().map(UserDTO::getId).collect(Collectors.toSet());
+        CollectionUtils.subSet(userIds, BATCH_SIZE).forEach(userSearchGramMapper::deleteByUserIds);
+        List<UserSearchGramDTO> rows = new ArrayList<>();
+        users.forEach(user -> grams(user.getLoginName(), user.getRealName(), user.getEmail())
+                .forEach(gram -> rows.add(new UserSearchGramDTO(user.getId(), user.getOrganizationId(), gram))));
+        CollectionUtils.subList(rows, BATCH_SIZE).forEach(userSearchGramMapper::batchInsert);
+    }
+
+    /**
+     * 删除用户的索引
+     */
+    public void remove(Collection<Long> userIds) {
+        if (!enabled || userIds.isEmpty()) {
+            return;
+        }
+        CollectionUtils.subSet(new HashSet<>(userIds), BATCH_SIZE).forEach(userSearchGramMapper::deleteByUserIds);
+    }
+
+    /**
+     * 计算搜索词用于筛选候选用户的分词
+     *
+     * @param terms 以LIKE '%term%'匹配的搜索词，可以为null
+     * @return 索引不可用或搜索词都无法切分时返回null，表示不筛选
+     */
+    public Set<String> queryGrams(String... terms) {
+        if (!ready) {
+            return null;
+        }
+        Set<String> grams = new LinkedHashSet<>();
+        for (String term : terms) {
+            if (term != null && term.indexOf('%') < 0 && term.indexOf('_') < 0) {
+                grams.addAll(grams(term));
+            }
+        }
+        if (grams.isEmpty()) {
+            return null;
+        }
+        //只取部分分词筛选出的候选集仍然包含所有匹配结果
+        return grams.size() > BATCH_SIZE ? grams.stream().limit(BATCH_SIZE).collect(Collectors.toCollection(LinkedHashSet::new)) : grams;
+    }
+
+    private void rebuild() {
+        long start = System.currentTimeMillis();
+        long lastId = 0L;
+        long count = 0;
+        try {
+            userSearchGramMapper.deleteByUserIds(Collections.singleton(MARKER_USER_ID));
+            List<UserDTO> users;
+            do {
+                users = userSearchGramMapper.selectUsersAfter(lastId, BATCH_SIZE);
+                if (!users.isEmpty()) {
+                    index(users);
+                    lastId = users.get(users.size() - 1).getId();
+                    count += users.size();
+                }
+            } while (users.size() == BATCH_SIZE);
+            userSearchGramMapper.batchInsert(Collections.singletonList(marker()));
+            ready = true;
+            LOGGER.info("rebuild user search index finished, users: {}, cost: {}ms", count, System.currentTimeMillis() - start);
+        } catch (Exception e) {
+            LOGGER.error("rebuild user search index failed at user id {}, search falls back to full scan", lastId, e);
+        }
+    }
+
+    private static UserSearchGramDTO marker() {
+        return new UserSearchGramDTO(MARKER_USER_ID, MARKER_USER_ID, MARKER_GRAM);
+    }
+
+    private static Set<String> grams(String... values) {
+        Set<String> grams = new LinkedHashSet<>();
+        for (String value : values) {
+            if (value == null) {
+                continue;
+            }
+            String normalized = value.toLowerCase(Locale.ROOT);
+            for (int i = 0; i + GRAM_LENGTH <= normalized.length(); i++) {
+                grams.add(normalized.substring(i, i + GRAM_LENGTH));
+            }
+        }
+        return grams.isEmpty() ? Collections.emptySet() : grams;
+    }
+}
@@ -29,6 +29,12 @@ public class LabelDTO extends BaseDTO {
     @ApiModelProperty(value = "描述")
     private String description;
 
+    @Transient
+    private Long roleId;
+
+    @Transient
+    private Long userId;
+
     public Long getId() {
         return id;
     }
@@ -68,4 +74,20 @@ public class LabelDTO extends BaseDTO {
     public void setDescription(String description) {
         this.description = description;
     }
+
+    public Long getRoleId() {
+        return roleId;
+    }
+
+    public void setRoleId(Long roleId) {
+        this.roleId = roleId;
+    }
+
+    public Long getUserId() {
+        return userId;
+    }
+
+    public void setUserId(Long userId) {
+        this.userId = userId;
+    }
 }
@@ -0,0 +1,66 @@
+package io.choerodon.iam.infra.dto;
+
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Table;
+
+/**
+ * 用户全文搜索的分词索引
+ *
+ * @author agent
+ */
+@Table(name = "iam_user_search_gram")
+public class UserSearchGramDTO {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    private Long userId;
+
+    private Long organizationId;
+
+    private String gram;
+
+    public UserSearchGramDTO() {
+    }
+
+    public UserSearchGramDTO(Long userId, Long organizationId, String gram) {
+        this.userId = userId;
+        this.organizationId = organizationId;
+        this.gram = gram;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public Long getUserId() {
+        return userId;
+    }
+
+    public void setUserId(Long userId) {
+        this.userId = userId;
+    }
+
+    public Long getOrganizationId() {
+        return organizationId;
+    }
+
+    public void setOrganizationId(Long organizationId) {
+        this.organizationId = organizationId;
+    }
+
+    public String getGram() {
+        return gram;
+    }
+
+    public void setGram(String gram) {
+        this.gram = gram;
+    }
+}
@@ -1,5 +1,7 @@
 package io.choerodon.iam.infra.mapper;
 
+import java.util.Collection;
+import java.util.Date;
 import java.util.List;
 
 import io.choerodon.iam.infra.dto.AccessTokenDTO;
@@ -12,9 +14,43 @@ import org.apache.ibatis.annotations.Param;
  */
 public interface AccessTokenMapper extends Mapper<AccessTokenDTO> {
 
-    List<AccessTokenDTO> selectTokens(@Param("userName") String userName,
-                                        @Param("clientId") String clientId);
+    /**
+     * 查询用户的token列表，不读取Token对象。当前token排在最前，其余按创建时间倒序
+     *
+     * @param currentTokenId 当前token的token_id
+     */
+    List<AccessTokenDTO> selectTokenPage(@Param("userName") String userName,
+                                         @Param("clientId") String clientId,
+                                         @Param("currentTokenId") String currentTokenId);
 
+    /**
+     * 查询存在的token_id
+     */
+    List<String> selectTokenIds(@Param("tokenIds") Collection<String> tokenIds);
 
     List<AccessTokenDTO> selectTokenList(@Param("tokenIds") List<String> tokenIds);
+
+    /**
+     * 按token_id升序分批查询还没有过期时间的token
+     *
+     * @param lastTokenId 上一批最后一条的token_id，第一批传null
+     * @param size        每批条数
+     * @return token_id和token对象
+     */
+    List<AccessTokenDTO> selectWithoutExpiration(@Param("lastTokenId") String lastTokenId,
+                                                 @Param("size") int size);
+
+    /**
+     * 按expirationTime批量回写过期时间
+     */
+    int batchUpdateExpiration(@Param("tokens") List<AccessTokenDTO> tokens);
+
+    /**
+     * 查询一批过期时间早于now的token
+     *
+     * @return token_id和refresh_token
+     */
+    List<AccessTokenDTO> selectExpired(@Param("now") Date now, @Param("size") int size);
+
+    int deleteByTokenIds(@Param("tokenIds") Collection<String> tokenIds);
 }
@@ -5,6 +5,7 @@ import io.choerodon.iam.infra.dto.ApplicationExplorationDTO;
 import io.choerodon.mybatis.common.Mapper;
 import org.apache.ibatis.annotations.Param;
 
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -107,4 +108,39 @@ public interface ApplicationExplorationMapper extends Mapper<ApplicationExplorat
      * @return
      */
     List<ApplicationExplorationDTO> selectDescendants(@Param("path") String path);
+
+    /**
+     * 查询组织下所有组合关系的边(parent_id, application_id)，用于构建内存中的组合关系图
+     *
+     * @param organizationId 组织id
+     * @return
+     */
+    List<ApplicationExplorationDTO> selectCombinationEdges(@Param("organizationId") Long organizationId);
+
+    /**
+     * 根据根节点id集合查询以这些节点为根的所有路径，即这些节点的所有后代，包含自己
+     *
+     * @param rootIds 根节点id集合
+     * @return
+     */
+    List<ApplicationExplorationDTO> selectDescendantByRootIds(@Param("rootIds") Set<Long> rootIds);
+
+    /**
+     * 批量插入路径
+     *
+     * @param applicationExplorations
+     * @param userId 操作人，写入created_by和last_updated_by
+     * @return
+     */
+    int batchInsert(@Param("applicationExplorations") List<ApplicationExplorationDTO> applicationExplorations,
+                    @Param("userId") Long userId);
+
+    /**
+     * 根据路径批量删除
+     *
+     * @param hashcodes 路径的hash值
+     * @param paths     路径
+     * @return
+     */
+    int deleteByPaths(@Param("hashcodes") Set<String> hashcodes, @Param("paths") Collection<String> paths);
 }
@@ -36,4 +36,12 @@ public interface ApplicationMapper extends Mapper<ApplicationDTO> {
      * @return
      */
     List<ApplicationDTO> selectWithProject(@Param("organizationId") Long organizationId);
+
+    /**
+     * 根据id集合查应用附带项目信息
+     *
+     * @param idSet
+     * @return
+     */
+    List<ApplicationDTO> selectWithProjectByIds(@Param("idSet") Set<Long> idSet);
 }
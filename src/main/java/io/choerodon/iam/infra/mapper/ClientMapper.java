@@ -1,8 +1,10 @@
 package io.choerodon.iam.infra.mapper;
 
 import java.util.List;
+import java.util.Set;
 
 import io.choerodon.iam.infra.dto.ClientDTO;
+import io.choerodon.iam.infra.dto.RoleDTO;
 import io.choerodon.mybatis.common.Mapper;
 import org.apache.ibatis.annotations.Param;
 
@@ -31,6 +33,16 @@ public interface ClientMapper extends Mapper<ClientDTO> {
             @Param("clientRoleSearchDTO") ClientRoleQuery clientRoleSearchDTO,
             @Param("param") String param);
 
+    /**
+     * 按角色分组统计客户端数，查询条件与selectClientCountFromMemberRoleByOptions相同，返回的角色只有id和userCount
+     */
+    List<RoleDTO> selectClientCountsGroupByRole(
+            @Param("roleIds") Set<Long> roleIds,
+            @Param("sourceType") String sourceType,
+            @Param("sourceId") Long sourceId,
+            @Param("clientRoleSearchDTO") ClientRoleQuery clientRoleSearchDTO,
+            @Param("param") String param);
+
     List<ClientDTO> selectClientsByRoleIdAndOptions(
             @Param("roleId") Long roleId,
             @Param("sourceId") Long sourceId,
@@ -18,5 +18,16 @@ public interface LabelMapper extends Mapper<LabelDTO> {
 
     Set<String> selectLabelNamesInRoleIds(List<Long> roleIds);
 
+    /**
+     * 批量查询角色的标签名，返回的标签带有所属的roleId
+     */
+    List<LabelDTO> selectRoleLabelNamesInRoleIds(@Param("roleIds") Set<Long> roleIds);
+
+    /**
+     * 查询在某个层级拥有该角色的所有用户的标签名，返回的标签带有所属的userId
+     */
+    List<LabelDTO> selectUserLabelNamesByRoleId(@Param("roleId") Long roleId,
+                                                @Param("sourceType") String sourceType);
+
     List<LabelDTO> listByOption(@Param("label") LabelDTO label);
 }
@@ -19,4 +19,12 @@ public interface LdapErrorUserMapper extends Mapper<LdapErrorUserDTO> {
      */
     List<LdapErrorUserDTO> fuzzyQuery(@Param("ldapHistoryId") Long ldapHistoryId,
                                       @Param("ldapErrorUserDTO") LdapErrorUserDTO ldapErrorUserDTO);
+
+    /**
+     * 多行插入失败用户
+     *
+     * @param errorUsers 失败用户，调用方需控制单批数量
+     * @return
+     */
+    int batchInsert(@Param("errorUsers") List<LdapErrorUserDTO> errorUsers);
 }
@@ -1,5 +1,6 @@
 package io.choerodon.iam.infra.mapper;
 
+import io.choerodon.iam.api.dto.SourceRoleDTO;
 import io.choerodon.iam.api.query.ClientRoleQuery;
 import io.choerodon.iam.infra.dto.ClientDTO;
 import io.choerodon.iam.infra.dto.MemberRoleDTO;
@@ -7,6 +8,7 @@ import io.choerodon.mybatis.common.Mapper;
 import org.apache.ibatis.annotations.Param;
 
 import java.util.List;
+import java.util.Set;
 
 /**
  * @author carllhw
@@ -16,6 +18,15 @@ public interface MemberRoleMapper extends Mapper<MemberRoleDTO> {
 
     List<Long> selectDeleteList(@Param("memberId") long memberId, @Param("sourceId") long sourceId, @Param("memberType") String memberType, @Param("sourceType") String sourceType, @Param("list") List<Long> deleteList);
 
+    /**
+     * 一次查询用户在site层及多个组织、项目下拥有的角色和组织、项目的启用状态，
+     * 组织/项目下没有角色时返回一条role_id为空的记录
+     */
+    List<SourceRoleDTO> selectSourceRoles(@Param("memberId") Long memberId,
+                                          @Param("includeSite") boolean includeSite,
+                                          @Param("organizationIds") Set<Long> organizationIds,
+                                          @Param("projectIds") Set<Long> projectIds);
+
     int deleteMemberRoleByMemberIdAndMemberType(@Param("memberId") Long memberId,
                                                 @Param("memberType") String memberType);
 
@@ -33,4 +44,26 @@ public interface MemberRoleMapper extends Mapper<MemberRoleDTO> {
             @Param("param") String param,
             @Param("start") Integer start,
             @Param("size") Integer size);
+
+    /**
+     * 批量查询一批成员在某个资源下的角色分配
+     */
+    List<MemberRoleDTO> selectByMemberIds(@Param("sourceId") Long sourceId,
+                                          @Param("sourceType") String sourceType,
+                                          @Param("memberType") String memberType,
+                                          @Param("memberIds") Set<Long> memberIds);
+
+    /**
+     * 多行插入角色分配，调用方需控制单批数量
+     *
+     * @param memberRoles 角色分配
+     * @param userId      操作人，写入created_by和last_updated_by
+     */
+    int batchInsert(@Param("memberRoles") List<MemberRoleDTO> memberRoles,
+                    @Param("userId") Long userId);
+
+    /**
+     * 根据主键批量删除角色分配，调用方需控制单批数量
+     */
+    int deleteByIds(@Param("ids") List<Long> ids);
 }
@@ -6,7 +6,6 @@ import io.choerodon.mybatis.common.Mapper;
 import org.apache.ibatis.annotations.Param;
 
 import java.util.List;
-import java.util.Set;
 
 /**
  * @author wuguokai
@@ -19,8 +18,10 @@ public interface PermissionMapper extends Mapper<PermissionDTO> {
     List<PermissionDTO> selectByRoleId(@Param("roleId") Long roleId,
                                        @Param("params") String params);
 
-    Set<String> checkPermission(@Param("member_id") Long memberId, @Param("source_type") String sourceType,
-                                @Param("source_id") Long sourceId, @Param("codes") Set<String> codes);
+    /**
+     * 查询构建权限位图索引所需的字段：id, code, 层级, 是否公共/登录可访问
+     */
+    List<PermissionDTO> selectIndexItems();
 
     List<PermissionDTO> selectErrorLevelPermissionByRole(@Param("role") RoleDTO role);
 }
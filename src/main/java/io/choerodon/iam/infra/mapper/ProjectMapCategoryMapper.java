@@ -7,6 +7,7 @@ import io.choerodon.mybatis.common.Mapper;
 import org.apache.ibatis.annotations.Param;
 
 import java.util.List;
+import java.util.Set;
 
 
 /**
@@ -26,6 +27,12 @@ public interface ProjectMapCategoryMapper extends Mapper<ProjectMapCategoryDTO>
      */
     int batchInsert(@Param("records") List<ProjectMapCategoryDTO> records);
 
-    List<ProjectMapCategorySimpleDTO> selectAllProjectMapCategories();
+    /**
+     * 查询项目关联的类别名称，没有关联类别的项目返回一条类别为null的记录
+     *
+     * @param projectIds 项目id，oracle下size要小于1000
+     * @return 项目id与类别名称
+     */
+    List<ProjectMapCategorySimpleDTO> selectProjectMapCategoriesByProjectIds(@Param("projectIds") Set<Long> projectIds);
 
 }
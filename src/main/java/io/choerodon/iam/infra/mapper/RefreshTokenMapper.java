@@ -2,9 +2,14 @@ package io.choerodon.iam.infra.mapper;
 
 import io.choerodon.iam.infra.dto.RefreshTokenDTO;
 import io.choerodon.mybatis.common.Mapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.Collection;
 
 /**
  * @author Eugen
  */
 public interface RefreshTokenMapper extends Mapper<RefreshTokenDTO> {
+
+    int deleteByTokenIds(@Param("tokenIds") Collection<String> tokenIds);
 }
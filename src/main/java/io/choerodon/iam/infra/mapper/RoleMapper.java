@@ -6,6 +6,7 @@ import io.choerodon.mybatis.common.Mapper;
 import org.apache.ibatis.annotations.Param;
 
 import java.util.List;
+import java.util.Set;
 
 /**
  * @author wuguokai
@@ -36,4 +37,9 @@ public interface RoleMapper extends Mapper<RoleDTO> {
     List<RoleDTO> selectInitRolesByPermissionId(Long permissionId);
 
     List<RoleDTO> fuzzySearchRolesByName(@Param("roleName") String roleName, @Param("sourceType") String sourceType);
+
+    /**
+     * 根据角色编码批量查询，只返回id、code和层级
+     */
+    List<RoleDTO> selectByCodes(@Param("codes") Set<String> codes);
 }
@@ -12,4 +12,9 @@ import java.util.List;
 public interface RolePermissionMapper extends Mapper<RolePermissionDTO> {
 
     List<Long> queryExistingPermissionIdsByRoleIds(@Param("list") List<Long> roleIds);
+
+    /**
+     * 查询所有已启用角色的角色-权限关系，只包含role_id和permission_id
+     */
+    List<RolePermissionDTO> selectOfEnabledRoles();
 }
@@ -4,12 +4,14 @@ import java.util.List;
 import java.util.Set;
 
 import io.choerodon.iam.api.dto.UserSearchDTO;
+import io.choerodon.iam.infra.dto.RoleDTO;
 import io.choerodon.iam.infra.dto.UserDTO;
 import io.choerodon.mybatis.common.Mapper;
 import org.apache.ibatis.annotations.Param;
 
 import io.choerodon.iam.api.dto.RoleAssignmentSearchDTO;
 import io.choerodon.iam.api.dto.SimplifiedUserDTO;
+import io.choerodon.iam.api.dto.SlimUserDTO;
 import io.choerodon.iam.api.dto.UserRoleDTO;
 
 /**
@@ -18,8 +20,39 @@ import io.choerodon.iam.api.dto.UserRoleDTO;
  */
 public interface UserMapper extends Mapper<UserDTO> {
 
+    /**
+     * 全文搜索，按id倒序
+     *
+     * @param userSearchDTO 查询条件
+     * @param param         模糊匹配登录名、邮箱、真实姓名
+     * @param grams         搜索词的分词，不为空时先从iam_user_search_gram筛选候选用户
+     * @return
+     */
     List<UserDTO> fulltextSearch(@Param("userSearchDTO") UserSearchDTO userSearchDTO,
-                                 @Param("param") String param);
+                                 @Param("param") String param,
+                                 @Param("grams") Set<String> grams);
+
+    /**
+     * 全文搜索的游标分页，按id倒序查询id小于lastId的size条记录
+     *
+     * @param lastId 上一页最后一个用户id，为null时查询第一页
+     * @param size   查询条数
+     */
+    List<UserDTO> fulltextSearchBefore(@Param("userSearchDTO") UserSearchDTO userSearchDTO,
+                                       @Param("param") String param,
+                                       @Param("grams") Set<String> grams,
+                                       @Param("lastId") Long lastId,
+                                       @Param("size") int size);
+
+    /**
+     * 全文搜索的总数，最多数到limit条
+     *
+     * @param limit 计数上限
+     */
+    long fulltextSearchCount(@Param("userSearchDTO") UserSearchDTO userSearchDTO,
+                             @Param("param") String param,
+                             @Param("grams") Set<String> grams,
+                             @Param("limit") long limit);
 
     List<UserDTO> selectUserWithRolesByOption(
             @Param("roleAssignmentSearchDTO") RoleAssignmentSearchDTO roleAssignmentSearchDTO,
@@ -49,6 +82,17 @@ public interface UserMapper extends Mapper<UserDTO> {
                                                            RoleAssignmentSearchDTO roleAssignmentSearchDTO,
                                                    @Param("param") String param);
 
+    /**
+     * 按角色分组统计用户数，查询条件与selectUserCountFromMemberRoleByOptions相同，返回的角色只有id和userCount
+     */
+    List<RoleDTO> selectUserCountsGroupByRole(@Param("roleIds") Set<Long> roleIds,
+                                              @Param("memberType") String memberType,
+                                              @Param("sourceId") Long sourceId,
+                                              @Param("sourceType") String sourceType,
+                                              @Param("roleAssignmentSearchDTO")
+                                                      RoleAssignmentSearchDTO roleAssignmentSearchDTO,
+                                              @Param("param") String param);
+
     List<UserDTO> selectUsersFromMemberRoleByOptions(@Param("roleId") Long roleId,
                                                      @Param("memberType") String memberType,
                                                      @Param("sourceId") Long sourceId,
@@ -70,6 +114,10 @@ public interface UserMapper extends Mapper<UserDTO> {
 
     void disableListByIds(@Param("idSet") Set<Long> ids);
 
+    int updateEnabledByIds(@Param("idSet") Set<Long> ids,
+                           @Param("enabled") Boolean enabled,
+                           @Param("lastUpdatedBy") Long lastUpdatedBy);
+
     Set<String> matchEmail(@Param("emailSet") Set<String> emailSet);
 
     Long[] listUserIds();
@@ -113,4 +161,26 @@ public interface UserMapper extends Mapper<UserDTO> {
      */
     List<UserDTO> listUsersByLoginNames(@Param("loginNames") String[] loginNames,
                                         @Param("onlyEnabled") Boolean onlyEnabled);
+
+    /**
+     * 根据id批量查询精简用户信息，只查询{@link SlimUserDTO}对应的列
+     */
+    List<SlimUserDTO> listSlimUsersByIds(@Param("ids") Long[] ids, @Param("onlyEnabled") Boolean onlyEnabled);
+
+    /**
+     * 根据登录名批量查询精简用户信息
+     */
+    List<SlimUserDTO> listSlimUsersByLoginNames(@Param("loginNames") String[] loginNames,
+                                                @Param("onlyEnabled") Boolean onlyEnabled);
+
+    /**
+     * 根据邮箱批量查询启用的精简用户信息
+     */
+    List<SlimUserDTO> listSlimUsersByEmails(@Param("emails") String[] emails);
+
+    /**
+     * 多行插入用户，mysql由插入语句回写主键，调用方需控制单批数量
+     * 不使用@Param，参数名为list，才能回写主键
+     */
+    int batchInsert(List<UserDTO> users);
 }
\ No newline at end of file
@@ -0,0 +1,40 @@
+package io.choerodon.iam.infra.mapper;
+
+import io.choerodon.iam.infra.dto.UserDTO;
+import io.choerodon.iam.infra.dto.UserSearchGramDTO;
+import io.choerodon.mybatis.common.Mapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * @author agent
+ */
+public interface UserSearchGramMapper extends Mapper<UserSearchGramDTO> {
+
+    /**
+     * 多行插入分词
+     *
+     * @param grams 分词，调用方需控制单批数量
+     * @return
+     */
+    int batchInsert(@Param("grams") List<UserSearchGramDTO> grams);
+
+    /**
+     * 删除用户的所有分词
+     *
+     * @param userIds 用户id
+     * @return
+     */
+    int deleteByUserIds(@Param("userIds") Set<Long> userIds);
+
+    /**
+     * 按id升序从lastId之后查询一页用户的登录名、真实姓名、邮箱和组织，用于重建索引
+     *
+     * @param lastId 上一页最后一个用户id
+     * @param size   每页数量
+     * @return
+     */
+    List<UserDTO> selectUsersAfter(@Param("lastId") Long lastId, @Param("size") int size);
+}
@@ -48,4 +48,13 @@ databaseChangeLog(logicalFilePath: 'script/db/iam_application_exploration.groovy
     changeSet(author: 'superlee', id: '2019-07-18-iam-application-exploration-add-remark') {
         setTableRemarks(tableName:"IAM_APPLICATION_EXPLORATION",remarks: "应用探测表，用于记录应用的路径信息，父子关系等")
     }
-}
\ No newline at end of file
+
+    changeSet(author: 'agent@local', id: '2026-10-18-iam-application-exploration-add-index') {
+        createIndex(tableName: "IAM_APPLICATION_EXPLORATION", indexName: "IDX_IAM_APPLICATION_EXPLO_N1") {
+            column(name: "ROOT_ID")
+        }
+        createIndex(tableName: "IAM_APPLICATION_EXPLORATION", indexName: "IDX_IAM_APPLICATION_EXPLO_N2") {
+            column(name: "HASHCODE")
+        }
+    }
+}
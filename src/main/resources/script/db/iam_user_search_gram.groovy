@@ -0,0 +1,32 @@
+package script.db
+
+databaseChangeLog(logicalFilePath: 'script/db/iam_user_search_gram.groovy') {
+    changeSet(author: 'agent@local', id: '2026-10-18-iam-user-search-gram') {
+        if (helper.dbType().isSupportSequence()) {
+            createSequence(sequenceName: 'IAM_USER_SEARCH_GRAM_S', startValue: "1")
+        }
+        createTable(tableName: "IAM_USER_SEARCH_GRAM") {
+            column(name: 'ID', type: 'BIGINT UNSIGNED', autoIncrement: true, remarks: '表ID，主键，供其他表做外键，unsigned bigint、单表时自增、步长为 1') {
+                constraints(primaryKey: true, primaryKeyName: 'PK_IAM_USER_SEARCH_GRAM')
+            }
+            column(name: 'USER_ID', type: 'BIGINT UNSIGNED', remarks: '用户id') {
+                constraints(nullable: false)
+            }
+            column(name: 'ORGANIZATION_ID', type: 'BIGINT UNSIGNED', remarks: '用户所属组织id') {
+                constraints(nullable: false)
+            }
+            column(name: 'GRAM', type: 'VARCHAR(8)', remarks: '登录名、真实姓名、邮箱转小写后切分出的连续两个字符') {
+                constraints(nullable: false)
+            }
+        }
+        createIndex(tableName: "IAM_USER_SEARCH_GRAM", indexName: "IDX_IAM_USER_SEARCH_GRAM_N1") {
+            column(name: "GRAM")
+            column(name: "ORGANIZATION_ID")
+            column(name: "USER_ID")
+        }
+        createIndex(tableName: "IAM_USER_SEARCH_GRAM", indexName: "IDX_IAM_USER_SEARCH_GRAM_N2") {
+            column(name: "USER_ID")
+        }
+        setTableRemarks(tableName: "IAM_USER_SEARCH_GRAM", remarks: "用户全文搜索的二元分词索引表")
+    }
+}
@@ -34,4 +34,15 @@ databaseChangeLog(logicalFilePath: 'oauth_access_token.groovy') {
     changeSet(author: 'superlee', id: '2019-07-18-oauth-access-token-add-remark') {
         setTableRemarks(tableName:"OAUTH_ACCESS_TOKEN",remarks: "oauth认证access token表")
     }
+
+    changeSet(author: 'agent@local', id: '2026-10-18-oauth-access-token-add-expiration') {
+        addColumn(tableName: 'OAUTH_ACCESS_TOKEN') {
+            column(name: "EXPIRATION", type: "DATETIME", remarks: '过期时间，由清理过期token的任务从Token对象中补充') {
+                constraints(nullable: true)
+            }
+        }
+        createIndex(tableName: "OAUTH_ACCESS_TOKEN", indexName: "IDX_OAUTH_ACCESS_TOKEN_N1") {
+            column(name: "EXPIRATION")
+        }
+    }
 }
\ No newline at end of file
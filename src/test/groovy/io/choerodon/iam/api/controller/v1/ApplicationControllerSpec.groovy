@@ -9,6 +9,7 @@ import io.choerodon.iam.app.service.impl.ApplicationServiceImpl
 import io.choerodon.iam.infra.asserts.ApplicationAssertHelper
 import io.choerodon.iam.infra.asserts.OrganizationAssertHelper
 import io.choerodon.iam.infra.asserts.ProjectAssertHelper
+import io.choerodon.iam.infra.common.utils.cache.ApplicationCombinationCache
 import io.choerodon.iam.infra.dto.ApplicationDTO
 import io.choerodon.iam.infra.enums.ApplicationCategory
 import io.choerodon.iam.infra.enums.ApplicationType
@@ -41,6 +42,8 @@ class ApplicationControllerSpec extends Specification {
     ProjectAssertHelper projectAssertHelper
     @Autowired
     ApplicationAssertHelper applicationAssertHelper
+    @Autowired
+    ApplicationCombinationCache applicationCombinationCache
 
     ApplicationController controller
     TransactionalProducer producer
@@ -52,7 +55,7 @@ class ApplicationControllerSpec extends Specification {
     def "setup"() {
         producer = Mock(TransactionalProducer)
         ApplicationService service = new ApplicationServiceImpl(applicationMapper, producer, applicationExplorationMapper,
-                organizationAssertHelper, projectAssertHelper, applicationAssertHelper)
+                organizationAssertHelper, projectAssertHelper, applicationAssertHelper, applicationCombinationCache)
         controller = new ApplicationController(service)
     }
 
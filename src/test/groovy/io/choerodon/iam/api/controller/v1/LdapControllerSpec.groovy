@@ -388,7 +388,7 @@ class LdapControllerSpec extends Specification {
     @Transactional
     def "pagingQueryHistories"() {
         given:
-        LdapService ldapService = new LdapServiceImpl(null, null, null, null, null,null, ldapHistoryMapper)
+        LdapService ldapService = new LdapServiceImpl(null, null, null, null, null,null, ldapHistoryMapper, null)
         LdapController ldapController = new LdapController(ldapService)
         PageRequest pageRequest = new PageRequest(1, 20)
         LdapHistoryDTO ldapHistory = new LdapHistoryDTO()
@@ -406,7 +406,7 @@ class LdapControllerSpec extends Specification {
 
     def "pagingQueryErrorUsers"() {
         given:
-        LdapService ldapService = new LdapServiceImpl(null, null, null,null,null, ldapErrorUserMapper,null)
+        LdapService ldapService = new LdapServiceImpl(null, null, null,null,null, ldapErrorUserMapper,null, null)
         LdapController ldapController = new LdapController(ldapService)
         PageRequest pageRequest = new PageRequest(1, 10)
 
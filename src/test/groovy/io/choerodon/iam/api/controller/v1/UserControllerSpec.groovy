@@ -289,6 +289,21 @@ class UserControllerSpec extends Specification {
         entity.getBody().size() == 1
     }
 
+    def "ListSlimUsersByIds"() {
+        given: "构造请求参数"
+        long[] ids = new long[1]
+        ids[0] = 1
+
+        when: "调用方法"
+        def entity = restTemplate.postForEntity(BASE_PATH + "/ids/slim", ids, List)
+
+        then: "只返回精简用户信息"
+        entity.statusCode.is2xxSuccessful()
+        entity.getBody().size() == 1
+        entity.getBody().get(0).loginName != null
+        !entity.getBody().get(0).containsKey("timeZone")
+    }
+
     def "PagingQueryOrganizationAndRolesById"() {
         when: "调用方法"
         def entity = restTemplate.getForEntity(BASE_PATH + "/{id}/organization_roles", PageInfo, 1L)
@@ -4,6 +4,7 @@ import io.choerodon.base.domain.PageRequest
 import io.choerodon.core.oauth.CustomUserDetails
 import io.choerodon.core.oauth.DetailsHelper
 import io.choerodon.iam.infra.asserts.UserAssertHelper
+import io.choerodon.iam.infra.common.utils.cache.TokenMetadataCache
 import io.choerodon.iam.infra.dto.AccessTokenDTO
 import io.choerodon.iam.infra.dto.ClientDTO
 import io.choerodon.iam.infra.dto.RefreshTokenDTO
@@ -40,9 +41,11 @@ class AccessTokenServiceImplSpec extends Specification {
     private RefreshTokenMapper refreshTokenMapper = Mock(RefreshTokenMapper)
     private OauthTokenFeignClient oauthTokenFeignClient = Mock(OauthTokenFeignClient)
     private UserAssertHelper userAssertHelper = Mock(UserAssertHelper)
+    private TokenMetadataCache tokenMetadataCache = Mock(TokenMetadataCache)
 
     private AccessTokenServiceImpl accessTokenService =
-            new AccessTokenServiceImpl(accessTokenMapper, refreshTokenMapper, oauthTokenFeignClient, userAssertHelper)
+            new AccessTokenServiceImpl(accessTokenMapper, refreshTokenMapper, oauthTokenFeignClient, userAssertHelper,
+                    tokenMetadataCache, 2)
 
     @Shared
     def accessTokenList = new ArrayList<AccessTokenDTO>()
@@ -123,7 +126,8 @@ class AccessTokenServiceImplSpec extends Specification {
         userDTO.getLoginName() >> "user"
 
         and:
-        accessTokenMapper.selectTokens(_, _) >> list
+        accessTokenMapper.selectTokenPage(_, _, _) >> list
+        tokenMetadataCache.getAll(_) >> [:]
         PageRequest pageRequest = new PageRequest(1,20)
 
         when:
@@ -150,7 +154,7 @@ class AccessTokenServiceImplSpec extends Specification {
         dto.setRefreshToken("0001419a84132ec887b9f4222934a42d")
 
         and:
-        accessTokenMapper.selectByPrimaryKey(_) >> dto
+        accessTokenMapper.selectTokenIds(_) >> [dto.getTokenId()]
 
         when:
         accessTokenService.delete("0001419a84132ec887b9f4222934a42d", "0001419a84132ec887b9f4222934a42d")
@@ -158,4 +162,36 @@ class AccessTokenServiceImplSpec extends Specification {
         1 * oauthTokenFeignClient.deleteToken(_)
         noExceptionThrown()
     }
+
+    def "DeleteAllExpiredToken"() {
+        given: "两个没有过期时间的token，一个已过期"
+        AccessTokenDTO expired = new AccessTokenDTO()
+        expired.setTokenId("1")
+        DefaultOAuth2AccessToken expiredToken = new DefaultOAuth2AccessToken("expired")
+        expiredToken.setExpiration(new Date(new Date().getTime() - 3600000))
+        expired.setToken(SerializationUtils.serialize(expiredToken))
+        AccessTokenDTO valid = new AccessTokenDTO()
+        valid.setTokenId("2")
+        DefaultOAuth2AccessToken validToken = new DefaultOAuth2AccessToken("valid")
+        validToken.setExpiration(new Date(new Date().getTime() + 3600000))
+        valid.setToken(SerializationUtils.serialize(validToken))
+
+        AccessTokenDTO toDelete = new AccessTokenDTO()
+        toDelete.setTokenId("1")
+        toDelete.setRefreshToken("r1")
+
+        when: "清理过期token"
+        accessTokenService.deleteAllExpiredToken(null)
+
+        then: "按批回写过期时间，再按过期时间批量删除"
+        1 * accessTokenMapper.selectWithoutExpiration(null, 2) >> [expired, valid]
+        1 * accessTokenMapper.selectWithoutExpiration("2", 2) >> []
+        1 * accessTokenMapper.batchUpdateExpiration({ List<AccessTokenDTO> l ->
+            l.size() == 2 && l[0].getExpirationTime() == expiredToken.getExpiration() && l[0].getToken() == null
+        })
+        1 * accessTokenMapper.selectExpired(_, 2) >> [toDelete]
+        1 * accessTokenMapper.deleteByTokenIds(["1"] as Set) >> 1
+        1 * refreshTokenMapper.deleteByTokenIds(["r1"] as Set) >> 1
+        0 * accessTokenMapper.selectAll()
+    }
 }
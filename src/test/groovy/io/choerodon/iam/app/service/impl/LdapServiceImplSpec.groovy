@@ -4,6 +4,7 @@ import io.choerodon.iam.IntegrationTestConfiguration
 import io.choerodon.iam.app.service.LdapService
 import io.choerodon.iam.infra.asserts.LdapAssertHelper
 import io.choerodon.iam.infra.asserts.OrganizationAssertHelper
+import io.choerodon.iam.infra.common.utils.ldap.LdapContextSourceRegistry
 import io.choerodon.iam.infra.common.utils.ldap.LdapSyncUserTask
 import io.choerodon.iam.infra.dto.LdapDTO
 import io.choerodon.iam.infra.dto.OrganizationDTO
@@ -35,12 +36,14 @@ class LdapServiceImplSpec extends Specification {
     LdapErrorUserMapper ldapErrorUserMapper
     @Autowired
     LdapHistoryMapper ldapHistoryMapper
+    @Autowired
+    LdapContextSourceRegistry ldapContextSourceRegistry
     LdapService ldapService
 
 
     def setup() {
         ldapService = new LdapServiceImpl(organizationAssertHelper, ldapAssertHelper,
-                ldapMapper, ldapSyncUserTask, finishFallback, ldapErrorUserMapper, ldapHistoryMapper)
+                ldapMapper, ldapSyncUserTask, finishFallback, ldapErrorUserMapper, ldapHistoryMapper, ldapContextSourceRegistry)
         LdapDTO ldapDTO = new LdapDTO()
         ldapDTO.setServerAddress("ldap://acfun.hand.com")
         ldapDTO.setPort("389")
@@ -12,6 +12,9 @@ import io.choerodon.iam.app.service.UserService
 import io.choerodon.iam.infra.asserts.OrganizationAssertHelper
 import io.choerodon.iam.infra.asserts.ProjectAssertHelper
 import io.choerodon.iam.infra.asserts.UserAssertHelper
+import io.choerodon.iam.infra.common.utils.cache.MenuCache
+import io.choerodon.iam.infra.common.utils.cache.PermissionCheckCache
+import io.choerodon.iam.infra.common.utils.cache.ProjectCategoryCache
 import io.choerodon.iam.infra.dto.ProjectDTO
 import io.choerodon.iam.infra.feign.AsgardFeignClient
 import io.choerodon.iam.infra.mapper.LabelMapper
@@ -67,12 +70,19 @@ class OrganizationProjectServiceImplSpec extends Specification {
     ProjectRelationshipMapper projectRelationshipMapper
     @Autowired
     RoleMemberService roleMemberService
+    @Autowired
+    PermissionCheckCache permissionCheckCache
+    @Autowired
+    MenuCache menuCache
+    @Autowired
+    ProjectCategoryCache projectCategoryCache
 
     def setup() {
         given: "构造organizationProjectService"
         organizationProjectService = new OrganizationProjectServiceImpl(sagaClient, userService, asgardFeignClient, projectMapCategoryMapper,
                 projectCategoryMapper, projectMapper, projectAssertHelper, projectTypeMapper, organizationAssertHelper, userAssertHelper,
-                roleMapper, labelMapper, projectRelationshipMapper, roleMemberService)
+                roleMapper, labelMapper, projectRelationshipMapper, roleMemberService, permissionCheckCache, menuCache,
+                projectCategoryCache)
         Field field = organizationProjectService.getClass().getDeclaredField("devopsMessage")
         field.setAccessible(true)
         field.set(organizationProjectService, true)
@@ -4,16 +4,21 @@ import io.choerodon.asgard.saga.dto.StartInstanceDTO
 import io.choerodon.asgard.saga.feign.SagaClient
 import io.choerodon.core.oauth.DetailsHelper
 import io.choerodon.iam.IntegrationTestConfiguration
+import io.choerodon.iam.api.dto.UserSearchDTO
 import io.choerodon.iam.api.validator.UserPasswordValidator
 import io.choerodon.iam.app.service.OrganizationUserService
 import io.choerodon.iam.app.service.SystemSettingService
 import io.choerodon.iam.app.service.UserService
 import io.choerodon.iam.infra.asserts.OrganizationAssertHelper
 import io.choerodon.iam.infra.asserts.UserAssertHelper
+import io.choerodon.iam.infra.common.utils.cache.UserLookupCache
+import io.choerodon.iam.infra.common.utils.search.UserSearchIndex
 import io.choerodon.iam.infra.dto.UserDTO
+import io.choerodon.iam.infra.dto.UserSearchGramDTO
 import io.choerodon.iam.infra.feign.OauthTokenFeignClient
 import io.choerodon.iam.infra.mapper.OrganizationMapper
 import io.choerodon.iam.infra.mapper.UserMapper
+import io.choerodon.iam.infra.mapper.UserSearchGramMapper
 import io.choerodon.oauth.core.password.PasswordPolicyManager
 import io.choerodon.oauth.core.password.mapper.BasePasswordPolicyMapper
 import io.choerodon.oauth.core.password.record.PasswordRecord
@@ -59,12 +64,19 @@ class OrganizationUserServiceImplSpec extends Specification {
     UserAssertHelper userAssertHelper
     @Autowired
     UserMapper userMapper
+    @Autowired
+    UserSearchIndex userSearchIndex
+    @Autowired
+    UserLookupCache userLookupCache
+    @Autowired
+    UserSearchGramMapper userSearchGramMapper
 
     def setup() {
         given: "构造organizationUserService"
         organizationUserService = new OrganizationUserServiceImpl(passwordRecord, passwordPolicyManager,
                 basePasswordPolicyMapper, oauthTokenFeignClient, userPasswordValidator, systemSettingService, sagaClient,
-                organizationAssertHelper, organizationMapper, userAssertHelper, userMapper, userService)
+                organizationAssertHelper, organizationMapper, userAssertHelper, userMapper, userService,
+                userSearchIndex, userLookupCache)
         Field field = organizationUserService.getClass().getDeclaredField("devopsMessage")
         field.setAccessible(true)
         field.set(organizationUserService, true)
@@ -112,10 +124,43 @@ class OrganizationUserServiceImplSpec extends Specification {
         insertUsers << user1
 
         when: "调用方法"
-        organizationUserService.batchCreateUsers(insertUsers)
+        def errorUsers = organizationUserService.batchCreateUsers(insertUsers)
 
         then: "校验结果"
         1 * sagaClient.startSaga(_ as String, _ as StartInstanceDTO)
+        errorUsers.isEmpty()
+        user.getId() != null
+        user1.getId() != null
+        user.getId() != user1.getId()
+        userMapper.selectByPrimaryKey(user.getId()).getLoginName() == "1"
+        userMapper.selectByPrimaryKey(user1.getId()).getLoginName() == "2"
+    }
+
+    @Transactional
+    def "BatchCreateUsers With Duplicated LoginName"() {
+        given: "同一批中两个用户登录名重复"
+        UserDTO user = new UserDTO()
+        user.setEnabled(true)
+        user.setLoginName("duplicated")
+        user.setEmail("duplicated1@email")
+        user.setOrganizationId(1L)
+        user.setLanguage("zh_CN")
+        user.setTimeZone("CTT")
+        user.setLastPasswordUpdatedAt(new Date())
+        user.setLocked(false)
+
+        UserDTO user1 = new UserDTO()
+        BeanUtils.copyProperties(user, user1)
+        user1.setEmail("duplicated2@email")
+
+        when: "调用方法"
+        def errorUsers = organizationUserService.batchCreateUsers([user, user1])
+
+        then: "多行插入失败后逐条插入，只有重复的用户记为失败"
+        _ * sagaClient.startSaga(*_)
+        errorUsers.size() == 1
+        errorUsers[0].getEmail() == "duplicated2@email"
+        userMapper.selectByPrimaryKey(user.getId()).getEmail() == "duplicated1@email"
     }
 
     @Transactional
@@ -160,4 +205,51 @@ class OrganizationUserServiceImplSpec extends Specification {
         then: "校验结果"
         1 * sagaClient.startSaga(_ as String, _ as StartInstanceDTO)
     }
+
+    def "KeysetQuery"() {
+        given: "构造请求参数"
+        UserSearchDTO user = new UserSearchDTO()
+        user.setOrganizationId(1L)
+
+        when: "查询第一页"
+        def firstPage = organizationUserService.keysetQuery(null, 1, true, user)
+
+        then: "校验结果"
+        firstPage.list.size() <= 1
+        firstPage.total >= firstPage.list.size()
+
+        when: "以上一页最后一个id查询下一页"
+        def nextPage = organizationUserService.keysetQuery(firstPage.lastId, 1, false, user)
+
+        then: "校验结果"
+        firstPage.lastId == null || nextPage.list.every { it.id < firstPage.lastId }
+        nextPage.total == null
+    }
+
+    @Transactional
+    def "BatchCreateUsers With Search Index"() {
+        given: "开启搜索索引"
+        UserSearchIndex index = new UserSearchIndex(userSearchGramMapper, true, false)
+        OrganizationUserService service = new OrganizationUserServiceImpl(passwordRecord, passwordPolicyManager,
+                basePasswordPolicyMapper, oauthTokenFeignClient, userPasswordValidator, systemSettingService, sagaClient,
+                organizationAssertHelper, organizationMapper, userAssertHelper, userMapper, userService,
+                index, userLookupCache)
+        UserDTO user = new UserDTO()
+        user.setEnabled(true)
+        user.setLoginName("gramuser")
+        user.setRealName("gram")
+        user.setEmail("gramuser@example.com")
+        user.setOrganizationId(1L)
+        user.setLanguage("zh_CN")
+        user.setTimeZone("CTT")
+        user.setLocked(false)
+
+        when: "批量创建用户"
+        def errorUsers = service.batchCreateUsers([user])
+
+        then: "用户和分词在同一事务中写入"
+        errorUsers.isEmpty()
+        user.getId() != null
+        userSearchGramMapper.select(new UserSearchGramDTO(user.getId(), 1L, "gr")).size() == 1
+    }
 }
@@ -1,6 +1,8 @@
 package io.choerodon.iam.app.service.impl
 
 import io.choerodon.eureka.event.EurekaEventPayload
+import io.choerodon.iam.infra.common.utils.cache.PermissionBitmapIndex
+import io.choerodon.iam.infra.common.utils.cache.PermissionCheckCache
 import io.choerodon.iam.infra.dto.PermissionDTO
 import io.choerodon.iam.infra.dto.RoleDTO
 import io.choerodon.iam.infra.mapper.PermissionMapper
@@ -28,7 +30,7 @@ class ParsePermissionServiceImplSpec extends Specification {
     RoleMapper roleMapper
     
     private ParsePermissionServiceImpl parsePermissionService =
-            new ParsePermissionServiceImpl(permissionMapper, rolePermissionMapper, roleMapper)
+            new ParsePermissionServiceImpl(permissionMapper, rolePermissionMapper, roleMapper, new PermissionCheckCache(Mock(PermissionBitmapIndex), 100, 60))
 
     @Transactional
     def "Parser"() {
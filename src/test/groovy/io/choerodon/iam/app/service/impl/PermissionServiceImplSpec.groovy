@@ -0,0 +1,173 @@
+package io.choerodon.iam.app.service.impl
+
+import io.choerodon.core.iam.ResourceLevel
+import io.choerodon.core.oauth.CustomUserDetails
+import io.choerodon.core.oauth.DetailsHelper
+import io.choerodon.iam.api.dto.CheckPermissionDTO
+import io.choerodon.iam.api.dto.SourceRoleDTO
+import io.choerodon.iam.infra.common.utils.cache.PermissionBitmapIndex
+import io.choerodon.iam.infra.common.utils.cache.PermissionCheckCache
+import io.choerodon.iam.infra.dto.PermissionDTO
+import io.choerodon.iam.infra.dto.RolePermissionDTO
+import io.choerodon.iam.infra.mapper.MemberRoleMapper
+import io.choerodon.iam.infra.mapper.PermissionMapper
+import io.choerodon.iam.infra.mapper.RolePermissionMapper
+import spock.lang.Specification
+
+class PermissionServiceImplSpec extends Specification {
+
+    private static final String SITE = ResourceLevel.SITE.value()
+    private static final String ORGANIZATION = ResourceLevel.ORGANIZATION.value()
+    private static final String PROJECT = ResourceLevel.PROJECT.value()
+
+    private PermissionMapper permissionMapper = Mock(PermissionMapper)
+    private RolePermissionMapper rolePermissionMapper = Mock(RolePermissionMapper)
+    private MemberRoleMapper memberRoleMapper = Mock(MemberRoleMapper)
+    private PermissionCheckCache permissionCheckCache
+    private PermissionServiceImpl permissionService
+
+    def setup() {
+        permissionMapper.selectIndexItems() >> [
+                permission(1L, "org.read", ORGANIZATION, false),
+                permission(2L, "org.write", ORGANIZATION, false),
+                permission(3L, "project.read", PROJECT, false),
+                permission(4L, "public.api", SITE, true),
+                permission(5L, "site.manage", SITE, false)
+        ]
+        //角色10拥有组织层和项目层权限，角色11只有组织层写权限，停用的角色不会被selectOfEnabledRoles查出
+        rolePermissionMapper.selectOfEnabledRoles() >> [
+                rolePermission(10L, 1L),
+                rolePermission(10L, 3L),
+                rolePermission(11L, 2L)
+        ]
+        permissionCheckCache = new PermissionCheckCache(
+                new PermissionBitmapIndex(permissionMapper, rolePermissionMapper, 300), 100, 60)
+        permissionService = new PermissionServiceImpl(null, permissionMapper, null, rolePermissionMapper,
+                null, memberRoleMapper, permissionCheckCache)
+        CustomUserDetails details = new CustomUserDetails("user", "unknown")
+        details.setUserId(1L)
+        details.setAdmin(false)
+        DetailsHelper.setCustomUserDetails(details)
+    }
+
+    def "CheckPermission"() {
+        given: "用户在组织100拥有角色10，在停用的组织200拥有角色11，在项目300拥有角色10"
+        List<CheckPermissionDTO> checks = [
+                check("org.read", ORGANIZATION, 100L, null),
+                check("org.write", ORGANIZATION, 100L, null),
+                check("project.read", ORGANIZATION, 100L, null),
+                check("public.api", ORGANIZATION, 100L, null),
+                check("org.write", ORGANIZATION, 200L, null),
+                check("project.read", PROJECT, null, 300L),
+                check("site.manage", SITE, null, null),
+                check("not.existed", ORGANIZATION, 100L, null)
+        ]
+
+        when: "校验权限"
+        permissionService.checkPermission(checks)
+
+        then: "角色权限与层级取交集，公共权限总是通过，停用的组织不通过任何权限"
+        1 * memberRoleMapper.selectSourceRoles(1L, true, _, _) >> [
+                sourceRole(ORGANIZATION, 100L, 10L, true),
+                sourceRole(ORGANIZATION, 200L, 11L, false),
+                sourceRole(PROJECT, 300L, 10L, true)
+        ]
+        checks*.approve == [true, false, false, true, false, true, false, false]
+
+        when: "再次校验"
+        checks.each { it.setApprove(null) }
+        permissionService.checkPermission(checks)
+
+        then: "命中缓存，不再查询角色"
+        0 * memberRoleMapper.selectSourceRoles(*_)
+        checks*.approve == [true, false, false, true, false, true, false, false]
+    }
+
+    def "CheckPermission After Role Permission Changed"() {
+        given: "用户在组织100拥有角色11，角色11的权限在两次加载之间新增了读权限"
+        RolePermissionMapper changingMapper = Mock(RolePermissionMapper)
+        changingMapper.selectOfEnabledRoles() >>> [[rolePermission(11L, 2L)], [rolePermission(11L, 1L)]]
+        PermissionCheckCache cache = new PermissionCheckCache(
+                new PermissionBitmapIndex(permissionMapper, changingMapper, 300), 100, 60)
+        PermissionServiceImpl service = new PermissionServiceImpl(null, permissionMapper, null, changingMapper,
+                null, memberRoleMapper, cache)
+        memberRoleMapper.selectSourceRoles(*_) >> [sourceRole(ORGANIZATION, 100L, 11L, true)]
+        List<CheckPermissionDTO> checks = [check("org.read", ORGANIZATION, 100L, null)]
+
+        when: "校验权限"
+        service.checkPermission(checks)
+
+        then: "角色11没有读权限"
+        !checks[0].approve
+
+        when: "角色权限变更后失效缓存"
+        cache.invalidateAll()
+        service.checkPermission(checks)
+
+        then: "重建位图后通过"
+        checks[0].approve
+    }
+
+    def "Snapshot Expired"() {
+        given: "快照过期时间为0"
+        PermissionBitmapIndex index = new PermissionBitmapIndex(permissionMapper, rolePermissionMapper, 0)
+
+        when: "连续获取快照"
+        def first = index.current()
+        def second = index.current()
+
+        then: "每次都重新加载，其他实例的变更不会一直不可见"
+        !first.is(second)
+    }
+
+    def "CheckPermission Super Admin"() {
+        given: "超级管理员"
+        CustomUserDetails details = new CustomUserDetails("admin", "unknown")
+        details.setUserId(1L)
+        details.setAdmin(true)
+        DetailsHelper.setCustomUserDetails(details)
+        List<CheckPermissionDTO> checks = [check("site.manage", SITE, null, null), check("not.existed", SITE, null, null)]
+
+        when: "校验权限"
+        permissionService.checkPermission(checks)
+
+        then: "存在的权限都通过"
+        0 * memberRoleMapper.selectSourceRoles(*_)
+        checks*.approve == [true, false]
+    }
+
+    private static PermissionDTO permission(Long id, String code, String level, boolean publicAccess) {
+        PermissionDTO permission = new PermissionDTO()
+        permission.setId(id)
+        permission.setCode(code)
+        permission.setResourceLevel(level)
+        permission.setPublicAccess(publicAccess)
+        permission.setLoginAccess(false)
+        return permission
+    }
+
+    private static RolePermissionDTO rolePermission(Long roleId, Long permissionId) {
+        RolePermissionDTO rolePermission = new RolePermissionDTO()
+        rolePermission.setRoleId(roleId)
+        rolePermission.setPermissionId(permissionId)
+        return rolePermission
+    }
+
+    private static SourceRoleDTO sourceRole(String sourceType, Long sourceId, Long roleId, boolean enabled) {
+        SourceRoleDTO sourceRole = new SourceRoleDTO()
+        sourceRole.setSourceType(sourceType)
+        sourceRole.setSourceId(sourceId)
+        sourceRole.setRoleId(roleId)
+        sourceRole.setEnabled(enabled)
+        return sourceRole
+    }
+
+    private static CheckPermissionDTO check(String code, String level, Long organizationId, Long projectId) {
+        CheckPermissionDTO check = new CheckPermissionDTO()
+        check.setCode(code)
+        check.setResourceType(level)
+        check.setOrganizationId(organizationId)
+        check.setProjectId(projectId)
+        return check
+    }
+}
@@ -1,12 +1,22 @@
 package io.choerodon.iam.app.service.impl
 
 import io.choerodon.asgard.saga.feign.SagaClient
+import io.choerodon.core.exception.CommonException
+import io.choerodon.core.iam.ResourceLevel
 import io.choerodon.core.oauth.DetailsHelper
 import io.choerodon.iam.IntegrationTestConfiguration
+import io.choerodon.iam.api.dto.RoleAssignmentDeleteDTO
+import io.choerodon.iam.api.validator.RoleAssignmentViewValidator
 import io.choerodon.iam.app.service.RoleMemberService
 import io.choerodon.iam.infra.asserts.UserAssertHelper
+import io.choerodon.iam.infra.common.utils.cache.PermissionCheckCache
+import io.choerodon.iam.infra.common.utils.cache.RoleMemberCountCache
 import io.choerodon.iam.infra.common.utils.excel.ExcelImportUserTask
+import io.choerodon.iam.infra.dto.MemberRoleDTO
 import io.choerodon.iam.infra.dto.OrganizationDTO
+import io.choerodon.iam.infra.dto.ProjectDTO
+import io.choerodon.iam.infra.dto.RoleDTO
+import io.choerodon.iam.infra.dto.UserDTO
 import io.choerodon.iam.infra.mapper.ClientMapper
 import io.choerodon.iam.infra.mapper.LabelMapper
 import io.choerodon.iam.infra.mapper.MemberRoleMapper
@@ -23,6 +33,7 @@ import org.springframework.transaction.annotation.Transactional
 import org.springframework.web.multipart.MultipartFile
 import spock.lang.Specification
 
+import static io.choerodon.iam.infra.common.utils.SagaTopic.MemberRole.MEMBER_ROLE_UPDATE
 import static org.springframework.boot.test.context.SpringBootTest.WebEnvironment.RANDOM_PORT
 
 /**
@@ -31,6 +42,8 @@ import static org.springframework.boot.test.context.SpringBootTest.WebEnvironmen
 @Import(IntegrationTestConfiguration)
 class RoleMemberServiceImplSpec extends Specification {
 
+    private static final String PROJECT = ResourceLevel.PROJECT.value()
+
     @Autowired
     ExcelImportUserTask excelImportUserTask
     @Autowired
@@ -52,6 +65,10 @@ class RoleMemberServiceImplSpec extends Specification {
     ClientMapper clientMapper
     @Autowired
     UploadHistoryMapper UploadHistoryMapper
+    @Autowired
+    PermissionCheckCache permissionCheckCache
+    @Autowired
+    RoleMemberCountCache roleMemberCountCache
 
 
     RoleMemberService roleMemberService
@@ -60,7 +77,7 @@ class RoleMemberServiceImplSpec extends Specification {
         given: "构造 roleMemberService"
         roleMemberService = new RoleMemberServiceImpl(excelImportUserTask, finishFallback,
                 organizationMapper, projectMapper, memberRoleMapper, roleMapper,userAssertHelper, sagaClient,
-                labelMapper, clientMapper, UploadHistoryMapper)
+                labelMapper, clientMapper, UploadHistoryMapper, permissionCheckCache, roleMemberCountCache)
         
         DetailsHelper.setCustomUserDetails(1L,"zh_CN")
     }
@@ -81,4 +98,103 @@ class RoleMemberServiceImplSpec extends Specification {
         then: "校验结果"
         noExceptionThrown()
     }
+
+    def "CreateOrUpdateRolesByMemberIdOnProjectLevel With Several Members"() {
+        given: "用户1已拥有角色10，为用户1、2、3分配角色10和11"
+        MemberRoleMapper mockMemberRoleMapper = Mock(MemberRoleMapper)
+        RoleMemberServiceImpl service = mockedService(mockMemberRoleMapper)
+        mockMemberRoleMapper.selectByMemberIds(1L, PROJECT, "user", _) >>> [
+                [memberRole(100L, 1L, 10L)],
+                [memberRole(100L, 1L, 10L), memberRole(101L, 1L, 11L), memberRole(102L, 2L, 10L),
+                 memberRole(103L, 2L, 11L), memberRole(104L, 3L, 10L), memberRole(105L, 3L, 11L)]
+        ]
+
+        when: "调用方法"
+        List<MemberRoleDTO> result = service.createOrUpdateRolesByMemberIdOnProjectLevel(false, 1L, [1L, 2L, 3L],
+                [memberRole(null, null, 10L), memberRole(null, null, 11L)], "user")
+
+        then: "只插入缺少的角色分配，一次多行插入，操作人写入审计字段"
+        1 * mockMemberRoleMapper.batchInsert({ List<MemberRoleDTO> list ->
+            list.collect { [it.memberId, it.roleId] } as Set == [[1L, 11L], [2L, 10L], [2L, 11L], [3L, 10L], [3L, 11L]] as Set
+        }, 1L)
+        0 * mockMemberRoleMapper.deleteByIds(_)
+        1 * sagaClient.startSaga(MEMBER_ROLE_UPDATE, { it.input.contains('"userId":1') && it.input.contains('"userId":3') })
+        result.size() == 6
+    }
+
+    def "CreateOrUpdateRolesByMemberIdOnProjectLevel Edit"() {
+        given: "用户1拥有角色10和11，用户2拥有角色10，编辑为只保留角色11"
+        MemberRoleMapper mockMemberRoleMapper = Mock(MemberRoleMapper)
+        RoleMemberServiceImpl service = mockedService(mockMemberRoleMapper)
+        mockMemberRoleMapper.selectByMemberIds(1L, PROJECT, "user", _) >>> [
+                [memberRole(100L, 1L, 10L), memberRole(101L, 1L, 11L), memberRole(102L, 2L, 10L)],
+                [memberRole(101L, 1L, 11L), memberRole(103L, 2L, 11L)]
+        ]
+
+        when: "调用方法"
+        List<MemberRoleDTO> result = service.createOrUpdateRolesByMemberIdOnProjectLevel(true, 1L, [1L, 2L],
+                [memberRole(null, null, 11L)], "user")
+
+        then: "插入用户2的角色11，一次删除两个多余的角色分配，只发送一个saga"
+        1 * mockMemberRoleMapper.batchInsert({ List<MemberRoleDTO> list ->
+            list.collect { [it.memberId, it.roleId] } == [[2L, 11L]]
+        }, 1L)
+        1 * mockMemberRoleMapper.deleteByIds([100L, 102L])
+        1 * sagaClient.startSaga(MEMBER_ROLE_UPDATE, _)
+        result*.roleId == [11L, 11L]
+    }
+
+    def "Delete Not Existed MemberRole"() {
+        given: "用户1只拥有角色10，删除角色10和12"
+        MemberRoleMapper mockMemberRoleMapper = Mock(MemberRoleMapper)
+        RoleMemberServiceImpl service = mockedService(mockMemberRoleMapper)
+        mockMemberRoleMapper.selectByMemberIds(1L, PROJECT, "user", _) >> [memberRole(100L, 1L, 10L)]
+        RoleAssignmentDeleteDTO deleteDTO = new RoleAssignmentDeleteDTO()
+        deleteDTO.setSourceId(1L)
+        deleteDTO.setView(RoleAssignmentViewValidator.USER_VIEW)
+        deleteDTO.setData([(1L): [10L, 12L]])
+
+        when: "调用方法"
+        service.deleteOnProjectLevel(deleteDTO)
+
+        then: "校验失败，不删除任何记录也不发送saga"
+        CommonException e = thrown(CommonException)
+        e.message == "error.memberRole.not.exist"
+        0 * mockMemberRoleMapper.deleteByIds(_)
+        0 * sagaClient.startSaga(*_)
+    }
+
+    private RoleMemberServiceImpl mockedService(MemberRoleMapper mockMemberRoleMapper) {
+        UserAssertHelper mockUserAssertHelper = Mock(UserAssertHelper)
+        mockUserAssertHelper.usersNotExisted(_) >> { args ->
+            args[0].collectEntries { id ->
+                UserDTO user = new UserDTO()
+                user.setId(id)
+                user.setLoginName("user" + id)
+                [(id): user]
+            }
+        }
+        RoleMapper mockRoleMapper = Mock(RoleMapper)
+        mockRoleMapper.selectByPrimaryKey(_) >> new RoleDTO()
+        ProjectMapper mockProjectMapper = Mock(ProjectMapper)
+        mockProjectMapper.selectByPrimaryKey(_) >> new ProjectDTO()
+        LabelMapper mockLabelMapper = Mock(LabelMapper)
+        mockLabelMapper.selectRoleLabelNamesInRoleIds(_) >> []
+        RoleMemberServiceImpl service = new RoleMemberServiceImpl(null, null, Mock(OrganizationMapper),
+                mockProjectMapper, mockMemberRoleMapper, mockRoleMapper, mockUserAssertHelper, sagaClient,
+                mockLabelMapper, Mock(ClientMapper), null, Mock(PermissionCheckCache), Mock(RoleMemberCountCache))
+        service.@devopsMessage = true
+        return service
+    }
+
+    private static MemberRoleDTO memberRole(Long id, Long memberId, Long roleId) {
+        MemberRoleDTO memberRole = new MemberRoleDTO()
+        memberRole.setId(id)
+        memberRole.setMemberId(memberId)
+        memberRole.setRoleId(roleId)
+        memberRole.setMemberType("user")
+        memberRole.setSourceId(1L)
+        memberRole.setSourceType(PROJECT)
+        return memberRole
+    }
 }
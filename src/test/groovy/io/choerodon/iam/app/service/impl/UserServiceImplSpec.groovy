@@ -13,6 +13,9 @@ import io.choerodon.iam.infra.asserts.OrganizationAssertHelper
 import io.choerodon.iam.infra.asserts.ProjectAssertHelper
 import io.choerodon.iam.infra.asserts.RoleAssertHelper
 import io.choerodon.iam.infra.asserts.UserAssertHelper
+import io.choerodon.iam.infra.common.utils.cache.ProjectCategoryCache
+import io.choerodon.iam.infra.common.utils.cache.UserLookupCache
+import io.choerodon.iam.infra.common.utils.search.UserSearchIndex
 import io.choerodon.iam.infra.dto.UserDTO
 import io.choerodon.iam.infra.feign.FileFeignClient
 import io.choerodon.iam.infra.feign.NotifyFeignClient
@@ -22,8 +25,10 @@ import io.choerodon.oauth.core.password.mapper.BasePasswordPolicyMapper
 import io.choerodon.oauth.core.password.record.PasswordRecord
 import org.apache.http.entity.ContentType
 import org.springframework.beans.factory.annotation.Autowired
+import org.springframework.beans.factory.annotation.Qualifier
 import org.springframework.boot.test.context.SpringBootTest
 import org.springframework.context.annotation.Import
+import org.springframework.core.task.AsyncTaskExecutor
 import org.springframework.http.HttpStatus
 import org.springframework.http.ResponseEntity
 import org.springframework.mock.web.MockMultipartFile
@@ -57,7 +62,7 @@ class UserServiceImplSpec extends Specification {
     @Autowired
     MemberRoleMapper memberRoleMapper
     @Autowired
-    ProjectMapCategoryMapper projectMapCategoryMapper
+    ProjectCategoryCache projectCategoryCache
     NotifyFeignClient notifyFeignClient = Mock(NotifyFeignClient)
     @Autowired
     UserMapper userMapper
@@ -73,6 +78,13 @@ class UserServiceImplSpec extends Specification {
     ProjectAssertHelper projectAssertHelper
     @Autowired
     RoleAssertHelper roleAssertHelper
+    @Autowired
+    @Qualifier("notify-batch-executor")
+    AsyncTaskExecutor notifyBatchExecutor
+    @Autowired
+    UserSearchIndex userSearchIndex
+    @Autowired
+    UserLookupCache userLookupCache
     def checkLogin = false
 
 
@@ -80,9 +92,10 @@ class UserServiceImplSpec extends Specification {
         given: "构造userService"
         userService = new UserServiceImpl(passwordRecord, fileFeignClient,
                 sagaClient, basePasswordPolicyMapper, userPasswordValidator, passwordPolicyManager,
-                memberRoleMapper, projectMapCategoryMapper, notifyFeignClient, userMapper,
+                memberRoleMapper, projectCategoryCache, notifyFeignClient, userMapper,
                 userAssertHelper, organizationAssertHelper, projectMapper, organizationMapper,
-                projectAssertHelper, roleAssertHelper)
+                projectAssertHelper, roleAssertHelper, notifyBatchExecutor, userSearchIndex,
+                userLookupCache)
         Field field = userService.getClass().getDeclaredField("devopsMessage")
         field.setAccessible(true)
         field.set(userService, true)
@@ -0,0 +1,70 @@
+package io.choerodon.iam.infra.common.utils.cache
+
+import spock.lang.Specification
+
+import java.util.function.Function
+
+class LocalCacheSpec extends Specification {
+
+    def "Get"() {
+        given: "构造缓存"
+        LocalCache<Long, String> cache = new LocalCache<>(10, 60000)
+        Function<Long, String> loader = Mock(Function)
+
+        when: "连续查询两次"
+        def first = cache.get(1L, loader)
+        def second = cache.get(1L, loader)
+
+        then: "只加载一次"
+        1 * loader.apply(1L) >> "one"
+        first == "one"
+        second == "one"
+        cache.getHitCount() == 1
+        cache.getMissCount() == 1
+    }
+
+    def "Evict"() {
+        given: "构造容量为2的缓存"
+        LocalCache<Long, String> cache = new LocalCache<>(2, 60000)
+
+        when: "写入三个条目"
+        cache.put(1L, "one")
+        cache.put(2L, "two")
+        cache.getIfPresent(1L)
+        cache.put(3L, "three")
+
+        then: "淘汰最久未访问的条目"
+        cache.size() == 2
+        cache.getIfPresent(1L) == "one"
+        cache.getIfPresent(2L) == null
+    }
+
+    def "Invalidate"() {
+        given: "构造缓存"
+        LocalCache<Long, String> cache = new LocalCache<>(10, 60000)
+        cache.put(1L, "one")
+        cache.put(2L, "two")
+        long generation = cache.generation()
+
+        when: "失效部分条目后写入失效前加载的结果"
+        cache.invalidateIf({ k -> k == 1L })
+        cache.putIfGeneration(3L, "three", generation)
+
+        then: "失效前加载的结果不写入缓存"
+        cache.getIfPresent(1L) == null
+        cache.getIfPresent(2L) == "two"
+        cache.getIfPresent(3L) == null
+    }
+
+    def "Disabled"() {
+        given: "构造容量为0的缓存"
+        LocalCache<Long, String> cache = new LocalCache<>(0, 60000)
+
+        when: "写入条目"
+        cache.put(1L, "one")
+
+        then: "不缓存"
+        !cache.isEnabled()
+        cache.getIfPresent(1L) == null
+    }
+}
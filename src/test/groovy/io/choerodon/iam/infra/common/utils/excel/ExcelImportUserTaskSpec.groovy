@@ -16,6 +16,7 @@ import io.choerodon.iam.infra.mapper.UserMapper
 import org.springframework.beans.factory.annotation.Autowired
 import org.springframework.boot.test.context.SpringBootTest
 import org.springframework.context.annotation.Import
+import org.springframework.core.task.SimpleAsyncTaskExecutor
 import org.springframework.http.HttpStatus
 import org.springframework.http.ResponseEntity
 import org.springframework.transaction.annotation.Transactional
@@ -55,7 +56,8 @@ class ExcelImportUserTaskSpec extends Specification {
 
     def setup() {
         excelImportUserTask = new ExcelImportUserTask(roleMemberService, organizationUserService,
-                fileFeignClient, userService, userPasswordValidator, userMapper, roleMapper, memberRoleMapper)
+                fileFeignClient, userService, userPasswordValidator, userMapper, roleMapper, memberRoleMapper,
+                new SimpleAsyncTaskExecutor())
     }
 
     @Transactional
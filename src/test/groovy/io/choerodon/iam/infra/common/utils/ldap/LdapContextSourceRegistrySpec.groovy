@@ -0,0 +1,55 @@
+package io.choerodon.iam.infra.common.utils.ldap
+
+import io.choerodon.iam.infra.dto.LdapDTO
+import org.springframework.ldap.core.support.LdapContextSource
+import spock.lang.Specification
+
+class LdapContextSourceRegistrySpec extends Specification {
+
+    LdapContextSourceRegistry registry = new LdapContextSourceRegistry(8, 300, 30)
+
+    def "Get"() {
+        given: "构造ldap配置"
+        LdapDTO ldap = ldap(1L)
+
+        when: "相同配置和userDn重复获取"
+        def first = registry.get(ldap, "cn=admin", "secret")
+        def second = registry.get(ldap, "cn=admin", "secret")
+
+        then: "复用同一个连接池"
+        first.is(second)
+        !(first instanceof LdapContextSource)
+        !registry.get(ldap, null, null).is(first)
+
+        when: "其他实例修改了密码"
+        def changed = registry.get(ldap, "cn=admin", "changed")
+
+        then: "重建连接池"
+        !changed.is(first)
+
+        when: "通过update修改配置后失效"
+        registry.invalidate(1L)
+
+        then: "重建连接池"
+        !registry.get(ldap, "cn=admin", "changed").is(changed)
+    }
+
+    def "Get Unsaved Ldap"() {
+        when: "ldap配置未保存"
+        LdapDTO ldap = ldap(null)
+
+        then: "不放入池中"
+        registry.get(ldap, null, null) instanceof LdapContextSource
+        !registry.get(ldap, null, null).is(registry.get(ldap, null, null))
+    }
+
+    private static LdapDTO ldap(Long id) {
+        LdapDTO ldap = new LdapDTO()
+        ldap.setId(id)
+        ldap.setServerAddress("ldap://localhost")
+        ldap.setPort("389")
+        ldap.setBaseDn("dc=example,dc=com")
+        ldap.setConnectionTimeout(10)
+        return ldap
+    }
+}
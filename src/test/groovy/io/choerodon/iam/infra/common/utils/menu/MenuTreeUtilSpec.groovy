@@ -0,0 +1,97 @@
+package io.choerodon.iam.infra.common.utils.menu
+
+import io.choerodon.base.enums.MenuType
+import io.choerodon.iam.infra.dto.MenuDTO
+import spock.lang.Specification
+
+class MenuTreeUtilSpec extends Specification {
+
+    private static final String TOP = MenuType.TOP.value()
+    private static final String DIR = MenuType.MENU.value()
+    private static final String ITEM = MenuType.MENU_ITEM.value()
+
+    def "ToTreeMenu"() {
+        given: "构造菜单"
+        MenuDTO top = menu(1L, "choerodon.code.top.site", null, TOP, null)
+        List<MenuDTO> menus = [
+                menu(2L, "dir-a", "choerodon.code.top.site", DIR, 2),
+                menu(3L, "dir-b", "CHOERODON.CODE.TOP.SITE", DIR, 1),
+                menu(4L, "dir-empty", "choerodon.code.top.site", DIR, null),
+                menu(5L, "item-a2", "dir-a", ITEM, null),
+                menu(6L, "item-a1", "dir-a", ITEM, 1),
+                menu(7L, "item-a3", "dir-a", ITEM, 1),
+                menu(8L, "item-b1", "dir-b", ITEM, 1),
+                menu(9L, "other-top", "choerodon.code.top.site", TOP, 0)
+        ]
+
+        when: "显示空目录"
+        MenuTreeUtil.toTreeMenu(top, menus, true)
+
+        then: "按sort排序，sort为空排在最后，sort相同时按id排序"
+        top.getSubMenus()*.code == ["dir-b", "dir-a", "dir-empty"]
+        top.getSubMenus()[1].getSubMenus()*.code == ["item-a1", "item-a3", "item-a2"]
+        top.getSubMenus()[2].getSubMenus() == null
+
+        when: "不显示空目录"
+        MenuTreeUtil.toTreeMenu(top, menus, false)
+
+        then: "过滤空目录"
+        top.getSubMenus()*.code == ["dir-b", "dir-a"]
+    }
+
+    def "ToTreeMenu With Cycle"() {
+        given: "构造成环的目录"
+        MenuDTO top = menu(1L, TOP, null, TOP, null)
+        List<MenuDTO> menus = [
+                menu(2L, "dir-a", TOP, DIR, 1),
+                menu(3L, "dir-b", "dir-a", DIR, 1),
+                menu(4L, "dir-a", "dir-b", DIR, 1),
+                menu(5L, "item", "dir-b", ITEM, 1)
+        ]
+
+        when: "组装菜单树"
+        MenuTreeUtil.toTreeMenu(top, menus, true)
+
+        then: "重复的目录只挂载一次"
+        top.getSubMenus()*.code == ["dir-a"]
+        top.getSubMenus()[0].getSubMenus()*.code == ["dir-b"]
+        top.getSubMenus()[0].getSubMenus()[0].getSubMenus()*.code == ["item"]
+    }
+
+    def "ToTreeMenu Large"() {
+        given: "构造50个目录，每个目录下100个菜单，共5050个菜单"
+        MenuDTO top = menu(0L, TOP, null, TOP, null)
+        List<MenuDTO> menus = new ArrayList<>()
+        long id = 1
+        for (int i = 0; i < 50; i++) {
+            menus.add(menu(id++, "dir-" + i, TOP, DIR, 50 - i))
+            for (int j = 0; j < 100; j++) {
+                menus.add(menu(id++, "item-" + i + "-" + j, "dir-" + i, ITEM, j % 7 == 0 ? null : 100 - j))
+            }
+        }
+        Collections.shuffle(menus, new Random(1))
+
+        when: "组装菜单树"
+        long start = System.currentTimeMillis()
+        MenuTreeUtil.toTreeMenu(top, menus, false)
+        long cost = System.currentTimeMillis() - start
+
+        then: "所有菜单都挂载且顺序稳定"
+        top.getSubMenus().size() == 50
+        top.getSubMenus()[0].code == "dir-49"
+        top.getSubMenus().sum { it.getSubMenus().size() } == 5000
+        top.getSubMenus()[0].getSubMenus()[0].code == "item-49-99"
+        top.getSubMenus()[0].getSubMenus()[-1].code == "item-49-98"
+        cost < 5000
+    }
+
+    private static MenuDTO menu(Long id, String code, String parentCode, String type, Integer sort) {
+        MenuDTO menu = new MenuDTO()
+        menu.setId(id)
+        menu.setCode(code)
+        menu.setParentCode(parentCode)
+        menu.setType(type)
+        menu.setSort(sort)
+        return menu
+    }
+}
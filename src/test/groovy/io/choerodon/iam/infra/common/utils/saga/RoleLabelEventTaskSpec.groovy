@@ -0,0 +1,54 @@
+package io.choerodon.iam.infra.common.utils.saga
+
+import io.choerodon.asgard.saga.feign.SagaClient
+import io.choerodon.iam.infra.dto.UserDTO
+import io.choerodon.iam.infra.mapper.LabelMapper
+import io.choerodon.iam.infra.mapper.UserMapper
+import spock.lang.Specification
+
+import static io.choerodon.iam.infra.common.utils.SagaTopic.MemberRole.MEMBER_ROLE_UPDATE
+
+class RoleLabelEventTaskSpec extends Specification {
+
+    private UserMapper userMapper = Mock(UserMapper)
+    private LabelMapper labelMapper = Mock(LabelMapper)
+    private SagaClient sagaClient = Mock(SagaClient)
+    private RoleLabelEventTask roleLabelEventTask
+
+    def setup() {
+        roleLabelEventTask = new RoleLabelEventTask(userMapper, labelMapper, sagaClient)
+        roleLabelEventTask.@batchSize = 1
+        roleLabelEventTask.@retryTimes = 2
+        roleLabelEventTask.@retryIntervalMillis = 0L
+        userMapper.selectUsersFromMemberRoleByOptions(*_) >> [user(1L), user(2L)]
+        labelMapper.selectUserLabelNamesByRoleId(*_) >> []
+    }
+
+    def "SendRoleLabelEvent Retry"() {
+        when: "第一批发送失败一次"
+        roleLabelEventTask.sendRoleLabelEvent(10L)
+
+        then: "重试后成功，第二批正常发送"
+        1 * sagaClient.startSaga(MEMBER_ROLE_UPDATE, { it.input.contains("\"userId\":1") }) >> { throw new RuntimeException("asgard unavailable") }
+        1 * sagaClient.startSaga(MEMBER_ROLE_UPDATE, { it.input.contains("\"userId\":1") })
+        1 * sagaClient.startSaga(MEMBER_ROLE_UPDATE, { it.input.contains("\"userId\":2") })
+    }
+
+    def "SendRoleLabelEvent Failed"() {
+        when: "第一批一直发送失败"
+        roleLabelEventTask.sendRoleLabelEvent(10L)
+
+        then: "重试次数用完后放弃这一批，不影响后面的批次"
+        3 * sagaClient.startSaga(MEMBER_ROLE_UPDATE, { it.input.contains("\"userId\":1") }) >> { throw new RuntimeException("asgard unavailable") }
+        1 * sagaClient.startSaga(MEMBER_ROLE_UPDATE, { it.input.contains("\"userId\":2") })
+        noExceptionThrown()
+    }
+
+    private static UserDTO user(Long id) {
+        UserDTO user = new UserDTO()
+        user.setId(id)
+        user.setLoginName("user" + id)
+        user.setSourceId(1L)
+        return user
+    }
+}